@@ -16,6 +16,7 @@ import io.ulzha.spive.app.events.InstanceProgress;
 import io.ulzha.spive.app.events.InstanceStatusChange;
 import io.ulzha.spive.basicrunner.api.BasicRunnerGateway;
 import io.ulzha.spive.basicrunner.api.Umbilical;
+import io.ulzha.spive.lib.Event;
 import io.ulzha.spive.lib.EventIterator;
 import io.ulzha.spive.lib.EventLock;
 import io.ulzha.spive.lib.EventLog;
@@ -137,9 +138,7 @@ public interface SpiveInstance {
       try (EventLog inputEventLog = EventLog.open(args[0], args[1]);
           EventLog outputEventLog = EventLog.open(args[2], args[3])) {
         final EventIterator eventIterator = new EventIterator(inputEventLog.iterator());
-
-        // FIXME thread-safe supplier
-        final UmbilicalWriter umbilicus = umbilical.new Umbilicus(() -> eventIterator.lastTimeRead);
+        final UmbilicalWriter umbilicus = umbilical.new Umbilicus(eventIterator::currentTime);
 
         final EventLock eventLock = new EventLock();
         final SpiveOutputGateway output =
@@ -151,7 +150,7 @@ public interface SpiveInstance {
         final Spive app = new Spive(output, runner);
 
         List<Runnable> workloads = new ArrayList<>();
-        workloads.add(new EventLoop<Spive>(umbilicus, eventIterator, app, eventLock));
+        workloads.add(eventLoop(umbilicus, eventIterator, app, Main::dispatch, eventLock));
         workloads.addAll(selectWorkloads(app, args[5]));
 
         umbilical.addHeartbeat(null); // marks start of all the workloads
@@ -180,6 +179,29 @@ public interface SpiveInstance {
       }
     }
 
+    /**
+     * Calls the accept() overload for the type of event directly, sparing reflection on the hot
+     * path. Switches on the payload type rather than the type tag, so that events of either serde
+     * format are handled alike.
+     */
+    private static void dispatch(final Spive app, final Event event) throws NoSuchMethodException {
+      switch (event.payload) {
+        case CreateEventLog payload -> app.accept(payload, event.time);
+        case CreateInstance payload -> app.accept(payload, event.time);
+        case CreateProcess payload -> app.accept(payload, event.time);
+        case CreateStream payload -> app.accept(payload, event.time);
+        case CreateType payload -> app.accept(payload, event.time);
+        case DeleteInstance payload -> app.accept(payload, event.time);
+        case DeleteProcess payload -> app.accept(payload, event.time);
+        case InstanceIopw payload -> app.accept(payload, event.time);
+        case InstanceProgress payload -> app.accept(payload, event.time);
+        case InstanceStatusChange payload -> app.accept(payload, event.time);
+        default ->
+            throw new NoSuchMethodException(
+                "accept(" + event.payload.getClass().getName() + ", EventTime)");
+      }
+    }
+
     /* make overridable? Or instead, move out of generated spive.gen and subject to optimizer rules */
     private static List<Runnable> selectWorkloads(Spive app, final String workloads) {
       // TODO the rules for workload selection, unsure about them - when to keep a single replica,
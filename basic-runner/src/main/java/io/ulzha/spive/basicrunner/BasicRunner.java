@@ -11,13 +11,17 @@ import io.ulzha.spive.basicrunner.util.Http;
 import io.ulzha.spive.basicrunner.util.Http.StatusCode;
 import io.ulzha.spive.basicrunner.util.Jars;
 import io.ulzha.spive.basicrunner.util.Rest;
+import io.ulzha.spive.lib.EventSerde;
 import io.ulzha.spive.lib.HandledException;
 import io.ulzha.spive.lib.OpaqueException;
 import java.io.IOException;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.net.URLClassLoader;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +42,7 @@ import org.slf4j.LoggerFactory;
 public final class BasicRunner {
   private static final Logger LOG = LoggerFactory.getLogger(BasicRunner.class);
   private static final Map<String, ThreadGroupRecord> RECORDS = new ConcurrentHashMap<>();
+  private static final Duration AWAIT_THREADS_TIMEOUT = Duration.ofSeconds(30);
 
   private static class ThreadGroupRecord {
     private ThreadGroupRecord(
@@ -166,13 +171,9 @@ public final class BasicRunner {
   private static void runMain(final ThreadGroupRecord record) {
     final ThreadGroupDescriptor descriptor = record.threadGroupDescriptor;
 
+    final URLClassLoader loader;
     try {
-      Jars.runJar(
-          Jars.getJar(descriptor.artifactUrl()),
-          descriptor.mainClass(),
-          "main",
-          record.umbilical,
-          descriptor.args().toArray(new String[0]));
+      loader = Jars.newClassLoader(Jars.getJar(descriptor.artifactUrl()));
     } catch (IOException e) {
       // TODO semi-opaque? Or, to the contrary, don't add any runner exceptions to the umbilical,
       // only those thrown by artifact code? Useful invariant to distinguish concerns between data
@@ -180,10 +181,63 @@ public final class BasicRunner {
       record.umbilical.addError(null, e);
       throw new HandledException(e);
     }
+    try {
+      Jars.runInClassLoader(
+          loader,
+          descriptor.mainClass(),
+          "main",
+          record.umbilical,
+          descriptor.args().toArray(new String[0]));
+    } finally {
+      // Only once no thread of the application is left to resolve serdes again, or so it seems.
+      awaitOtherThreads(record.threadGroup);
+      EventSerde.evict(loader);
+    }
     // Long running requests ok? Or will we have STARTING state? Rather NOMINAL while
     // awaiting workload heartbeat, subject to a runner-specific startup timeout?
   }
 
+  /**
+   * Waits for the non-daemon threads of the application to terminate, for a bounded time, as some
+   * may be stuck ignoring interrupts. Daemon threads, such as prefetchers, are not waited for, as
+   * they may well last till their logs get closed, which the application might never do.
+   */
+  private static void awaitOtherThreads(final ThreadGroup threadGroup) {
+    // the interrupt that stopped main, if any, should not cut the wait short
+    boolean interrupted = Thread.interrupted();
+    final long deadline = System.nanoTime() + AWAIT_THREADS_TIMEOUT.toNanos();
+    Thread straggler;
+    while ((straggler = findNonDaemonThread(threadGroup)) != null) {
+      final long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0) {
+        LOG.warn(
+            "Gave up waiting for {} in {} to terminate",
+            straggler.getName(),
+            threadGroup.getName());
+        break;
+      }
+      try {
+        straggler.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos)));
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Thread findNonDaemonThread(final ThreadGroup threadGroup) {
+    final Thread[] threads = new Thread[threadGroup.activeCount() + 1];
+    final int n = threadGroup.enumerate(threads);
+    for (int i = 0; i < n; i++) {
+      if (threads[i] != Thread.currentThread() && !threads[i].isDaemon() && threads[i].isAlive()) {
+        return threads[i];
+      }
+    }
+    return null;
+  }
+
   /**
    * Controls replay mode
    *
@@ -111,12 +111,11 @@ public class Jars {
     return jarFile;
   }
 
-  public static void runJar(
-      final File jarFile,
-      final String className,
-      final String methodName,
-      final Umbilical umbilical,
-      final String[] args) {
+  /**
+   * Creates a classloader of its own for the jar, so that applications run side by side do not
+   * clash.
+   */
+  public static URLClassLoader newClassLoader(final File jarFile) {
     //    JarFile jarFile = new JarFile(file);
     //    Enumeration<JarEntry> jarComponents = jarFile.entries();
     //
@@ -139,16 +138,20 @@ public class Jars {
               + "to URL - should never happen unless toURI does weird things",
           e);
     }
-    URLClassLoader loader = new URLClassLoader(urls);
-    runInClassLoader(loader, className, methodName, umbilical, args);
+    return new URLClassLoader(urls);
   }
 
-  private static void runInClassLoader(
+  /**
+   * Invokes the given static method, with the loader as context classloader of the current thread
+   * (and so of the threads it starts) for the types of events to be resolved in.
+   */
+  public static void runInClassLoader(
       final URLClassLoader loader,
       final String className,
       final String methodName,
       final Umbilical umbilical,
       final String[] args) {
+    Thread.currentThread().setContextClassLoader(loader);
     try {
       Class.forName(className, true, loader)
           .getMethod(methodName, Umbilical.class, String[].class)
@@ -2,7 +2,13 @@ package io.ulzha.spive.codegen;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.stringtemplate.v4.*;
 import org.stringtemplate.v4.misc.STMessage;
 
@@ -30,7 +36,126 @@ public class AppIoc {
     }
   }
 
-  public static record EventDescriptor(String typeTag) {
+  /** A record component, with type as spelled in source, sans whitespace and annotations. */
+  public static record FieldDescriptor(String type, String name) {
+    private static final Map<String, String> BIN1_NAMES =
+        Map.of(
+            "String", "String",
+            "UUID", "Uuid",
+            "Instant", "Instant",
+            "EventTime", "EventTime",
+            "URI", "Uri");
+    private static final List<String> PRIMITIVES =
+        List.of("boolean", "byte", "short", "int", "long", "float", "double");
+    private static final Pattern GENERIC_RE = Pattern.compile("^(List|Map)<(\\w+)(?:,(\\w+))?>$");
+
+    private static String bin1Name(final String type) {
+      final String name = BIN1_NAMES.get(type);
+      if (name == null) {
+        throw new RuntimeException("No bin1 encoding for type " + type);
+      }
+      return name;
+    }
+
+    private static String capitalize(final String s) {
+      return s.substring(0, 1).toUpperCase() + s.substring(1);
+    }
+
+    public String getWrite() {
+      if (PRIMITIVES.contains(type)) {
+        return "out.write%s(value.%s());".formatted(capitalize(type), name);
+      }
+      final Matcher matcher = GENERIC_RE.matcher(type);
+      if (!matcher.matches()) {
+        return "Bin1.write%s(out, value.%s());".formatted(bin1Name(type), name);
+      } else if (matcher.group(1).equals("List")) {
+        return "Bin1.writeList(out, value.%s(), Bin1::write%s);"
+            .formatted(name, bin1Name(matcher.group(2)));
+      } else {
+        return "Bin1.writeMap(out, value.%s(), Bin1::write%s, Bin1::write%s);"
+            .formatted(name, bin1Name(matcher.group(2)), bin1Name(matcher.group(3)));
+      }
+    }
+
+    public String getRead() {
+      if (PRIMITIVES.contains(type)) {
+        return "in.read%s()".formatted(capitalize(type));
+      }
+      final Matcher matcher = GENERIC_RE.matcher(type);
+      if (!matcher.matches()) {
+        return "Bin1.read%s(in)".formatted(bin1Name(type));
+      } else if (matcher.group(1).equals("List")) {
+        return "Bin1.readList(in, Bin1::read%s)".formatted(bin1Name(matcher.group(2)));
+      } else {
+        return "Bin1.readMap(in, Bin1::read%s, Bin1::read%s)"
+            .formatted(bin1Name(matcher.group(2)), bin1Name(matcher.group(3)));
+      }
+    }
+  }
+
+  /**
+   * @param fields components of the record, only needed for "bin1:" types
+   */
+  public static record EventDescriptor(String typeTag, List<FieldDescriptor> fields) {
+    public EventDescriptor(String typeTag) {
+      this(typeTag, List.of());
+    }
+
+    /**
+     * Describes a "bin1:" type, reading the record components from its source.
+     *
+     * <p>A naive parser, good enough for the plain records that event types are.
+     */
+    public static EventDescriptor ofSource(String typeTag, String sourceRoot) throws IOException {
+      final String className = typeTag.split(":")[1];
+      final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+      final String source =
+          Files.readString(Path.of(sourceRoot, className.replace('.', '/') + ".java"))
+              .replaceAll("(?s)/\\*.*?\\*/", "")
+              .replaceAll("//[^\\n]*", "");
+      final Matcher matcher =
+          Pattern.compile("\\brecord\\s+" + simpleName + "\\s*\\(").matcher(source);
+      if (!matcher.find()) {
+        throw new RuntimeException("No record " + simpleName + " found in " + sourceRoot);
+      }
+
+      final List<FieldDescriptor> fields = new ArrayList<>();
+      final StringBuilder component = new StringBuilder();
+      int depth = 0;
+      for (int i = matcher.end(); depth >= 0; i++) {
+        final char c = source.charAt(i);
+        if (c == '(' || c == '<') {
+          depth++;
+        } else if (c == ')' || c == '>') {
+          depth--;
+        }
+        if ((c == ',' && depth == 0) || depth < 0) {
+          final String[] parts =
+              component.toString().replaceAll("@[\\w.]+", "").strip().split("\\s+");
+          if (!parts[0].isEmpty()) {
+            final String type = String.join("", List.of(parts).subList(0, parts.length - 1));
+            fields.add(new FieldDescriptor(type, parts[parts.length - 1]));
+          }
+          component.setLength(0);
+        } else {
+          component.append(c);
+        }
+      }
+      return new EventDescriptor(typeTag, fields);
+    }
+
+    public boolean getIsBin1() {
+      return typeTag.startsWith("bin1:");
+    }
+
+    public String getCodecName() {
+      return getName() + "Bin1Codec";
+    }
+
+    public String getRead() {
+      return String.join(", ", fields.stream().map(FieldDescriptor::getRead).toList());
+    }
+
     public String getName() {
       String[] parts = typeTag.split("\\.");
       return parts[parts.length - 1];
@@ -60,6 +185,13 @@ public class AppIoc {
     }
 
     public String getSerde() {
+      if (getIsBin1()) {
+        return """
+                 private static final EventSerde %s =
+                     EventSerde.forCodec("%s", new %s());
+               """
+            .formatted(getSerdeVarName(), getTypeTag(), getCodecName());
+      }
       return """
                private static final EventSerde %s =
                    EventSerde.forTypeTag("%s");
@@ -186,4 +318,23 @@ public class AppIoc {
       writer.write(st.render());
     }
   }
+
+  public static void generateBin1CodecCode(AppDescriptor app, String dir) throws IOException {
+    for (EventDescriptor event : app.events) {
+      if (!event.getIsBin1()) {
+        continue;
+      }
+      try (FileWriter writer = new FileWriter(dir + "/" + event.getCodecName() + ".java")) {
+        writer.write(renderBin1Codec(app, event));
+      }
+    }
+  }
+
+  static String renderBin1Codec(AppDescriptor app, EventDescriptor event) {
+    final ST st = templates.getInstanceOf("Bin1Codec");
+    st.add("app", app);
+    st.add("event", event);
+    st.add("fields", event.fields);
+    return st.render();
+  }
 }
@@ -56,6 +56,8 @@ public class GenerateIocCode {
             new AppIoc.AppDescriptor(
                 "io.ulzha.spive.example.copy.app.Copy",
                 List.of(
+                    // stays on pojo:, as its logs written so far would no longer replay as
+                    // bin1: - switching means a new event type
                     new AppIoc.EventDescriptor(
                         "pojo:io.ulzha.spive.example.copy.app.events.CreateFoo")),
                 List.of(),
@@ -64,6 +66,7 @@ public class GenerateIocCode {
     for (String dir : configs.keySet()) {
       AppIoc.generateAppInstanceCode(configs.get(dir), dir);
       AppIoc.generateAppOutputGatewayCode(configs.get(dir), dir);
+      AppIoc.generateBin1CodecCode(configs.get(dir), dir);
     }
   }
 }
@@ -0,0 +1,85 @@
+package io.ulzha.spive.codegen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.ulzha.spive.lib.BinaryCodec;
+import io.ulzha.spive.lib.EventSerde;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class AppIocTest {
+  // relative to the module directory, as tests run in it
+  private static final String SOURCE_ROOT = "../example/copy/app/src/main/java";
+  private static final String TAG = "bin1:io.ulzha.spive.example.copy.app.events.CreateFoo";
+
+  @Test
+  public void givenRecordSource_whenDescribed_shouldListComponentsInOrder() throws IOException {
+    final AppIoc.EventDescriptor event = AppIoc.EventDescriptor.ofSource(TAG, SOURCE_ROOT);
+
+    assertEquals(
+        List.of(
+            new AppIoc.FieldDescriptor("URI", "fooUri"),
+            new AppIoc.FieldDescriptor("URI", "barUri"),
+            new AppIoc.FieldDescriptor("String", "name")),
+        event.fields());
+  }
+
+  @Test
+  public void givenRecordSource_whenCodecGeneratedAndCompiled_shouldRoundTrip(
+      @TempDir final Path dir) throws Exception {
+    final AppIoc.EventDescriptor event = AppIoc.EventDescriptor.ofSource(TAG, SOURCE_ROOT);
+    final AppIoc.AppDescriptor app =
+        new AppIoc.AppDescriptor(
+            "io.ulzha.spive.example.copy.app.Copy", List.of(event), List.of(), List.of());
+    final Path codecSource = dir.resolve(event.getCodecName() + ".java");
+    Files.writeString(codecSource, AppIoc.renderBin1Codec(app, event));
+    final Path classes = Files.createDirectory(dir.resolve("classes"));
+
+    final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    final int exitCode =
+        compiler.run(
+            null,
+            null,
+            null,
+            "-d",
+            classes.toString(),
+            "-cp",
+            // spive-core, for Bin1 and BinaryCodec
+            Path.of(BinaryCodec.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toString(),
+            codecSource.toString(),
+            Path.of(SOURCE_ROOT, "io/ulzha/spive/example/copy/app/events/CreateFoo.java")
+                .toString());
+    assertEquals(0, exitCode);
+
+    try (URLClassLoader loader =
+        new URLClassLoader(new URL[] {classes.toUri().toURL()}, getClass().getClassLoader())) {
+      final BinaryCodec<?> codec =
+          (BinaryCodec<?>)
+              loader
+                  .loadClass("io.ulzha.spive.example.copy.app.spive.gen." + event.getCodecName())
+                  .getConstructor()
+                  .newInstance();
+      final Class<?> type = loader.loadClass("io.ulzha.spive.example.copy.app.events.CreateFoo");
+      final Object createFoo =
+          type.getConstructor(URI.class, URI.class, String.class)
+              .newInstance(URI.create("spive://foo/1"), null, "Fõõ");
+
+      final EventSerde serde = EventSerde.forCodec(TAG, codec, loader);
+      final String serialized = serde.serialize(createFoo);
+      assertTrue(serialized.startsWith("\""));
+      assertEquals(createFoo, serde.deserialize(serialized));
+      EventSerde.evict(loader);
+    }
+  }
+}
@@ -1,9 +1,10 @@
 package io.ulzha.spive.lib;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.DateTimeException;
 import java.time.Instant;
 import java.time.format.DateTimeParseException;
-import java.util.Objects;
 
 /**
  * Monotonic time, with an increasing integer added as a tiebreaker, so that events simultaneous to
@@ -55,6 +56,19 @@ public class EventTime implements Comparable<EventTime> {
   // Must never appear as ordering key in any event logs.
   public static final EventTime INFINITE_PAST = new EventTime(Instant.MIN, -1);
 
+  // of toOrderPreservingBytes() output, except for INFINITE_PAST
+  public static final int ORDER_PRESERVING_BYTES_LENGTH = 17;
+
+  // of toString() output, "+1000000000-12-31T23:59:59.999999999Z#999999999" being the longest
+  public static final int MAX_STRING_LENGTH = 47;
+
+  // The common range of years, 0001 to 9999, is formatted and parsed by hand, without the general
+  // purpose machinery of DateTimeFormatter. Other years fall back to Instant.toString() and
+  // parse().
+  private static final long FAST_MIN_EPOCH_SECOND = -62135596800L; // 0001-01-01T00:00:00Z
+  private static final long FAST_MAX_EPOCH_SECOND = 253402300799L; // 9999-12-31T23:59:59Z
+  private static final long DAYS_0000_TO_1970 = 719528;
+
   // May be used for ordering events "before all business logic events" in event logs?
   // public static final EventTime PAST = new EventTime(Instant.MIN, -...);
 
@@ -89,7 +103,7 @@ public class EventTime implements Comparable<EventTime> {
 
   @Override
   public int hashCode() {
-    return Objects.hash(instant, tiebreaker);
+    return 31 * instant.hashCode() + tiebreaker;
   }
 
   @Override
@@ -111,10 +125,96 @@ public class EventTime implements Comparable<EventTime> {
    */
   @Override
   public String toString() {
+    final byte[] b = new byte[MAX_STRING_LENGTH];
+    return new String(b, 0, formatTo(b, 0), StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Writes toString() output as ASCII bytes, for serializers to spare the intermediate String.
+   *
+   * @param b with at least MAX_STRING_LENGTH bytes available from offset
+   * @return the offset after the last byte written
+   */
+  public int formatTo(final byte[] b, int offset) {
     if (isInfinitePast()) {
-      return "-inf#-1";
+      for (int i = 0; i < 7; i++) {
+        b[offset++] = (byte) "-inf#-1".charAt(i);
+      }
+      return offset;
+    }
+    final long epochSecond = instant.getEpochSecond();
+    if (epochSecond < FAST_MIN_EPOCH_SECOND || epochSecond > FAST_MAX_EPOCH_SECOND) {
+      final String s = instant.toString();
+      for (int i = 0; i < s.length(); i++) {
+        b[offset++] = (byte) s.charAt(i);
+      }
+    } else {
+      offset = formatInstant(b, offset, epochSecond, instant.getNano());
     }
-    return instant.toString() + '#' + tiebreaker;
+    b[offset++] = '#';
+    return formatInt(b, offset, tiebreaker);
+  }
+
+  /** As DateTimeFormatter.ISO_INSTANT, for years 0001 to 9999. */
+  private static int formatInstant(
+      final byte[] b, int offset, final long epochSecond, final int nano) {
+    final long epochDay = Math.floorDiv(epochSecond, 86400);
+    final int secondOfDay = Math.floorMod(epochSecond, 86400);
+
+    // as in LocalDate.ofEpochDay(), with years starting in March
+    final long zeroDay = epochDay + DAYS_0000_TO_1970 - 60;
+    long year = (400 * zeroDay + 591) / 146097;
+    long dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+    if (dayOfYear < 0) {
+      year--;
+      dayOfYear = zeroDay - (365 * year + year / 4 - year / 100 + year / 400);
+    }
+    final int marchMonth0 = ((int) dayOfYear * 5 + 2) / 153;
+    final int month = (marchMonth0 + 2) % 12 + 1;
+    final int day = (int) dayOfYear - (marchMonth0 * 306 + 5) / 10 + 1;
+    year += marchMonth0 / 10;
+
+    offset = formatDigits(b, offset, year, 4);
+    b[offset++] = '-';
+    offset = formatDigits(b, offset, month, 2);
+    b[offset++] = '-';
+    offset = formatDigits(b, offset, day, 2);
+    b[offset++] = 'T';
+    offset = formatDigits(b, offset, secondOfDay / 3600, 2);
+    b[offset++] = ':';
+    offset = formatDigits(b, offset, secondOfDay / 60 % 60, 2);
+    b[offset++] = ':';
+    offset = formatDigits(b, offset, secondOfDay % 60, 2);
+    if (nano != 0) {
+      b[offset++] = '.';
+      if (nano % 1_000_000 == 0) {
+        offset = formatDigits(b, offset, nano / 1_000_000, 3);
+      } else if (nano % 1000 == 0) {
+        offset = formatDigits(b, offset, nano / 1000, 6);
+      } else {
+        offset = formatDigits(b, offset, nano, 9);
+      }
+    }
+    b[offset++] = 'Z';
+    return offset;
+  }
+
+  /** Writes a non-negative value in decimal, zero-padded to the given width. */
+  private static int formatDigits(final byte[] b, final int offset, long value, final int width) {
+    for (int i = offset + width - 1; i >= offset; i--) {
+      b[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    return offset + width;
+  }
+
+  /** Writes a non-negative value in decimal, unpadded. */
+  private static int formatInt(final byte[] b, final int offset, final int value) {
+    int width = 1;
+    for (int v = value; v >= 10; v /= 10) {
+      width++;
+    }
+    return formatDigits(b, offset, value, width);
   }
 
   /**
@@ -128,17 +228,88 @@ public class EventTime implements Comparable<EventTime> {
     if (isInfinitePast()) {
       return "0";
     }
-    if (tiebreaker == 0) {
-      // Instant.MIN.getEpochSecond() == -31557014167219200
-      // Instant.MAX.getEpochSecond() ==  31556889864403199
-      // (17 digits)
-      return String.format(
-          "%018d.%09d", instant.getEpochSecond() + 100_000_000_000_000_000L, instant.getNano());
-    } else {
-      return String.format(
-          "%018d.%09d#%09d",
-          instant.getEpochSecond() + 100_000_000_000_000_000L, instant.getNano(), tiebreaker);
+    // Instant.MIN.getEpochSecond() == -31557014167219200
+    // Instant.MAX.getEpochSecond() ==  31556889864403199
+    // (17 digits)
+    final byte[] b = new byte[38];
+    int offset = formatDigits(b, 0, instant.getEpochSecond() + 100_000_000_000_000_000L, 18);
+    b[offset++] = '.';
+    offset = formatDigits(b, offset, instant.getNano(), 9);
+    if (tiebreaker != 0) {
+      b[offset++] = '#';
+      offset = formatDigits(b, offset, tiebreaker, 9);
+    }
+    return new String(b, 0, offset, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Converts to bytes in such a way that their lexicographical order, comparing bytes as unsigned,
+   * is the same as the corresponding event time order. More compact and cheaper to convert than
+   * toOrderPreservingString().
+   *
+   * <p>The initial byte is 0 for INFINITE_PAST, and nothing follows. Otherwise it is 1, followed by
+   * the epoch second as a big-endian long with its sign bit flipped, then nanos and tiebreaker as
+   * big-endian ints, 17 bytes in total. Other initial byte values are reserved for future
+   * extensions of the format.
+   */
+  public byte[] toOrderPreservingBytes() {
+    if (isInfinitePast()) {
+      return new byte[] {0};
     }
+    return putOrderPreservingBytes(ByteBuffer.allocate(ORDER_PRESERVING_BYTES_LENGTH)).array();
+  }
+
+  /**
+   * Puts toOrderPreservingBytes() output at the position of the buffer, sparing the intermediate
+   * array.
+   *
+   * @return the buffer
+   */
+  public ByteBuffer putOrderPreservingBytes(final ByteBuffer buffer) {
+    if (isInfinitePast()) {
+      return buffer.put((byte) 0);
+    }
+    return buffer
+        .put((byte) 1)
+        .putLong(instant.getEpochSecond() ^ Long.MIN_VALUE)
+        .putInt(instant.getNano())
+        .putInt(tiebreaker);
+  }
+
+  /**
+   * Parses output of toOrderPreservingBytes(), from the given range of the array.
+   *
+   * <p>Supports lossless round-trip conversion.
+   */
+  public static EventTime fromOrderPreservingBytes(byte[] b, int offset, int length) {
+    if (b == null) {
+      throw new IllegalArgumentException("null");
+    }
+    if (length == 1 && b[offset] == 0) {
+      return EventTime.INFINITE_PAST;
+    }
+    if (length != ORDER_PRESERVING_BYTES_LENGTH) {
+      throw new IllegalArgumentException("Unexpected length: " + length);
+    }
+    if (b[offset] != 1) {
+      throw new IllegalArgumentException("Expected 1 at index 0, got " + b[offset]);
+    }
+    final ByteBuffer buffer = ByteBuffer.wrap(b, offset + 1, length - 1);
+    final long epochSecond = buffer.getLong() ^ Long.MIN_VALUE;
+    final int nano = buffer.getInt();
+    final int tiebreaker = buffer.getInt();
+    if (nano < 0 || nano > 999999999) {
+      throw new IllegalArgumentException("Nanos out of bounds: " + nano);
+    }
+    try {
+      return new EventTime(Instant.ofEpochSecond(epochSecond, nano), tiebreaker);
+    } catch (DateTimeException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  public static EventTime fromOrderPreservingBytes(byte[] b) {
+    return fromOrderPreservingBytes(b, 0, (b == null ? 0 : b.length));
   }
 
   /**
@@ -155,7 +326,10 @@ public class EventTime implements Comparable<EventTime> {
     }
     try {
       final int iSep = s.indexOf('#');
-      final Instant instant = Instant.parse(s.subSequence(0, iSep));
+      Instant instant = parseInstant(s, iSep);
+      if (instant == null) {
+        instant = Instant.parse(s.subSequence(0, iSep));
+      }
       final int tiebreaker = Integer.parseInt(s, iSep + 1, s.length(), 10);
       return new EventTime(instant, tiebreaker);
     } catch (DateTimeParseException | StringIndexOutOfBoundsException e) {
@@ -163,6 +337,92 @@ public class EventTime implements Comparable<EventTime> {
     }
   }
 
+  /**
+   * Parses "yyyy-MM-ddTHH:mm:ss[.fraction]Z" from the beginning of s, the most common form by far.
+   *
+   * @return null if s is in any other form, valid or not, for Instant.parse() to deal with
+   */
+  private static Instant parseInstant(final String s, final int end) {
+    if (end < 20 || end > 30 || s.charAt(end - 1) != 'Z') {
+      return null;
+    }
+    if (s.charAt(4) != '-'
+        || s.charAt(7) != '-'
+        || s.charAt(10) != 'T'
+        || s.charAt(13) != ':'
+        || s.charAt(16) != ':') {
+      return null;
+    }
+    final int year = parseDigits(s, 0, 4);
+    final int month = parseDigits(s, 5, 7);
+    final int day = parseDigits(s, 8, 10);
+    final int hour = parseDigits(s, 11, 13);
+    final int minute = parseDigits(s, 14, 16);
+    final int second = parseDigits(s, 17, 19);
+    if ((year | month | day | hour | minute | second) < 0) {
+      return null;
+    }
+    if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+      return null;
+    }
+    // leap seconds included, as parse() has its own take on them
+    if (hour > 23 || minute > 59 || second > 59) {
+      return null;
+    }
+    int nano = 0;
+    if (end > 20) {
+      if (s.charAt(19) != '.' || end == 21) {
+        return null;
+      }
+      nano = parseDigits(s, 20, end - 1);
+      if (nano < 0) {
+        return null;
+      }
+      for (int i = end - 1; i < 29; i++) {
+        nano *= 10;
+      }
+    }
+    return Instant.ofEpochSecond(
+        epochDay(year, month, day) * 86400 + hour * 3600 + minute * 60 + second, nano);
+  }
+
+  /**
+   * @return the decimal value of the digits, or -1 if there are other characters
+   */
+  private static int parseDigits(final String s, final int begin, final int end) {
+    int value = 0;
+    for (int i = begin; i < end; i++) {
+      final char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isLeap(final long year) {
+    return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+  }
+
+  private static int lengthOfMonth(final int year, final int month) {
+    return switch (month) {
+      case 2 -> (isLeap(year) ? 29 : 28);
+      case 4, 6, 9, 11 -> 30;
+      default -> 31;
+    };
+  }
+
+  /** As LocalDate.toEpochDay(), for positive years. */
+  private static long epochDay(final long year, final int month, final int day) {
+    long total = 365 * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+    total += (367 * month - 362) / 12 + day - 1;
+    if (month > 2) {
+      total -= (isLeap(year) ? 1 : 2);
+    }
+    return total - DAYS_0000_TO_1970;
+  }
+
   /**
    * Parses output of toOrderPreservingString().
    *
@@ -3,6 +3,8 @@ package io.ulzha.spive.lib;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Random;
 import org.junit.jupiter.api.Test;
 
 class EventTimeTest {
@@ -162,6 +164,99 @@ class EventTimeTest {
         () -> EventTime.fromOrderPreservingString("2021-01-21T19:27:04Z#0"));
   }
 
+  @Test
+  void testRoundTripToOrderPreservingBytes() {
+    final EventTime[] times = {
+      EventTime.INFINITE_PAST,
+      new EventTime(Instant.MIN, 0),
+      new EventTime(Instant.ofEpochSecond(-2220000000000000L), 222),
+      new EventTime(Instant.ofEpochSecond(-1, 999999999), 0),
+      new EventTime(Instant.ofEpochSecond(0), 0),
+      new EventTime(Instant.ofEpochSecond(1611257224), 1),
+      new EventTime(Instant.ofEpochSecond(1611257224), 2),
+      new EventTime(Instant.ofEpochSecond(1611257224, 1), 12345),
+      new EventTime(Instant.ofEpochSecond(1611257224, 10_000_000), 2),
+      new EventTime(Instant.MAX, 999999999),
+    };
+    assertArrayEquals(new byte[] {0}, EventTime.INFINITE_PAST.toOrderPreservingBytes());
+    for (int i = 0; i < times.length; i++) {
+      final byte[] b = times[i].toOrderPreservingBytes();
+      assertEquals(times[i], EventTime.fromOrderPreservingBytes(b));
+      if (i > 0) {
+        assertTrue(Arrays.compareUnsigned(times[i - 1].toOrderPreservingBytes(), b) < 0);
+      }
+    }
+  }
+
+  @Test
+  void testFromOrderPreservingBytesInvalidInput() {
+    final byte[] valid =
+        new EventTime(Instant.ofEpochSecond(1611257224), 1).toOrderPreservingBytes();
+    assertThrows(IllegalArgumentException.class, () -> EventTime.fromOrderPreservingBytes(null));
+    assertThrows(
+        IllegalArgumentException.class, () -> EventTime.fromOrderPreservingBytes(new byte[0]));
+    assertThrows(
+        IllegalArgumentException.class, () -> EventTime.fromOrderPreservingBytes(new byte[] {1}));
+    // too short
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> EventTime.fromOrderPreservingBytes(Arrays.copyOf(valid, 16)));
+    // starts with 2
+    final byte[] version2 = valid.clone();
+    version2[0] = 2;
+    assertThrows(
+        IllegalArgumentException.class, () -> EventTime.fromOrderPreservingBytes(version2));
+    // nanos out of bounds
+    final byte[] negativeNanos = valid.clone();
+    negativeNanos[9] = (byte) 0xff;
+    assertThrows(
+        IllegalArgumentException.class, () -> EventTime.fromOrderPreservingBytes(negativeNanos));
+    // tiebreaker out of bounds
+    final byte[] negativeTiebreaker = valid.clone();
+    negativeTiebreaker[13] = (byte) 0xff;
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> EventTime.fromOrderPreservingBytes(negativeTiebreaker));
+  }
+
+  @Test
+  void testHandWrittenFormsMatchLibraryForms() {
+    final Random random = new Random(42);
+    final long minSecond = Instant.parse("0000-06-01T00:00:00Z").getEpochSecond();
+    final long maxSecond = Instant.parse("+10000-06-01T00:00:00Z").getEpochSecond();
+    final int[] nanoScales = {0, 1_000_000, 1000, 1};
+    for (int i = 0; i < 100_000; i++) {
+      final long second = minSecond + Math.floorMod(random.nextLong(), maxSecond - minSecond);
+      final int scale = nanoScales[i % 4];
+      final int nano = (scale == 0 ? 0 : random.nextInt(1_000_000_000 / scale) * scale);
+      final EventTime t =
+          new EventTime(
+              Instant.ofEpochSecond(second, nano), random.nextInt(1_000_000_000 >> i % 30));
+
+      final String s = t.instant.toString() + '#' + t.tiebreaker;
+      assertEquals(s, t.toString());
+      assertEquals(t, EventTime.fromString(s));
+      final String ops =
+          String.format("%018d.%09d", second + 100_000_000_000_000_000L, nano)
+              + (t.tiebreaker == 0 ? "" : String.format("#%09d", t.tiebreaker));
+      assertEquals(ops, t.toOrderPreservingString());
+    }
+    // other forms that Instant.toString() never outputs
+    assertEquals(
+        Instant.parse("2021-01-21T19:27:04.1Z"),
+        EventTime.fromString("2021-01-21T19:27:04.1Z#0").instant);
+    assertEquals(
+        Instant.parse("2024-02-29T23:59:59.12345678Z"),
+        EventTime.fromString("2024-02-29T23:59:59.12345678Z#0").instant);
+    assertThrows(
+        IllegalArgumentException.class, () -> EventTime.fromString("2023-02-29T00:00:00Z#0"));
+    assertEquals(
+        Instant.parse("2021-01-21T19:27:04.Z"),
+        EventTime.fromString("2021-01-21T19:27:04.Z#0").instant);
+    assertThrows(
+        IllegalArgumentException.class, () -> EventTime.fromString("2021-01-21T19:-1:04Z#0"));
+  }
+
   // Why did these pass even without equals() overridden, but SpiveModuleTest didn't?
   private static void assertRoundTripToString(EventTime t, String s) {
     assertEquals(s, t.toString());
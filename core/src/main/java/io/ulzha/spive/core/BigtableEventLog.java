@@ -2,6 +2,8 @@ package io.ulzha.spive.core;
 
 import static com.google.cloud.bigtable.data.v2.models.Filters.FILTERS;
 
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ServerStream;
 import com.google.cloud.bigtable.data.v2.BigtableDataClient;
 import com.google.cloud.bigtable.data.v2.models.ConditionalRowMutation;
 import com.google.cloud.bigtable.data.v2.models.Mutation;
@@ -9,16 +11,27 @@ import com.google.cloud.bigtable.data.v2.models.Query;
 import com.google.cloud.bigtable.data.v2.models.Row;
 import com.google.cloud.bigtable.data.v2.models.RowCell;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import io.ulzha.spive.lib.AppendCounters;
 import io.ulzha.spive.lib.EventEnvelope;
 import io.ulzha.spive.lib.EventLog;
 import io.ulzha.spive.lib.EventTime;
 import io.ulzha.spive.lib.InternalException;
 import io.ulzha.spive.serde.json.EventEnvelopeJsonSerde;
 import java.io.IOException;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public final class BigtableEventLog implements EventLog {
   private final BigtableDataClient dataClient;
@@ -28,51 +41,178 @@ public final class BigtableEventLog implements EventLog {
   // separate column for metadata - might or might not be useful for efficient access...
   private static final String METADATA_COLUMN_QUALIFIER = "metadata";
   private static final String PAYLOAD_COLUMN_QUALIFIER = "payload";
+  private static final ByteString METADATA_QUALIFIER_BYTES =
+      ByteString.copyFromUtf8(METADATA_COLUMN_QUALIFIER);
+  private static final ByteString PAYLOAD_QUALIFIER_BYTES =
+      ByteString.copyFromUtf8(PAYLOAD_COLUMN_QUALIFIER);
+  private final Set<Prefetcher> prefetchers = ConcurrentHashMap.newKeySet();
+  // a lower bound on the time of the last event, or null if unknown, to append after
+  private final AtomicReference<EventTime> cachedTailTime = new AtomicReference<>();
+  private final AppendCounters appendCounters = new AppendCounters();
+  private static final int MAX_RETRYABLE_FAILURES = 5;
+  private final RowKeyFormat rowKeyFormat;
+  private final ByteString keyPrefix;
+
+  /**
+   * Layout of row keys. A table should consistently use one layout, as logs are not readable under
+   * the other.
+   */
+  public enum RowKeyFormat {
+    /** `<logId>:<prevTime>`, with prevTime in EventTime order-preserving string representation. */
+    STRING,
+    /**
+     * 16 bytes of logId followed by prevTime in EventTime order-preserving bytes representation -
+     * under half the length of STRING keys, which Bigtable stores along with every cell.
+     */
+    BINARY
+  }
 
   public BigtableEventLog(final BigtableDataClient dataClient, final UUID logId) {
+    this(dataClient, logId, RowKeyFormat.STRING);
+  }
+
+  public BigtableEventLog(
+      final BigtableDataClient dataClient, final UUID logId, final RowKeyFormat rowKeyFormat) {
     this.dataClient = dataClient;
     this.logId = logId;
+    this.rowKeyFormat = rowKeyFormat;
+    this.keyPrefix =
+        switch (rowKeyFormat) {
+          case STRING -> ByteString.copyFromUtf8(logId + ":");
+          case BINARY ->
+              ByteString.copyFrom(
+                  ByteBuffer.allocate(16)
+                      .putLong(logId.getMostSignificantBits())
+                      .putLong(logId.getLeastSignificantBits())
+                      .array());
+        };
   }
 
-  private Iterator<Row> query(final EventEnvelope prevEvent) {
-    final String start = toRowKey(prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time());
-    final Query query =
-        Query.create(TABLE_ID)
-            .range(start, endRowKey())
-            .filter(
-                FILTERS
-                    .chain()
-                    .filter(FILTERS.limit().cellsPerColumn(1))
-                    .filter(FILTERS.family().exactMatch(EVENT_COLUMN_FAMILY)));
-    return dataClient.readRows(query).iterator();
+  private Query query(final EventEnvelope prevEvent) {
+    final ByteString start =
+        toRowKey(prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time());
+    return Query.create(TABLE_ID)
+        .range(start, endRowKey())
+        .filter(
+            FILTERS
+                .chain()
+                .filter(FILTERS.limit().cellsPerColumn(1))
+                .filter(FILTERS.family().exactMatch(EVENT_COLUMN_FAMILY)));
   }
 
+  /**
+   * Takes one conditional mutation in the common case, appending after the tail time cached from
+   * previous appends.
+   *
+   * <p>On conflict the row found in place tells the time of the event that won, so the next attempt
+   * goes right after it. Under sustained contention, hopping one event at a time would fall behind,
+   * so from the second conflict on the tail is looked up anew with a reverse scan instead.
+   */
   @Override
   public EventTime appendAndGetAdjustedTime(final EventEnvelope event) throws IOException {
-    // naively seek to the end and try appending, and repeat until no conflict
-    //    do {
-    //      EventTime
-    //    } while ();
-    throw new RuntimeException("not implemented");
+    EventTime tailTime = cachedTailTime.get();
+    if (tailTime == null) {
+      tailTime = readTailTime();
+    }
+    int conflicts = 0;
+    int failures = 0;
+    while (true) {
+      final EventTime time = EventLog.adjustTime(event.time(), tailTime);
+      final EventEnvelope adjusted = event.withTime(time);
+      final EventEnvelope existing;
+      try {
+        final Row row = appendIfAbsent(adjusted, tailTime);
+        existing = (row == null ? null : decode(row));
+      } catch (ApiException e) {
+        if (!e.isRetryable() || ++failures > MAX_RETRYABLE_FAILURES) {
+          throw e;
+        }
+        appendCounters.onRetry();
+        // the mutation may have been applied nevertheless, which the next attempt will find out
+        continue;
+      }
+      // or appended by an earlier attempt, whose outcome was lost to a transient failure
+      if (existing == null || existing.equals(adjusted)) {
+        cachedTailTime.accumulateAndGet(time, BigtableEventLog::later);
+        appendCounters.onAppended(event.time(), time);
+        wakeUpPrefetchers();
+        return time;
+      }
+      appendCounters.onConflict();
+      appendCounters.onRetry();
+      tailTime = (++conflicts > 1 ? readTailTime() : existing.time());
+    }
+  }
+
+  /** For monitoring contention on appendAndGetAdjustedTime(). */
+  public AppendCounters appendCounters() {
+    return appendCounters;
+  }
+
+  /**
+   * @return the time of the last event, or INFINITE_PAST if the log is empty
+   * @throws IllegalStateException if the log is closed
+   */
+  private EventTime readTailTime() {
+    for (Row row : dataClient.readRows(query(null).reversed(true).limit(1))) {
+      final EventEnvelope last = decode(row);
+      if (last == null) {
+        throw new IllegalStateException("log is closed");
+      }
+      return cachedTailTime.accumulateAndGet(last.time(), BigtableEventLog::later);
+    }
+    return EventTime.INFINITE_PAST;
   }
 
+  private static EventTime later(final EventTime a, final EventTime b) {
+    return (a == null || b.compareTo(a) > 0 ? b : a);
+  }
+
+  /**
+   * Runs of more than one event are not supported, as Bigtable has no transactions across rows -
+   * appendAllIfPrevTimeMatch() rejects them, and callers append one event at a time instead.
+   */
   @Override
   public boolean appendIfPrevTimeMatch(final EventEnvelope event, final EventTime prevTime) {
     if (event.time().compareTo(prevTime) <= 0) {
       throw new IllegalArgumentException("event time must come strictly after prevTime");
     }
+    if (appendIfAbsent(event, prevTime) != null) {
+      return false;
+    }
+    wakeUpPrefetchers();
+    return true;
+  }
 
-    final String newRowKey = toRowKey(prevTime);
-    final String metadataJson = EventEnvelopeJsonSerde.serializeEventMetadata(event);
+  /** Appends by other processes are only noticed by polling. */
+  private void wakeUpPrefetchers() {
+    for (Prefetcher prefetcher : prefetchers) {
+      prefetcher.wakeUp();
+    }
+  }
+
+  /**
+   * @return null if appended, or the row found in place of event
+   */
+  private Row appendIfAbsent(final EventEnvelope event, final EventTime prevTime) {
+    final ByteString newRowKey = toRowKey(prevTime);
+    final ByteBuffer metadataJson = EventEnvelopeJsonSerde.serializeEventMetadataBytes(event);
 
     // sets cell only if it does not exist
     ConditionalRowMutation mutation =
         ConditionalRowMutation.create(TABLE_ID, newRowKey)
             .otherwise(
                 Mutation.create()
-                    .setCell(EVENT_COLUMN_FAMILY, METADATA_COLUMN_QUALIFIER, metadataJson)
                     .setCell(
-                        EVENT_COLUMN_FAMILY, PAYLOAD_COLUMN_QUALIFIER, event.serializedPayload()));
+                        EVENT_COLUMN_FAMILY,
+                        METADATA_QUALIFIER_BYTES,
+                        // copied once, as the buffer gets reused by the next append in this thread
+                        ByteString.copyFrom(metadataJson))
+                    .setCell(
+                        EVENT_COLUMN_FAMILY,
+                        PAYLOAD_QUALIFIER_BYTES,
+                        // no copy - the envelope's payload is immutable
+                        UnsafeByteOperations.unsafeWrap(event.payloadBytes())));
 
     final boolean existed = dataClient.checkAndMutateRow(mutation);
 
@@ -85,22 +225,39 @@ public final class BigtableEventLog implements EventLog {
       if (row.getCells().get(0).getValue().toStringUtf8().isEmpty()) {
         throw new IllegalStateException("log is closed");
       }
+      return row;
     }
 
-    return !existed;
+    return null;
   }
 
   @Override
   public void close() {
-    // TODO explicitly cancel all iterator ServerStreams that may have not been fully consumed?
+    for (Prefetcher prefetcher : prefetchers) {
+      prefetcher.close();
+    }
   }
 
-  private String toRowKey(EventTime eventTime) {
-    return logId + ":" + eventTime.toOrderPreservingString();
+  private ByteString toRowKey(EventTime eventTime) {
+    return switch (rowKeyFormat) {
+      case STRING -> keyPrefix.concat(ByteString.copyFromUtf8(eventTime.toOrderPreservingString()));
+      case BINARY -> {
+        // one array for the whole key, not wrapped in a rope
+        final ByteBuffer key =
+            ByteBuffer.allocate(keyPrefix.size() + EventTime.ORDER_PRESERVING_BYTES_LENGTH);
+        keyPrefix.copyTo(key);
+        eventTime.putOrderPreservingBytes(key);
+        yield UnsafeByteOperations.unsafeWrap(key.array(), 0, key.position());
+      }
+    };
   }
 
-  private String endRowKey() {
-    return logId + ";";
+  private ByteString endRowKey() {
+    return switch (rowKeyFormat) {
+      case STRING -> ByteString.copyFromUtf8(logId + ";");
+      // beyond any order-preserving bytes, as their initial byte is never 0xff
+      case BINARY -> keyPrefix.concat(ByteString.copyFrom(new byte[] {(byte) 0xff}));
+    };
   }
 
   @Override
@@ -108,13 +265,221 @@ public final class BigtableEventLog implements EventLog {
     return new AppendIteratorImpl();
   }
 
-  private class AppendIteratorImpl implements AppendIterator {
-    private Iterator<Row> serverStreamIterator;
+  /**
+   * @return the event stored in the row, or null if the row marks the log closed
+   */
+  private static EventEnvelope decode(final Row row) {
+    final List<RowCell> cells = row.getCells();
+    final ByteString metadataJson = cells.get(0).getValue();
+    if (metadataJson.isEmpty()) {
+      return null;
+    }
+    // the payload stays in the cell's bytes, for the serde to read directly
+    return EventEnvelopeJsonSerde.deserializeEventMetadataWithPayloadBytes(
+        metadataJson.asReadOnlyByteBuffer(), cells.get(1).getValue().asReadOnlyByteBuffer());
+  }
+
+  private static void requireMatch(
+      final Row row, final ByteString expectedKey, final EventEnvelope prevEvent) {
+    final ByteString actualKey = row.getKey();
+    if (!actualKey.equals(expectedKey)) {
+      throw new InternalException(
+          String.format(
+              "Corrupt row key sequence: the row after %s should be keyed %s but was %s",
+              (prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time()),
+              describeKey(expectedKey),
+              describeKey(actualKey)));
+    }
+  }
+
+  private static String describeKey(final ByteString key) {
+    return (key.isValidUtf8() ? "'" + key.toStringUtf8() + "'" : "invalid utf8, " + key);
+  }
+
+  /** An event read ahead, or null for the end of a closed log, or the failure to read further. */
+  private record Prefetched(EventEnvelope event, RuntimeException failure) {}
+
+  /**
+   * Reads the log ahead of an iterator, on a thread of its own, so that round trips to Bigtable and
+   * decoding overlap with the iterator's consumer processing the events already read.
+   *
+   * <p>Each row holds the event following the one whose time is in the row key, so the key of the
+   * next row is only known once the previous one is read. Hence rows are read in ranges of up to
+   * CHUNK_ROWS, each starting right after the previous one, the next query issued as soon as the
+   * previous range is consumed. The events decoded queue up to a bound, beyond which reading
+   * pauses.
+   *
+   * <p>At the end of the log, polls with the interval doubling from MIN_POLL_NANOS up to
+   * MAX_POLL_NANOS, or sooner when woken up by an append in this process.
+   *
+   * <p>However it stops - at the end of a closed log, on failure, or closed along with its iterator
+   * or log - it leaves a terminal item for take() to return once the queue is drained, and again
+   * after that.
+   */
+  private final class Prefetcher implements AutoCloseable {
+    private static final int CHUNK_ROWS = 500;
+    private static final int CAPACITY = 4 * CHUNK_ROWS;
+    private static final long MIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long MAX_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final BlockingQueue<Prefetched> queue = new ArrayBlockingQueue<>(CAPACITY);
+    private final Thread thread;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeUp = lock.newCondition();
+    private boolean wakeUpRequested = false;
+    private volatile boolean closed = false;
+    // the end of the log, or the failure, or "closed", once the thread stops
+    private volatile Prefetched end;
+    // completed once something is queued, for the iterator's onAvailable()
+    private final AtomicReference<CompletableFuture<Void>> nextQueued = new AtomicReference<>();
+
+    Prefetcher(final EventEnvelope prevEvent) {
+      this.thread = new Thread(() -> run(prevEvent), "spive-bigtable-prefetch-" + logId);
+      thread.setDaemon(true);
+      prefetchers.add(this);
+      thread.start();
+    }
+
+    private void run(EventEnvelope prevEvent) {
+      long pollNanos = MIN_POLL_NANOS;
+      Prefetched end = null;
+      try {
+        while (!closed) {
+          int n = 0;
+          final ServerStream<Row> stream = dataClient.readRows(query(prevEvent).limit(CHUNK_ROWS));
+          try {
+            for (Row row : stream) {
+              requireMatch(
+                  row,
+                  toRowKey(prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time()),
+                  prevEvent);
+              final EventEnvelope event = decode(row);
+              if (event == null) {
+                end = new Prefetched(null, null);
+                return;
+              }
+              queue.put(new Prefetched(event, null));
+              signalQueued();
+              prevEvent = event;
+              n++;
+            }
+          } catch (ApiException e) {
+            if (!e.isRetryable()) {
+              throw e;
+            }
+            // likely intermittent, carry on after the events read so far
+          } finally {
+            stream.cancel();
+          }
+          if (n == CHUNK_ROWS) {
+            continue;
+          }
+          if (n > 0) {
+            pollNanos = MIN_POLL_NANOS;
+          }
+          if (!sleep(pollNanos)) {
+            pollNanos = Math.min(pollNanos * 2, MAX_POLL_NANOS);
+          }
+        }
+      } catch (InterruptedException e) {
+        // closed
+      } catch (RuntimeException e) {
+        // unless an interrupted read surfaced as such
+        if (!closed) {
+          end = new Prefetched(null, e);
+        }
+      } finally {
+        prefetchers.remove(this);
+        // so as to not leave the iterator waiting forever
+        this.end = (end == null ? new Prefetched(null, new IllegalStateException("closed")) : end);
+        // wakes up take() if waiting on an empty queue, otherwise the queue gets drained first
+        queue.offer(this.end);
+        signalQueued();
+      }
+    }
+
+    private void signalQueued() {
+      final CompletableFuture<Void> queued = nextQueued.getAndSet(null);
+      if (queued != null) {
+        queued.complete(null);
+      }
+    }
+
+    /**
+     * @return a future completed once something is queued after this call - to be checked for after
+     *     the call, so as to not miss it
+     */
+    CompletableFuture<Void> onQueued() {
+      CompletableFuture<Void> queued = nextQueued.get();
+      if (queued == null) {
+        queued = new CompletableFuture<>();
+        nextQueued.set(queued);
+      }
+      return queued;
+    }
+
+    /**
+     * @return true if woken up before the time elapsed
+     */
+    private boolean sleep(final long nanos) throws InterruptedException {
+      lock.lock();
+      try {
+        long remaining = nanos;
+        while (!wakeUpRequested && remaining > 0) {
+          remaining = wakeUp.awaitNanos(remaining);
+        }
+        final boolean wokenUp = wakeUpRequested;
+        wakeUpRequested = false;
+        return wokenUp;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Cuts the current poll interval short, as there is known to be more to read. */
+    void wakeUp() {
+      lock.lock();
+      try {
+        wakeUpRequested = true;
+        wakeUp.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    Prefetched take() throws InterruptedException {
+      final Prefetched prefetched = poll();
+      return (prefetched == null ? queue.take() : prefetched);
+    }
+
+    Prefetched poll() {
+      final Prefetched prefetched = queue.poll();
+      return (prefetched == null ? end : prefetched);
+    }
+
+    Prefetched peek() {
+      final Prefetched prefetched = queue.peek();
+      return (prefetched == null ? end : prefetched);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Closing stops the prefetcher. An iterator abandoned without closing keeps polling until the log
+   * is closed.
+   */
+  private class AppendIteratorImpl implements AppendIterator, AutoCloseable {
+    private final Prefetcher prefetcher;
     private EventEnvelope prevEvent;
     private EventEnvelope nextEvent;
 
     public AppendIteratorImpl() {
-      this.serverStreamIterator = query(prevEvent);
+      this.prefetcher = new Prefetcher(prevEvent);
     }
 
     /**
@@ -124,86 +489,73 @@ public final class BigtableEventLog implements EventLog {
      *
      * @return the next event, or null to signify a closed log.
      */
-    private EventEnvelope read() throws IOException {
-      // System.out.println("Entering read() in " + Thread.currentThread() + " on " + this + "'s " +
-      // serverStreamIterator + " with " + prevEvent);
-      while (!serverStreamIterator.hasNext()) {
-        System.out.println("In clumsy sleep loop...");
-        try {
-          Thread.sleep(1000);
-          // TODO notification path, to act more quickly than this polling loop
-        } catch (InterruptedException e) {
-          Thread.currentThread().interrupt();
-          throw new RuntimeException(e);
+    private EventEnvelope read() {
+      try {
+        while (true) {
+          final Prefetched prefetched = prefetcher.take();
+          if (!isEcho(prefetched)) {
+            return unwrap(prefetched);
+          }
         }
-        serverStreamIterator = query(prevEvent);
-        // TODO catch timeouts and other errors that are likely intermittent, and retry
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
       }
+    }
 
-      final Row row = serverStreamIterator.next();
-      requireMatch(row, toRowKey(prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time()));
-      final List<RowCell> cells = row.getCells();
-      final String metadataJson = cells.get(0).getValue().toStringUtf8();
-
-      if (metadataJson.length() != 0) {
-        EventEnvelope event =
-            EventEnvelopeJsonSerde.deserializeEventMetadata(
-                metadataJson, cells.get(1).getValue().toStringUtf8());
-        return event;
-      } else {
-        return null;
-      }
+    /** Whether it is the event this iterator has appended itself, and returned already. */
+    private boolean isEcho(final Prefetched prefetched) {
+      return prevEvent != null
+          && prefetched.event() != null
+          && prefetched.event().time().equals(prevEvent.time());
     }
 
-    private void requireMatch(final Row row, final String expectedKey) {
-      final ByteString actualKey = row.getKey();
-      if (!actualKey.isValidUtf8() || !actualKey.toStringUtf8().equals(expectedKey)) {
-        throw new InternalException(
-            String.format(
-                "Corrupt row key sequence: the row after %s should be keyed %s but was %s",
-                prevEvent.time(),
-                "'" + expectedKey + "'",
-                (actualKey.isValidUtf8()
-                    ? "'" + actualKey.toStringUtf8() + "'"
-                    : "invalid utf8, " + actualKey)));
+    private EventEnvelope unwrap(final Prefetched prefetched) {
+      if (prefetched.failure() != null) {
+        throw new RuntimeException("Failed to read ahead in " + logId, prefetched.failure());
       }
+      return prefetched.event();
     }
 
+    /**
+     * Does not query Bigtable, only looks at what is read ahead, so may return true for a short
+     * while after events are appended, until the prefetcher polls.
+     */
     @Override
     public boolean wouldBlock() {
-      // unsure if there is a need to be explicit about blocking I/O (isReceiveReady) as well? Or
-      // need new name?
-      if (nextEvent != null || serverStreamIterator.hasNext()) {
+      if (nextEvent != null) {
         return false;
       }
-      // unneeded? The above already tells almost certainly whether there are more events?
-      // Figure later if and where we too uninterruptibly wait
-      // final ServerStream<Row> headServerStream = query(prevEvent);
-      // try {
-      //   return !headServerStream.iterator().hasNext();
-      // } finally {
-      //   headServerStream.cancel();
-      // }
-      serverStreamIterator = query(prevEvent);
-      return !serverStreamIterator.hasNext();
+      Prefetched prefetched;
+      while ((prefetched = prefetcher.peek()) != null && isEcho(prefetched)) {
+        prefetcher.poll();
+      }
+      return prefetched == null;
+    }
+
+    /** Completed by the prefetcher queueing an event, or the end of the log, or a failure. */
+    @Override
+    public CompletableFuture<Void> onAvailable() {
+      if (!wouldBlock()) {
+        return AVAILABLE;
+      }
+      final CompletableFuture<Void> queued = prefetcher.onQueued();
+      // checking again after registering, so as to not miss the prefetcher queueing meanwhile
+      return (wouldBlock() ? queued : AVAILABLE);
     }
 
     /** Will block after the last event until more events are appended or the log is closed. */
     @Override
     public boolean hasNext() {
       if (nextEvent == null) {
-        try {
-          nextEvent = read();
-          if (prevEvent != null
-              && nextEvent != null
-              && nextEvent.time().compareTo(prevEvent.time()) <= 0) {
-            throw new InternalException(
-                String.format(
-                    "Out-of-order event sequence: %s followed by %s in %s",
-                    prevEvent.time(), nextEvent.time(), logId));
-          }
-        } catch (IOException e) {
-          throw new RuntimeException(e);
+        nextEvent = read();
+        if (prevEvent != null
+            && nextEvent != null
+            && nextEvent.time().compareTo(prevEvent.time()) <= 0) {
+          throw new InternalException(
+              String.format(
+                  "Out-of-order event sequence: %s followed by %s in %s",
+                  prevEvent.time(), nextEvent.time(), logId));
         }
       }
       return nextEvent != null;
@@ -239,5 +591,10 @@ public final class BigtableEventLog implements EventLog {
       }
       return nextEvent;
     }
+
+    @Override
+    public void close() {
+      prefetcher.close();
+    }
   }
 }
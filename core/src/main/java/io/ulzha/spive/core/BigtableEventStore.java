@@ -2,12 +2,11 @@ package io.ulzha.spive.core;
 
 import com.google.cloud.bigtable.data.v2.BigtableDataClient;
 import com.google.cloud.bigtable.data.v2.BigtableDataSettings;
+import io.ulzha.spive.lib.EventLog;
 import io.ulzha.spive.lib.EventStore;
 import io.ulzha.spive.lib.InternalException;
 import java.io.IOException;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -26,6 +25,11 @@ import java.util.regex.Pattern;
  *
  * <p>When a log is closed for appending, a special empty sentinel row is stored at key
  * `<logId>:<lastActualEventTime>`.
+ *
+ * <p>Optionally, with `;rowKeys=binary`, keys are instead the 16 bytes of logId followed by 17
+ * bytes of EventTime order-preserving bytes representation (just one byte for the first event),
+ * about half the size. Keys in either layout sort in event order within a log. A table should
+ * consistently use one layout - the default remains the string one, for existing tables.
  */
 public final class BigtableEventStore implements EventStore {
   private static final Pattern CONNECTION_STRING_RE =
@@ -34,12 +38,14 @@ public final class BigtableEventStore implements EventStore {
               + ";projectId=([a-z0-9_-]{0,63})"
               + ";instanceId=([a-z0-9_-]+)"
               + "(?:;hostname=([a-z0-9_-]+);port=([0-9]+))?"
+              + "(?:;rowKeys=(string|binary))?"
               + "$");
 
   // clients are expensive, so an instance only creates one per store (i.e. one per connection
   // string)
   private final BigtableDataClient dataClient;
-  private final Map<UUID, BigtableEventLog> eventLogs = new ConcurrentHashMap<>();
+  private final BigtableEventLog.RowKeyFormat rowKeyFormat;
+  private final HandleCache<BigtableEventLog> handleCache;
 
   /**
    * Two formats supported:
@@ -50,6 +56,8 @@ public final class BigtableEventStore implements EventStore {
    *   <li>projectId=company-infra;instanceId=spive-prod-0 - real
    *   <li>projectId=user-dev;instanceId=spive-dev-0;hostname=localhost;port=8086 - emulator
    * </ul>
+   *
+   * <p>Either may be followed by `;rowKeys=binary` to use the compact row key layout.
    */
   public BigtableEventStore(final String connectionString) throws IOException {
     final Matcher matcher = CONNECTION_STRING_RE.matcher(connectionString);
@@ -62,7 +70,11 @@ public final class BigtableEventStore implements EventStore {
     final String projectId = matchResult.group(1);
     final String instanceId = matchResult.group(2);
     final String hostname = matchResult.group(3);
-    final int port = Integer.parseInt(matchResult.group(4));
+    final int port = (hostname == null ? 0 : Integer.parseInt(matchResult.group(4)));
+    this.rowKeyFormat =
+        ("binary".equals(matchResult.group(5))
+            ? BigtableEventLog.RowKeyFormat.BINARY
+            : BigtableEventLog.RowKeyFormat.STRING);
 
     BigtableDataSettings.Builder builder =
         (hostname == null
@@ -72,10 +84,22 @@ public final class BigtableEventStore implements EventStore {
     builder.setInstanceId(instanceId);
 
     this.dataClient = BigtableDataClient.create(builder.build());
+    this.handleCache =
+        new HandleCache<>(theId -> new BigtableEventLog(dataClient, theId, rowKeyFormat));
   }
 
+  /**
+   * Logs left unused are forgotten, as per HandleCache, along with their cached tail times. Logs
+   * with iterators open are kept though, as iterators cannot be closed individually, until the log
+   * is closed explicitly, which stops the iterators' prefetching along with it.
+   */
   @Override
-  public BigtableEventLog openLog(final UUID logId) {
-    return eventLogs.computeIfAbsent(logId, theId -> new BigtableEventLog(dataClient, theId));
+  public EventLog openLog(final UUID logId) {
+    return handleCache.get(logId);
+  }
+
+  /** For monitoring the handles open. */
+  public HandleCache<BigtableEventLog> handleCache() {
+    return handleCache;
   }
 }
@@ -0,0 +1,33 @@
+package io.ulzha.spive.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The few object storage operations that ObjectStoreEventLog needs, as offered by Google Cloud
+ * Storage, S3 and the like. Objects are never modified once created.
+ *
+ * <p>Names are `/` separated paths.
+ */
+public interface BlobStore {
+  /**
+   * Creates an object with the given content atomically, unless one exists by that name already -
+   * like GCS `ifGenerationMatch=0` or S3 `If-None-Match: *` preconditions.
+   *
+   * @return false if an object exists by that name already
+   */
+  boolean createIfAbsent(String name, ByteBuffer content) throws IOException;
+
+  /**
+   * @return the content of the object, or null if there is no such object
+   */
+  ByteBuffer read(String name) throws IOException;
+
+  /**
+   * @param startAfter null to list from the first name
+   * @return up to limit names that start with prefix and sort after startAfter, in lexicographical
+   *     order
+   */
+  List<String> list(String prefix, String startAfter, int limit) throws IOException;
+}
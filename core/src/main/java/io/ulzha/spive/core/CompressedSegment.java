@@ -0,0 +1,356 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.lib.InternalException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A sealed segment compressed in independently decompressible blocks, as in
+ * `events.<first>_<last>.jsonl.deflate`.
+ *
+ * <pre>
+ * int    magic
+ * int    length of dictionary, followed by as many bytes of it
+ * blocks:
+ *   long   first event epoch second  \
+ *   int    first event nano           } time range of the block
+ *   int    first event tiebreaker     |
+ *   long   last event epoch second    |
+ *   int    last event nano            |
+ *   int    last event tiebreaker     /
+ *   int    uncompressed length
+ *   int    compressed length, followed by as many bytes of zlib stream
+ * </pre>
+ *
+ * <p>A block holds the original records verbatim, as written by the segment's RecordCodec, of about
+ * BLOCK_SIZE bytes in total. The time range lets readers seek by skipping over blocks without
+ * inflating them.
+ *
+ * <p>The preset dictionary consists of one sample record for each type tag seen in the segment, the
+ * more frequent ones nearer the end, so that the tags and the envelope boilerplate repeating on
+ * every record compress well already at the start of each block.
+ */
+final class CompressedSegment {
+  static final String SUFFIX = ".deflate";
+  private static final int MAGIC = 0x53505a31; // "SPZ1"
+  private static final int BLOCK_SIZE = 64 << 10;
+  private static final int BLOCK_HEADER_SIZE = 40;
+  // the deflate window, beyond which the dictionary cannot be referenced
+  private static final int MAX_DICTIONARY_SIZE = 32 << 10;
+  private static final int INFLATE_THREADS = Runtime.getRuntime().availableProcessors();
+  // Shared by all the readers, rather than the common pool, as inflating involves blocking reads.
+  // Once threads and queue are all busy, readers inflate for themselves.
+  private static final ExecutorService INFLATER = newInflater();
+
+  private CompressedSegment() {}
+
+  private static ExecutorService newInflater() {
+    final AtomicInteger count = new AtomicInteger();
+    final ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            INFLATE_THREADS,
+            INFLATE_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(4 * INFLATE_THREADS),
+            runnable -> {
+              final Thread thread =
+                  new Thread(runnable, "spive-inflate-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              thread.setContextClassLoader(CompressedSegment.class.getClassLoader());
+              return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private record Block(long start, long end, EventTime first, EventTime last) {}
+
+  private record TypeSample(long start, long end, int count) {}
+
+  /**
+   * Writes a compressed copy of the segment, and deletes the original along with its index.
+   *
+   * @return the compressed segment
+   */
+  static SealedSegment compress(final SealedSegment segment, final RecordCodec codec)
+      throws IOException {
+    final Path dst = segment.path().resolveSibling(segment.path().getFileName() + SUFFIX);
+    final Path tmp = dst.resolveSibling(dst.getFileName() + ".tmp");
+    try (FileChannel src = FileChannel.open(segment.path(), StandardOpenOption.READ);
+        FileChannel out =
+            FileChannel.open(
+                tmp,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+      final List<Block> blocks = new ArrayList<>();
+      final Map<String, TypeSample> samples = new HashMap<>();
+      scan(src, codec, blocks, samples);
+
+      final byte[] dictionary = dictionary(src, samples);
+      write(
+          out,
+          ByteBuffer.allocate(8 + dictionary.length)
+              .putInt(MAGIC)
+              .putInt(dictionary.length)
+              .put(dictionary)
+              .flip());
+      final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+      try {
+        for (Block block : blocks) {
+          final byte[] uncompressed = readRange(src, block.start(), block.end());
+          deflater.reset();
+          deflater.setDictionary(dictionary);
+          deflater.setInput(uncompressed);
+          deflater.finish();
+          final ByteBuffer compressed = ByteBuffer.allocate(uncompressed.length + 64);
+          while (!deflater.finished()) {
+            if (!compressed.hasRemaining()) {
+              throw new InternalException("Block not compressible in " + segment.path());
+            }
+            deflater.deflate(compressed);
+          }
+          compressed.flip();
+          final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+          putTime(header, block.first());
+          putTime(header, block.last());
+          header.putInt(uncompressed.length).putInt(compressed.remaining()).flip();
+          write(out, header);
+          write(out, compressed);
+        }
+      } finally {
+        deflater.end();
+      }
+      out.force(true);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    Files.move(tmp, dst, StandardCopyOption.ATOMIC_MOVE);
+    Files.delete(segment.path());
+    Files.deleteIfExists(segment.indexPath());
+    return new SealedSegment(dst, segment.first(), segment.last());
+  }
+
+  /** Splits the segment in blocks at record boundaries, and samples a record of each type. */
+  private static void scan(
+      final FileChannel src,
+      final RecordCodec codec,
+      final List<Block> blocks,
+      final Map<String, TypeSample> samples)
+      throws IOException {
+    final RecordReader reader = new RecordReader(src, codec);
+    long blockStart = 0;
+    EventTime blockFirst = null;
+    EventTime blockLast = null;
+    long start = reader.position();
+    EventEnvelope record;
+    while ((record = reader.read()) != null
+        && record != RecordCodec.SEAL_MARKER
+        && record != RecordCodec.CLOSE_MARKER) {
+      final long end = reader.position();
+      samples.merge(
+          record.typeTag(),
+          new TypeSample(start, end, 1),
+          (a, b) -> new TypeSample(a.start(), a.end(), a.count() + 1));
+      if (blockFirst == null) {
+        blockFirst = record.time();
+      }
+      blockLast = record.time();
+      if (end - blockStart >= BLOCK_SIZE) {
+        blocks.add(new Block(blockStart, end, blockFirst, blockLast));
+        blockStart = end;
+        blockFirst = null;
+      }
+      start = end;
+    }
+    if (blockFirst != null) {
+      blocks.add(new Block(blockStart, start, blockFirst, blockLast));
+    }
+  }
+
+  private static byte[] dictionary(final FileChannel src, final Map<String, TypeSample> samples)
+      throws IOException {
+    final List<TypeSample> sorted = new ArrayList<>(samples.values());
+    // most frequent last, as the nearest matches are the cheapest to reference
+    sorted.sort((a, b) -> Integer.compare(a.count(), b.count()));
+    final List<byte[]> parts = new ArrayList<>();
+    int size = 0;
+    for (int i = sorted.size(); i-- > 0; ) {
+      final TypeSample sample = sorted.get(i);
+      if (size + (sample.end() - sample.start()) > MAX_DICTIONARY_SIZE) {
+        continue;
+      }
+      parts.addFirst(readRange(src, sample.start(), sample.end()));
+      size += parts.getFirst().length;
+    }
+    final ByteBuffer dictionary = ByteBuffer.allocate(size);
+    parts.forEach(dictionary::put);
+    return dictionary.array();
+  }
+
+  private static byte[] readRange(final FileChannel src, final long start, final long end)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(end - start));
+    while (buffer.hasRemaining()) {
+      if (src.read(buffer, start + buffer.position()) < 0) {
+        throw new InternalException("Unexpected end of segment at " + (start + buffer.position()));
+      }
+    }
+    return buffer.array();
+  }
+
+  private static void write(final FileChannel out, final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static void putTime(final ByteBuffer buffer, final EventTime time) {
+    buffer
+        .putLong(time.instant.getEpochSecond())
+        .putInt(time.instant.getNano())
+        .putInt(time.tiebreaker);
+  }
+
+  private static EventTime getTime(final ByteBuffer buffer) {
+    try {
+      return new EventTime(
+          Instant.ofEpochSecond(buffer.getLong(), buffer.getInt()), buffer.getInt());
+    } catch (DateTimeException | IllegalArgumentException e) {
+      throw new InternalException("Corrupt block header", e);
+    }
+  }
+
+  /**
+   * Reads the records back, one block at a time.
+   *
+   * <p>The block after the current one is inflated in the background meanwhile, so that decoding
+   * runs in parallel with the consumer of the records.
+   */
+  static final class Reader implements RecordSource {
+    private final FileChannel channel;
+    private final RecordCodec codec;
+    private final byte[] dictionary;
+    private long nextBlockOffset;
+    private ByteBuffer block = ByteBuffer.allocate(0);
+    private CompletableFuture<ByteBuffer> prefetched;
+
+    Reader(final FileChannel channel, final RecordCodec codec) throws IOException {
+      this.channel = channel;
+      this.codec = codec;
+      final ByteBuffer header = ByteBuffer.wrap(readRange(channel, 0, 8));
+      if (header.getInt() != MAGIC) {
+        throw new InternalException("Not a compressed segment");
+      }
+      this.dictionary = readRange(channel, 8, 8 + header.getInt());
+      this.nextBlockOffset = 8 + dictionary.length;
+    }
+
+    /** Skips the blocks holding only events up to and including from. */
+    void skipTo(final EventTime from) throws IOException {
+      while (nextBlockOffset < channel.size()) {
+        final ByteBuffer header =
+            ByteBuffer.wrap(
+                readRange(channel, nextBlockOffset, nextBlockOffset + BLOCK_HEADER_SIZE));
+        getTime(header);
+        if (getTime(header).compareTo(from) > 0) {
+          return;
+        }
+        header.getInt();
+        nextBlockOffset += BLOCK_HEADER_SIZE + header.getInt();
+      }
+    }
+
+    /**
+     * @return the event, or null at the end of the segment
+     */
+    @Override
+    public EventEnvelope read() throws IOException {
+      while (true) {
+        if (block.hasRemaining()) {
+          final EventEnvelope record = codec.decode(block);
+          if (record == null) {
+            throw new InternalException("Incomplete record at the end of block");
+          }
+          return record;
+        }
+        if (prefetched == null) {
+          prefetched = inflateNext();
+          if (prefetched == null) {
+            return null;
+          }
+        }
+        try {
+          block = prefetched.join();
+        } catch (CompletionException e) {
+          throw new InternalException("Failed to inflate block", e.getCause());
+        }
+        prefetched = inflateNext();
+      }
+    }
+
+    /**
+     * @return the next block being inflated in the background, or null at the end of the segment
+     */
+    private CompletableFuture<ByteBuffer> inflateNext() throws IOException {
+      if (nextBlockOffset >= channel.size()) {
+        return null;
+      }
+      final ByteBuffer header =
+          ByteBuffer.wrap(readRange(channel, nextBlockOffset, nextBlockOffset + BLOCK_HEADER_SIZE));
+      header.position(32);
+      final int uncompressedLength = header.getInt();
+      final int compressedLength = header.getInt();
+      final long start = nextBlockOffset + BLOCK_HEADER_SIZE;
+      nextBlockOffset = start + compressedLength;
+      return CompletableFuture.supplyAsync(
+          () -> {
+            final Inflater inflater = new Inflater();
+            try {
+              inflater.setInput(readRange(channel, start, start + compressedLength));
+              final byte[] uncompressed = new byte[uncompressedLength];
+              int n = inflater.inflate(uncompressed);
+              if (inflater.needsDictionary()) {
+                inflater.setDictionary(dictionary);
+                n += inflater.inflate(uncompressed, n, uncompressedLength - n);
+              }
+              if (n != uncompressedLength || !inflater.finished()) {
+                throw new InternalException("Corrupt block at " + start);
+              }
+              return ByteBuffer.wrap(uncompressed);
+            } catch (IOException | DataFormatException e) {
+              throw new CompletionException(e);
+            } finally {
+              inflater.end();
+            }
+          },
+          INFLATER);
+    }
+  }
+}
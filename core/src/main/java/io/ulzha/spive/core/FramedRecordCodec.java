@@ -0,0 +1,215 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.lib.InternalException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary length-prefixed format, as in `events.bin`. Each record is framed as:
+ *
+ * <pre>
+ * int    length of body
+ * int    CRC32C of body
+ * body:
+ *   long   epoch second  \
+ *   int    nano           } EventTime header
+ *   int    tiebreaker    /
+ *   byte   1 if id follows, else 0
+ *   long   id most significant bits  \ (only if present)
+ *   long   id least significant bits /
+ *   int    length of type tag, followed by as many bytes of UTF-8
+ *   int    length of payload, followed by as many bytes of UTF-8 (-1 for null payload)
+ * int    length of body, repeated
+ * </pre>
+ *
+ * <p>All integers are big-endian. A closed log ends with a record that has an empty body. A sealed
+ * segment ends with a record that has a one byte body, 'S'.
+ *
+ * <p>The leading length lets readers skip over whole records without scanning them, and lets them
+ * tell a complete record from one being written. The trailing length lets the last record be found
+ * in one read from the end. The checksum detects torn writes and other corruption, instead of
+ * having them parsed as garbage.
+ */
+final class FramedRecordCodec implements RecordCodec {
+  static final int FRAME_OVERHEAD = 12;
+  private static final int MAX_BODY_LENGTH = 256 << 20;
+  private static final byte SEAL_BYTE = 'S';
+
+  @Override
+  public EventEnvelope decode(final ByteBuffer buffer, final boolean stable) {
+    final int start = buffer.position();
+    if (buffer.remaining() < Integer.BYTES) {
+      return null;
+    }
+    final int length = buffer.getInt(start);
+    if (length < 0 || length > MAX_BODY_LENGTH) {
+      throw new InternalException("Corrupt record length " + length + " at buffer offset " + start);
+    }
+    if (buffer.remaining() < FRAME_OVERHEAD + length) {
+      return null;
+    }
+    final ByteBuffer body = buffer.slice(start + 8, length);
+    if (buffer.getInt(start + 4) != checksum(body) || buffer.getInt(start + 8 + length) != length) {
+      throw new InternalException("Corrupt record at buffer offset " + start + " - torn write?");
+    }
+    buffer.position(start + FRAME_OVERHEAD + length);
+    if (length == 0) {
+      return CLOSE_MARKER;
+    }
+    if (length == 1 && body.get(0) == SEAL_BYTE) {
+      return SEAL_MARKER;
+    }
+    return decodeBody(body, stable);
+  }
+
+  private static EventEnvelope decodeBody(final ByteBuffer body, final boolean stable) {
+    try {
+      final long epochSecond = body.getLong();
+      final int nano = body.getInt();
+      final int tiebreaker = body.getInt();
+      final EventTime time = new EventTime(Instant.ofEpochSecond(epochSecond, nano), tiebreaker);
+      final UUID id = (body.get() == 0 ? null : new UUID(body.getLong(), body.getLong()));
+      final String typeTag = getString(body);
+      final ByteBuffer payload = getBytes(body, stable);
+      if (body.hasRemaining()) {
+        throw new InternalException("Trailing bytes in record body: " + body.remaining());
+      }
+      return EventEnvelope.ofPayloadBytes(time, id, typeTag, payload);
+    } catch (DateTimeException | IllegalArgumentException | IndexOutOfBoundsException e) {
+      throw new InternalException("Corrupt record body", e);
+    }
+  }
+
+  private static String getString(final ByteBuffer body) {
+    final int length = body.getInt();
+    if (length == -1) {
+      return null;
+    }
+    final String s = StandardCharsets.UTF_8.decode(body.slice(body.position(), length)).toString();
+    body.position(body.position() + length);
+    return s;
+  }
+
+  /**
+   * Takes the payload bytes as they are, without decoding - copied, unless stable, since readers
+   * reuse their buffers. The serde decodes them only once, straight into the payload object.
+   */
+  private static ByteBuffer getBytes(final ByteBuffer body, final boolean stable) {
+    final int length = body.getInt();
+    if (length == -1) {
+      return null;
+    }
+    final ByteBuffer slice = body.slice(body.position(), length);
+    body.position(body.position() + length);
+    if (stable) {
+      return slice;
+    }
+    final byte[] bytes = new byte[length];
+    slice.get(bytes);
+    return ByteBuffer.wrap(bytes);
+  }
+
+  @Override
+  public ByteBuffer encode(final EventEnvelope event) {
+    final byte[] typeTag = event.typeTag().getBytes(StandardCharsets.UTF_8);
+    final ByteBuffer payload = event.payloadBytes();
+    final int length =
+        17
+            + (event.id() == null ? 0 : 16)
+            + 4
+            + typeTag.length
+            + 4
+            + (payload == null ? 0 : payload.remaining());
+    final ByteBuffer buffer = ByteBuffer.allocate(FRAME_OVERHEAD + length);
+    buffer.putInt(length);
+    buffer.putInt(0); // checksum placeholder
+    buffer.putLong(event.time().instant.getEpochSecond());
+    buffer.putInt(event.time().instant.getNano());
+    buffer.putInt(event.time().tiebreaker);
+    if (event.id() == null) {
+      buffer.put((byte) 0);
+    } else {
+      buffer.put((byte) 1);
+      buffer.putLong(event.id().getMostSignificantBits());
+      buffer.putLong(event.id().getLeastSignificantBits());
+    }
+    buffer.putInt(typeTag.length);
+    buffer.put(typeTag);
+    if (payload == null) {
+      buffer.putInt(-1);
+    } else {
+      buffer.putInt(payload.remaining());
+      buffer.put(payload);
+    }
+    buffer.putInt(length);
+    buffer.putInt(4, checksum(buffer.slice(8, length)));
+    return buffer.flip();
+  }
+
+  @Override
+  public ByteBuffer encodeCloseMarker() {
+    return ByteBuffer.allocate(FRAME_OVERHEAD)
+        .putInt(0)
+        .putInt(checksum(ByteBuffer.allocate(0)))
+        .putInt(0)
+        .flip();
+  }
+
+  @Override
+  public ByteBuffer encodeSealMarker() {
+    final ByteBuffer body = ByteBuffer.wrap(new byte[] {SEAL_BYTE});
+    return ByteBuffer.allocate(FRAME_OVERHEAD + 1)
+        .putInt(1)
+        .putInt(checksum(body))
+        .put(SEAL_BYTE)
+        .putInt(1)
+        .flip();
+  }
+
+  @Override
+  public EventEnvelope readLast(final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    if (size == 0) {
+      return null;
+    }
+    if (size < FRAME_OVERHEAD) {
+      throw new InternalException("Incomplete record at the end of log - torn write?");
+    }
+    final ByteBuffer trailer = ByteBuffer.allocate(Integer.BYTES);
+    readFully(channel, trailer, size - Integer.BYTES);
+    final int length = trailer.getInt(0);
+    if (length < 0 || length > size - FRAME_OVERHEAD) {
+      throw new InternalException(
+          "Corrupt record length " + length + " at the end of log - torn write?");
+    }
+    final long start = size - FRAME_OVERHEAD - length;
+    final ByteBuffer buffer = ByteBuffer.allocate(FRAME_OVERHEAD + length);
+    readFully(channel, buffer, start);
+    return decode(buffer.flip());
+  }
+
+  private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new InternalException("Unexpected end of channel at position " + position);
+      }
+      position += read;
+    }
+  }
+
+  private static int checksum(final ByteBuffer body) {
+    final CRC32C crc = new CRC32C();
+    crc.update(body.duplicate());
+    return (int) crc.getValue();
+  }
+}
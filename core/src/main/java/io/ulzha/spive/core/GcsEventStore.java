@@ -1,7 +1,8 @@
 package io.ulzha.spive.core;
 
 /**
- * TODO compare with Bigtable.
+ * TODO compare with Bigtable. Also compare with ObjectStoreEventStore, which packs runs of events
+ * per object and only needs a GCS BlobStore implementation.
  *
  * <p>Stores streams in a Google Cloud Storage bucket, one object per event, structured as
  * `/<logId>/<prevTime>`.
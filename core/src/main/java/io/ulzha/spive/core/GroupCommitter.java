@@ -0,0 +1,139 @@
+package io.ulzha.spive.core;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Makes appends durable in batches, with one force() per batch, instead of one synchronous write
+ * per append.
+ *
+ * <p>Appenders write without syncing, under the log lock, taking an increasing sequence number for
+ * each append. Then they wait in awaitDurable() for their sequence number. A commit thread collects
+ * the requests arriving within a window, forces the file once, and acknowledges all the requests up
+ * to the highest sequence number requested before the force.
+ *
+ * <p>Forcing the file through any channel covers writes made through other channels of the same
+ * file. When the log switches to another file (a new segment), the old file must be forced before
+ * switchChannel(), so that all the appends preceding the switch are durable either way.
+ *
+ * <p>A failed force() is not retried, as the unflushed data may have been dropped from the page
+ * cache already. All the pending and subsequent appends fail instead.
+ */
+final class GroupCommitter implements AutoCloseable {
+  private volatile FileChannel channel;
+  private final long windowNanos;
+  private final Thread thread;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition requested = lock.newCondition();
+  private final Condition committed = lock.newCondition();
+  private long requestedSequence = 0;
+  private long durableSequence = 0;
+  private IOException failure;
+  private boolean closed = false;
+  private boolean stopped = false;
+
+  GroupCommitter(final FileChannel channel, final Duration window, final String name) {
+    this.channel = channel;
+    this.windowNanos = window.toNanos();
+    this.thread = new Thread(this::run, "spive-group-commit-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Blocks until the file is forced after the append with the given sequence number. */
+  void awaitDurable(final long sequence) throws IOException {
+    lock.lock();
+    try {
+      if (sequence > requestedSequence) {
+        requestedSequence = sequence;
+        requested.signal();
+      }
+      while (durableSequence < sequence) {
+        if (failure != null) {
+          throw new IOException("Group commit failed", failure);
+        }
+        if (stopped) {
+          throw new IOException("Group committer stopped before commit");
+        }
+        committed.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void run() {
+    lock.lock();
+    try {
+      while (failure == null) {
+        if (requestedSequence <= durableSequence) {
+          if (closed) {
+            break;
+          }
+          requested.await();
+          continue;
+        }
+        // let more appends join the batch
+        long nanos = windowNanos;
+        while (nanos > 0 && !closed) {
+          nanos = requested.awaitNanos(nanos);
+        }
+        // The appends up to target are all in this channel or, if the channel has been switched
+        // meanwhile, forced by the switching thread already
+        final long target = requestedSequence;
+        final FileChannel forceChannel = channel;
+        IOException forceFailure = null;
+        lock.unlock();
+        try {
+          forceChannel.force(true);
+        } catch (ClosedChannelException e) {
+          if (forceChannel == channel) {
+            forceFailure = e;
+          }
+        } catch (IOException e) {
+          forceFailure = e;
+        } finally {
+          lock.lock();
+        }
+        if (forceFailure == null) {
+          durableSequence = Math.max(durableSequence, target);
+        } else {
+          failure = forceFailure;
+        }
+        committed.signalAll();
+      }
+    } catch (InterruptedException e) {
+      closed = true;
+    } finally {
+      stopped = true;
+      committed.signalAll();
+      lock.unlock();
+    }
+  }
+
+  /** Directs subsequent forces to a new file, after the caller has forced the previous one. */
+  void switchChannel(final FileChannel newChannel) {
+    channel = newChannel;
+  }
+
+  /** Commits the pending appends, if any, and stops the commit thread. */
+  @Override
+  public void close() throws InterruptedException {
+    lock.lock();
+    try {
+      closed = true;
+      requested.signal();
+    } finally {
+      lock.unlock();
+    }
+    thread.join();
+  }
+}
@@ -0,0 +1,537 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventLog;
+import io.ulzha.spive.lib.EventTime;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the logs and iterators that an EventStore keeps open, for a process hosting many fine
+ * grained partitions to not run out of file descriptors and the like.
+ *
+ * <p>Hands out proxies in place of the logs. A proxy opens its log upon use, and the least recently
+ * used handles get closed beyond maxOpenHandles, as well as the ones left unused for longer than
+ * idleTimeout. A closed log is reopened transparently upon next use, and so is an iterator, seeked
+ * to right after the last event it has read.
+ *
+ * <p>Handles are reference counted: a handle is pinned for the duration of each call on it, such as
+ * a blocking hasNext(), and an open iterator pins its log. Pinned handles are never closed, so
+ * maxOpenHandles may be exceeded while all of them are in use.
+ *
+ * <p>Iterators that cannot be closed individually (are not AutoCloseable) stay open until they
+ * finish, keeping their log open too - unless the log gets closed explicitly.
+ *
+ * <p>Using an open handle takes no lock, only an atomic pin count. A lock per handle is held while
+ * opening or closing it, so one slow open does not hold up the other logs. The least recently used
+ * handles are found by scanning the open ones, by one thread at a time, only when over
+ * maxOpenHandles and every so often for idle ones - the LRU order is approximate, as handles in use
+ * meanwhile may still get picked.
+ */
+public final class HandleCache<L extends EventLog> {
+  private static final Logger LOG = LoggerFactory.getLogger(HandleCache.class);
+  public static final int DEFAULT_MAX_OPEN_HANDLES = 1024;
+  public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(5);
+  // in place of a pin count, while a handle has no underlying object to pin
+  private static final int CLOSED = -1;
+
+  @FunctionalInterface
+  public interface Opener<L> {
+    L open(UUID logId) throws IOException;
+  }
+
+  private final int maxOpenHandles;
+  private final long idleTimeoutNanos;
+  private final Opener<L> opener;
+  private final Map<UUID, CachedEventLog> eventLogs = new ConcurrentHashMap<>();
+  private final Set<Handle> openHandles = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger openLogs = new AtomicInteger();
+  private final AtomicInteger openIterators = new AtomicInteger();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong reopens = new AtomicLong();
+  private final AtomicBoolean scanning = new AtomicBoolean();
+  private volatile long nextIdleScanNanos;
+
+  public HandleCache(final Opener<L> opener) {
+    this(DEFAULT_MAX_OPEN_HANDLES, DEFAULT_IDLE_TIMEOUT, opener);
+  }
+
+  public HandleCache(final int maxOpenHandles, final Duration idleTimeout, final Opener<L> opener) {
+    this.maxOpenHandles = maxOpenHandles;
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+    this.opener = opener;
+    this.nextIdleScanNanos = System.nanoTime() + idleScanPeriodNanos();
+  }
+
+  /** Returns the same EventLog object if logId matches, without opening the log yet. */
+  public EventLog get(final UUID logId) {
+    return eventLogs.computeIfAbsent(logId, CachedEventLog::new);
+  }
+
+  /** Gauge of the logs open. */
+  public int openLogs() {
+    return openLogs.get();
+  }
+
+  /** Gauge of the iterators open. */
+  public int openIterators() {
+    return openIterators.get();
+  }
+
+  /** Counter of the handles closed while still in use, so to be reopened upon next use. */
+  public long evictions() {
+    return evictions.get();
+  }
+
+  /** Counter of the handles opened again after having been evicted. */
+  public long reopens() {
+    return reopens.get();
+  }
+
+  private abstract static class Handle {
+    // the number of calls in progress while open, or CLOSED
+    final AtomicInteger pins = new AtomicInteger(CLOSED);
+    // held while opening or closing the underlying object, never while merely using it
+    final ReentrantLock lock = new ReentrantLock();
+    volatile long lastUsedNanos;
+
+    /**
+     * @return false if closed, to be opened under the lock
+     */
+    boolean tryPin() {
+      int n;
+      do {
+        n = pins.get();
+        if (n == CLOSED) {
+          return false;
+        }
+      } while (!pins.compareAndSet(n, n + 1));
+      return true;
+    }
+
+    abstract boolean isClosable();
+
+    /** The handle that stays pinned while this one is open, or null if none. */
+    Handle parent() {
+      return null;
+    }
+
+    /**
+     * Forgets the underlying object, under the lock, once no longer pinned.
+     *
+     * @return what closes it
+     */
+    abstract AutoCloseable detach();
+  }
+
+  private record Candidate(Handle handle, long lastUsedNanos) {}
+
+  /** Caller must hold the lock of the handle, having just set its underlying object. */
+  private void opened(final Handle handle) {
+    handle.lastUsedNanos = System.nanoTime();
+    openHandles.add(handle);
+    // publishes the underlying object to tryPin()
+    handle.pins.set(1);
+  }
+
+  private void unpin(final Handle handle) {
+    handle.lastUsedNanos = System.nanoTime();
+    evictIfDue(handle.pins.decrementAndGet() == 0 && handle.isClosable());
+  }
+
+  private long idleScanPeriodNanos() {
+    return Math.max(idleTimeoutNanos / 2, 1);
+  }
+
+  /**
+   * Cheap unless a scan is due, and never waits for one under way in another thread.
+   *
+   * @param evictable whether a handle was just opened or left unused, for a scan to possibly get
+   *     down to maxOpenHandles - not otherwise, as the handles over it are all in use
+   */
+  private void evictIfDue(final boolean evictable) {
+    final long now = System.nanoTime();
+    final boolean overLimit = (evictable && openLogs.get() + openIterators.get() > maxOpenHandles);
+    if ((overLimit || now - nextIdleScanNanos >= 0) && scanning.compareAndSet(false, true)) {
+      try {
+        evict(now);
+      } finally {
+        scanning.set(false);
+      }
+    }
+  }
+
+  /** Closes the handles over maxOpenHandles, least recently used first, and the idle ones. */
+  private void evict(final long now) {
+    final List<Candidate> candidates = new ArrayList<>();
+    for (Handle handle : openHandles) {
+      if (handle.pins.get() == 0 && handle.isClosable()) {
+        candidates.add(new Candidate(handle, handle.lastUsedNanos));
+      }
+    }
+    candidates.sort(Comparator.comparingLong(Candidate::lastUsedNanos));
+    int excess = openLogs.get() + openIterators.get() - maxOpenHandles;
+    for (Candidate candidate : candidates) {
+      if (excess <= 0 && now - candidate.lastUsedNanos() <= idleTimeoutNanos) {
+        // the rest are used more recently still
+        break;
+      }
+      if (closeIfUnpinned(candidate.handle(), false)) {
+        evictions.incrementAndGet();
+        excess--;
+      }
+    }
+    nextIdleScanNanos = now + idleScanPeriodNanos();
+  }
+
+  /**
+   * @param wait whether to wait for the handle being opened or closed by another thread, rather
+   *     than skip it
+   * @return whether closed here
+   */
+  private boolean closeIfUnpinned(final Handle handle, final boolean wait) {
+    if (wait) {
+      handle.lock.lock();
+    } else if (!handle.lock.tryLock()) {
+      return false;
+    }
+    try {
+      if (!handle.pins.compareAndSet(0, CLOSED)) {
+        return false;
+      }
+      openHandles.remove(handle);
+      try {
+        handle.detach().close();
+      } catch (Exception e) {
+        LOG.warn("Failed to close {}", handle, e);
+      }
+      return true;
+    } finally {
+      handle.lock.unlock();
+    }
+  }
+
+  private final class CachedEventLog extends Handle implements EventLog {
+    private final UUID logId;
+    // null while closed, published by pins
+    private L log;
+    private boolean opened = false;
+
+    CachedEventLog(final UUID logId) {
+      this.logId = logId;
+    }
+
+    /** Opens the log if needed, and pins it until unpin(). */
+    private L acquire() throws IOException {
+      if (tryPin()) {
+        return log;
+      }
+      lock.lock();
+      try {
+        // unless reopened by another thread meanwhile
+        if (!tryPin()) {
+          log = opener.open(logId);
+          openLogs.incrementAndGet();
+          if (opened) {
+            reopens.incrementAndGet();
+          }
+          opened = true;
+          opened(this);
+        }
+      } finally {
+        lock.unlock();
+      }
+      evictIfDue(true);
+      return log;
+    }
+
+    @Override
+    boolean isClosable() {
+      return true;
+    }
+
+    @Override
+    AutoCloseable detach() {
+      final L detached = log;
+      log = null;
+      openLogs.decrementAndGet();
+      return detached;
+    }
+
+    @Override
+    public EventTime appendAndGetAdjustedTime(final EventEnvelope event) throws IOException {
+      final L acquired = acquire();
+      try {
+        return acquired.appendAndGetAdjustedTime(event);
+      } finally {
+        unpin(this);
+      }
+    }
+
+    @Override
+    public boolean appendIfPrevTimeMatch(final EventEnvelope event, final EventTime prevTime)
+        throws IOException {
+      final L acquired = acquire();
+      try {
+        return acquired.appendIfPrevTimeMatch(event, prevTime);
+      } finally {
+        unpin(this);
+      }
+    }
+
+    @Override
+    public boolean appendAllIfPrevTimeMatch(
+        final List<EventEnvelope> events, final EventTime prevTime) throws IOException {
+      final L acquired = acquire();
+      try {
+        return acquired.appendAllIfPrevTimeMatch(events, prevTime);
+      } finally {
+        unpin(this);
+      }
+    }
+
+    /** Opens lazily, upon the first call. */
+    @Override
+    public AppendIterator iterator() {
+      return new CachedIterator(this, null);
+    }
+
+    /** Opens lazily, upon the first call. */
+    @Override
+    public AppendIterator iterator(final EventTime from) {
+      return new CachedIterator(this, from);
+    }
+
+    /**
+     * Closes the log right away unless in use, to be reopened upon next use nonetheless. The
+     * iterators of the log not in use are closed first, closable individually or not, as closing
+     * the log ends them anyway.
+     */
+    @Override
+    public void close() {
+      for (Handle handle : openHandles) {
+        if (handle.parent() == this) {
+          // unpins this log, too
+          closeIfUnpinned(handle, true);
+        }
+      }
+      closeIfUnpinned(this, true);
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "(logId=" + logId + ")";
+    }
+  }
+
+  /**
+   * Takes each event from the underlying iterator as soon as it is peeked, so that the underlying
+   * iterator can always be reopened after resumeAfter, the time of the last event taken. A run of
+   * events appended is taken whole, for next() to return the very objects appended even if the
+   * underlying iterator is evicted right after.
+   *
+   * <p>Not thread-safe, just like the underlying iterator, but may be closed by any thread while
+   * not in use.
+   */
+  private final class CachedIterator extends Handle implements EventLog.AppendIterator {
+    private final CachedEventLog logHandle;
+    private EventTime resumeAfter;
+    // null while closed, published by pins
+    private volatile EventLog.AppendIterator iterator;
+    private boolean opened = false;
+    // taken from iterator and not returned yet
+    private final Queue<EventEnvelope> taken = new ArrayDeque<>();
+    private boolean finished = false;
+
+    CachedIterator(final CachedEventLog logHandle, final EventTime resumeAfter) {
+      this.logHandle = logHandle;
+      this.resumeAfter = resumeAfter;
+    }
+
+    /** Opens the iterator if needed, and pins it until unpin(). */
+    private EventLog.AppendIterator acquire() {
+      if (tryPin()) {
+        return iterator;
+      }
+      // only the thread using this iterator reopens it, while an eviction may still be closing it
+      lock.lock();
+      try {
+        if (!tryPin()) {
+          final L log;
+          try {
+            log = logHandle.acquire();
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          try {
+            iterator = (resumeAfter == null ? log.iterator() : log.iterator(resumeAfter));
+          } catch (RuntimeException e) {
+            unpin(logHandle);
+            throw e;
+          }
+          openIterators.incrementAndGet();
+          if (opened) {
+            reopens.incrementAndGet();
+          }
+          opened = true;
+          opened(this);
+        }
+      } finally {
+        lock.unlock();
+      }
+      evictIfDue(true);
+      return iterator;
+    }
+
+    @Override
+    boolean isClosable() {
+      return iterator instanceof AutoCloseable;
+    }
+
+    @Override
+    Handle parent() {
+      return logHandle;
+    }
+
+    @Override
+    AutoCloseable detach() {
+      final EventLog.AppendIterator detached = iterator;
+      iterator = null;
+      openIterators.decrementAndGet();
+      return () -> {
+        try {
+          if (detached instanceof AutoCloseable closeable) {
+            closeable.close();
+          }
+        } finally {
+          // the log stays pinned as long as the iterator is open
+          unpin(logHandle);
+        }
+      };
+    }
+
+    /** Closes the underlying iterator for good, once the log is closed for appending. */
+    private void finish() {
+      finished = true;
+      closeIfUnpinned(this, true);
+    }
+
+    private void take(final EventLog.AppendIterator acquired) {
+      final EventEnvelope event = acquired.next();
+      taken.add(event);
+      resumeAfter = event.time();
+    }
+
+    @Override
+    public boolean wouldBlock() {
+      if (!taken.isEmpty() || finished) {
+        return false;
+      }
+      final EventLog.AppendIterator acquired = acquire();
+      try {
+        return acquired.wouldBlock();
+      } finally {
+        unpin(this);
+      }
+    }
+
+    /**
+     * The future returned may outlive the underlying iterator, if evicted meanwhile, which the
+     * stores tolerate - at worst it completes spuriously.
+     */
+    @Override
+    public CompletableFuture<Void> onAvailable() {
+      if (!taken.isEmpty() || finished) {
+        return AVAILABLE;
+      }
+      final EventLog.AppendIterator acquired = acquire();
+      try {
+        return acquired.onAvailable();
+      } finally {
+        unpin(this);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (!taken.isEmpty()) {
+        return true;
+      }
+      if (finished) {
+        return false;
+      }
+      final boolean hasNext;
+      final EventLog.AppendIterator acquired = acquire();
+      try {
+        hasNext = acquired.hasNext();
+        if (hasNext) {
+          take(acquired);
+        }
+      } finally {
+        unpin(this);
+      }
+      if (!hasNext) {
+        finish();
+      }
+      return hasNext;
+    }
+
+    @Override
+    public EventEnvelope next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return taken.remove();
+    }
+
+    @Override
+    public EventEnvelope appendOrPeek(final EventEnvelope event) {
+      return appendAllOrPeek(List.of(event));
+    }
+
+    @Override
+    public EventEnvelope appendAllOrPeek(final List<EventEnvelope> events) {
+      if (!taken.isEmpty()) {
+        return taken.peek();
+      }
+      if (finished) {
+        throw new IllegalStateException("log is closed");
+      }
+      final EventLog.AppendIterator acquired = acquire();
+      try {
+        final EventEnvelope actual = acquired.appendAllOrPeek(events);
+        take(acquired);
+        if (actual == events.getFirst()) {
+          for (int i = 1; i < events.size(); i++) {
+            take(acquired);
+          }
+        }
+        return actual;
+      } finally {
+        unpin(this);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return getClass().getSimpleName() + "(" + logHandle + ", resumeAfter=" + resumeAfter + ")";
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.InternalException;
+import io.ulzha.spive.serde.json.EventEnvelopeJsonSerde;
+import io.ulzha.spive.util.ByteBuffers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original format: newline separated JSON rows, as in `events.jsonl`.
+ *
+ * <p>A closed log ends with a special {} line. A sealed segment ends with a special {"sealed":true}
+ * line.
+ *
+ * <p>Record boundaries have to be found by scanning for '\n' byte by byte. A line without the
+ * trailing '\n' is considered incomplete (being written, or torn).
+ */
+final class JsonLinesCodec implements RecordCodec {
+  private static final int INITIAL_RECORD_BYTES = 256;
+  private static final byte[] SEAL_LINE = "{\"sealed\":true}\n".getBytes(StandardCharsets.UTF_8);
+
+  @Override
+  public EventEnvelope decode(final ByteBuffer buffer, final boolean stable) throws IOException {
+    final int start = buffer.position();
+    for (int i = start; i < buffer.limit(); i++) {
+      if (buffer.get(i) == '\n') {
+        if (i + 1 - start == SEAL_LINE.length
+            && buffer.slice(start, SEAL_LINE.length).equals(ByteBuffer.wrap(SEAL_LINE))) {
+          buffer.position(i + 1);
+          return SEAL_MARKER;
+        }
+        final ByteBuffer line;
+        if (stable) {
+          line = buffer.slice(start, i - start);
+        } else {
+          // copied, as the buffer gets reused, while the payload remains a view of the line
+          final byte[] bytes = new byte[i - start];
+          buffer.get(start, bytes);
+          line = ByteBuffer.wrap(bytes);
+        }
+        buffer.position(i + 1);
+        final EventEnvelope event = EventEnvelopeJsonSerde.deserializeEventEnvelope(line);
+        return (event == null ? CLOSE_MARKER : event);
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public ByteBuffer encode(final EventEnvelope event) {
+    return encodeInto(event, ByteBuffer.allocate(INITIAL_RECORD_BYTES)).flip();
+  }
+
+  /** Without intermediate Strings. */
+  @Override
+  public ByteBuffer encodeInto(final EventEnvelope event, final ByteBuffer buffer) {
+    return ByteBuffers.ensureRemaining(
+            EventEnvelopeJsonSerde.serializeEventEnvelopeInto(event, buffer), 1)
+        .put((byte) '\n');
+  }
+
+  @Override
+  public ByteBuffer encodeCloseMarker() {
+    return ByteBuffer.wrap("{}\n".getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public ByteBuffer encodeSealMarker() {
+    return ByteBuffer.wrap(SEAL_LINE);
+  }
+
+  @Override
+  public EventEnvelope readLast(final FileChannel channel) throws IOException {
+    final long size = channel.size();
+    if (size == 0) {
+      return null;
+    }
+    final long start = seekToLastLine(channel, size);
+    final ByteBuffer buffer = ByteBuffer.allocate((int) (size - start));
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, start + buffer.position()) < 0) {
+        throw new InternalException("Hard to read the last line with this channel");
+      }
+    }
+    final EventEnvelope event = decode(buffer.flip());
+    if (event == null) {
+      throw new InternalException(
+          "Incomplete line at the end of log, at position " + start + " - torn write?");
+    }
+    return event;
+  }
+
+  /**
+   * @return the position of the beginning of the last line.
+   */
+  private static long seekToLastLine(final FileChannel channel, final long size)
+      throws IOException {
+    final int chunkSize = 1024;
+    final ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+    long p = size;
+    do {
+      p = Math.max(p - chunkSize, 0);
+      buffer.clear();
+      channel.read(buffer, p);
+      buffer.flip();
+      if (buffer.limit() < chunkSize && !(p == 0 && buffer.limit() == size)) {
+        throw new InternalException("Hard to seek from end with this channel");
+      }
+      for (int i = buffer.limit(); i-- > 0; ) {
+        if (buffer.get(i) == '\n' && p + i + 1 != size) {
+          return p + i + 1;
+        }
+      }
+    } while (p > 0);
+    return 0;
+  }
+}
@@ -0,0 +1,95 @@
+package io.ulzha.spive.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stands in for a cloud object store, keeping objects as files under a base directory, for testing
+ * and benchmarking ObjectStoreEventLog offline.
+ *
+ * <p>An object is written to a temporary file first, and then hard linked in place, which fails
+ * atomically if the name is taken. Thus readers never see partial objects, and concurrent creators,
+ * in this or other processes, cannot overwrite one another.
+ *
+ * <p>Listing only covers objects in the directory that the prefix is in, without recursing, which
+ * is all ObjectStoreEventLog needs.
+ */
+public final class LocalFileSystemBlobStore implements BlobStore {
+  private final Path basePath;
+
+  public LocalFileSystemBlobStore(final Path basePath) {
+    this.basePath = basePath;
+  }
+
+  @Override
+  public boolean createIfAbsent(final String name, final ByteBuffer content) throws IOException {
+    final Path path = basePath.resolve(name);
+    Files.createDirectories(path.getParent());
+    final Path tmp = path.resolveSibling("." + path.getFileName() + "." + UUID.randomUUID());
+    try {
+      try (FileChannel channel =
+          FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        while (content.hasRemaining()) {
+          channel.write(content);
+        }
+        channel.force(true);
+      }
+      Files.createLink(path, tmp);
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      return false;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  @Override
+  public ByteBuffer read(final String name) throws IOException {
+    try {
+      return ByteBuffer.wrap(Files.readAllBytes(basePath.resolve(name)));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public List<String> list(final String prefix, final String startAfter, final int limit)
+      throws IOException {
+    final int iSlash = prefix.lastIndexOf('/');
+    final String dirName = prefix.substring(0, iSlash + 1);
+    final Path dir = basePath.resolve(dirName);
+    final List<String> names = new ArrayList<>();
+    if (!Files.isDirectory(dir)) {
+      return names;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+      for (Path path : stream) {
+        final String fileName = path.getFileName().toString();
+        final String name = dirName + fileName;
+        if (!fileName.startsWith(".")
+            && name.startsWith(prefix)
+            && (startAfter == null || name.compareTo(startAfter) > 0)
+            && Files.isRegularFile(path)) {
+          names.add(name);
+        }
+      }
+    }
+    names.sort(null);
+    return (names.size() > limit ? names.subList(0, limit) : names);
+  }
+
+  @Override
+  public String toString() {
+    return basePath.toString();
+  }
+}
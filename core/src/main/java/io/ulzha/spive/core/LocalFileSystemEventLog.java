@@ -1,177 +1,760 @@
 package io.ulzha.spive.core;
 
+import io.ulzha.spive.lib.AppendCounters;
 import io.ulzha.spive.lib.EventEnvelope;
 import io.ulzha.spive.lib.EventLog;
 import io.ulzha.spive.lib.EventTime;
 import io.ulzha.spive.lib.InternalException;
-import io.ulzha.spive.serde.json.EventEnvelopeJsonSerde;
+import io.ulzha.spive.lib.SkippingAppendIterator;
 import java.io.IOException;
-import java.io.Writer;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public final class LocalFileSystemEventLog implements EventLog {
+  private static final Logger LOG = LoggerFactory.getLogger(LocalFileSystemEventLog.class);
+  private static final int APPEND_BUFFER_BYTES = 64 * 1024;
+  private static final int MAX_APPEND_BUFFER_BYTES = 1024 * 1024;
+
+  /** Selects the on-disk representation of a log. */
+  public enum Format {
+    /** Newline separated JSON rows. */
+    JSONL("events.jsonl", new JsonLinesCodec()),
+    /** Length-prefixed, checksummed binary records. */
+    BINARY("events.bin", new FramedRecordCodec());
+
+    public final String fileName;
+    final RecordCodec codec;
+
+    Format(final String fileName, final RecordCodec codec) {
+      this.fileName = fileName;
+      this.codec = codec;
+    }
+  }
+
+  /**
+   * @param indexIntervalBytes approximate spacing of entries in the sparse index sidecar, see
+   *     SparseIndex
+   * @param mappedReads whether iterators read through memory mappings of the file, see RecordReader
+   * @param groupCommitWindow if positive, appends are made durable in batches collected over this
+   *     window, see GroupCommitter; otherwise each append is written synchronously
+   * @param segmentBytes if positive, the active segment is sealed once it has grown to this size
+   * @param segmentSpan if positive, the active segment is sealed once events span this duration
+   * @param compressSealed whether segments sealed by this process get compressed in the background,
+   *     see CompressedSegment
+   * @param onSealed called with each segment sealed by this process, e.g. to archive old ones -
+   *     after compressing it, if enabled
+   */
+  public record Options(
+      Format format,
+      long indexIntervalBytes,
+      boolean mappedReads,
+      Duration groupCommitWindow,
+      long segmentBytes,
+      Duration segmentSpan,
+      boolean compressSealed,
+      Consumer<SealedSegment> onSealed) {
+    public static final long DEFAULT_INDEX_INTERVAL_BYTES = 64 << 10;
+
+    public Options(final Format format) {
+      this(
+          format,
+          DEFAULT_INDEX_INTERVAL_BYTES,
+          false,
+          Duration.ZERO,
+          0,
+          Duration.ZERO,
+          false,
+          segment -> {});
+    }
+
+    public Options {
+      if (indexIntervalBytes <= 0) {
+        throw new IllegalArgumentException("indexIntervalBytes must be positive");
+      }
+      if (groupCommitWindow.isNegative()) {
+        throw new IllegalArgumentException("groupCommitWindow must not be negative");
+      }
+      if (segmentBytes < 0) {
+        throw new IllegalArgumentException("segmentBytes must not be negative");
+      }
+      if (segmentSpan.isNegative()) {
+        throw new IllegalArgumentException("segmentSpan must not be negative");
+      }
+    }
+
+    public Options withIndexIntervalBytes(final long indexIntervalBytes) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    public Options withMappedReads(final boolean mappedReads) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    public Options withGroupCommitWindow(final Duration groupCommitWindow) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    public Options withSegmentBytes(final long segmentBytes) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    public Options withSegmentSpan(final Duration segmentSpan) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    public Options withCompressSealed(final boolean compressSealed) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    public Options withOnSealed(final Consumer<SealedSegment> onSealed) {
+      return new Options(
+          format,
+          indexIntervalBytes,
+          mappedReads,
+          groupCommitWindow,
+          segmentBytes,
+          segmentSpan,
+          compressSealed,
+          onSealed);
+    }
+
+    /** All the processes sharing a log must agree on this, as it determines the file they lock. */
+    public boolean segmented() {
+      return segmentBytes > 0 || !segmentSpan.isZero();
+    }
+  }
+
+  // the active segment
   private final Path filePath;
-  private final FileChannel channel;
+  private final Options options;
+  private final RecordCodec codec;
+  private final Set<StandardOpenOption> openOptions;
+  // the active segment, replaced when sealed
+  private volatile FileChannel channel;
+  // the data file itself, unless segmented
+  private final FileChannel lockChannel;
+  private final SparseIndex index;
+  private final TailNotifier tailNotifier;
+  // null unless group commit is enabled
+  private final GroupCommitter groupCommitter;
+  // compresses sealed segments one at a time in the background, null unless enabled
+  private final ExecutorService compressor;
+  // FileLock is held on behalf of the whole JVM, so threads in this process take turns here first
+  private final ReentrantLock threadLock = new ReentrantLock();
+  private final AppendCounters appendCounters = new AppendCounters();
+  // The time of the last event (or null if none), valid as long as the active segment has tailSize
+  // bytes. Saves reading it back from the file when this process is the only writer. Guarded by
+  // threadLock, as are the following fields.
+  private long tailSize = -1;
+  private EventTime tailTime;
+  private boolean tailClosed;
+  // the time of the first event in the active segment, if known
+  private EventTime activeFirstTime;
+  private long appendSequence = 0;
+  // records are encoded into it for writing, direct so the channel does not copy them once more
+  private ByteBuffer appendBuffer = ByteBuffer.allocateDirect(APPEND_BUFFER_BYTES);
 
   // (Found a few examples like GoogleCloudStorageReadChannel implements SeekableByteChannel)
 
   public LocalFileSystemEventLog(final Path filePath) throws IOException {
+    this(filePath, Format.JSONL);
+  }
+
+  public LocalFileSystemEventLog(final Path filePath, final Format format) throws IOException {
+    this(filePath, new Options(format));
+  }
+
+  public LocalFileSystemEventLog(final Path filePath, final Options options) throws IOException {
     this.filePath = filePath;
+    this.options = options;
+    this.codec = options.format().codec;
+    this.index =
+        new SparseIndex(
+            filePath.resolveSibling(filePath.getFileName() + ".idx"), options.indexIntervalBytes());
 
-    this.channel =
-        FileChannel.open(
-            filePath,
-            Set.of(
+    this.openOptions = openOptions(options);
+    this.channel = FileChannel.open(filePath, openOptions);
+    this.lockChannel =
+        (options.segmented()
+            ? FileChannel.open(
+                filePath.resolveSibling(filePath.getFileName() + ".lock"),
                 StandardOpenOption.CREATE,
-                StandardOpenOption.READ,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.SYNC));
+                StandardOpenOption.WRITE)
+            : channel);
+    try {
+      truncateTornTail();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      lockChannel.close();
+      throw e;
+    }
+    this.groupCommitter =
+        (options.groupCommitWindow().isZero()
+            ? null
+            : new GroupCommitter(
+                channel, options.groupCommitWindow(), filePath.getFileName().toString()));
+    this.compressor =
+        (options.compressSealed()
+            ? Executors.newSingleThreadExecutor(
+                runnable -> {
+                  final Thread thread =
+                      new Thread(runnable, "spive-compress-" + filePath.getFileName());
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null);
+    this.tailNotifier = new TailNotifier(filePath);
+  }
+
+  /** SYNC writes, unless group commit takes care of durability. */
+  private static Set<StandardOpenOption> openOptions(final Options options) {
+    if (options.groupCommitWindow().isZero()) {
+      return Set.of(
+          StandardOpenOption.CREATE,
+          StandardOpenOption.READ,
+          StandardOpenOption.WRITE,
+          StandardOpenOption.SYNC);
+    }
+    return Set.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
   }
 
   /**
-   * Reads one event from channel and leaves channel open.
+   * Reads one record, waiting for it if needed.
    *
-   * <p>Will block at the end of file until more events are appended or the log is closed.
+   * <p>Will block at the end of file until more events are appended or the log is closed. Wakes up
+   * as soon as tailNotifier signals growth of the file.
    *
-   * @param channel
-   * @return null if there are no more events to read (end of channel has been reached) and the log
-   *     is closed.
+   * @return the event, or RecordCodec.CLOSE_MARKER if the log is closed.
    */
-  private static EventEnvelope read(FileChannel channel) throws IOException {
-    String line = StandardCharsets.UTF_8.decode(readLine(channel)).toString();
+  private EventEnvelope read(RecordReader reader) throws IOException {
+    long pollNanos = TailNotifier.MIN_POLL_NANOS;
+    while (true) {
+      final long sequence = tailNotifier.sequence();
+      final EventEnvelope record = reader.read();
+      if (record != null) {
+        return record;
+      }
+      try {
+        final boolean signalled = tailNotifier.await(sequence, pollNanos);
+        pollNanos = tailNotifier.backOff(pollNanos, signalled);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+  }
 
-    while (line.equals("")) {
+  /**
+   * Waits until the active segment, read up to its seal marker, gets renamed. Wakes up as soon as
+   * tailNotifier signals, like read().
+   */
+  private void awaitRenamed() throws IOException {
+    long pollNanos = TailNotifier.MIN_POLL_NANOS;
+    while (true) {
+      final long sequence = tailNotifier.sequence();
+      if (renamed()) {
+        return;
+      }
       try {
-        Thread.sleep(1000);
-        // TODO WatchService, to act more quickly than this polling loop?
-        line = StandardCharsets.UTF_8.decode(readLine(channel)).toString();
+        final boolean signalled = tailNotifier.await(sequence, pollNanos);
+        pollNanos = tailNotifier.backOff(pollNanos, signalled);
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
         throw new RuntimeException(e);
       }
     }
+  }
 
-    return EventEnvelopeJsonSerde.deserializeEventEnvelope(line);
+  /**
+   * Whether the file at filePath no longer ends in a seal marker, as the active segment sealed
+   * before has been renamed. (Looking for it among the sealed segments would not do, as it may be
+   * compressed or expired by then.)
+   */
+  private boolean renamed() throws IOException {
+    try (FileChannel active = FileChannel.open(filePath, StandardOpenOption.READ)) {
+      return codec.readLast(active) != RecordCodec.SEAL_MARKER;
+    } catch (NoSuchFileException | InternalException e) {
+      // not created anew yet, or being appended to
+      return true;
+    }
   }
 
-  //  LocalFileSystemEventLog position(EventTime newTime) {
-  //  }
+  /** Exclusive across threads as well as processes. */
+  private final class LogLock implements AutoCloseable {
+    private final FileLock fileLock;
 
-  private static boolean append(EventEnvelope event, FileChannel channel) throws IOException {
-    final Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8);
-    writer.append(EventEnvelopeJsonSerde.serializeEventEnvelope(event));
-    writer.append('\n');
-    writer.flush();
-    return true;
+    LogLock() throws IOException {
+      threadLock.lock();
+      try {
+        fileLock = lockChannel.lock();
+      } catch (IOException | RuntimeException e) {
+        threadLock.unlock();
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        fileLock.release();
+      } finally {
+        threadLock.unlock();
+      }
+    }
   }
 
-  @Override
-  public EventTime appendAndGetAdjustedTime(final EventEnvelope event) throws IOException {
-    throw new RuntimeException("not implemented");
+  /** Writes at the end of channel. Caller must hold the lock. */
+  private static void write(ByteBuffer record, FileChannel channel) throws IOException {
+    long position = channel.size();
+    while (record.hasRemaining()) {
+      position += channel.write(record, position);
+    }
   }
 
-  @Override
-  public boolean appendIfPrevTimeMatch(EventEnvelope event, EventTime prevTime) throws IOException {
-    if (event.time().compareTo(prevTime) <= 0) {
-      throw new IllegalArgumentException("event must have time later than prevTime");
+  /** What appendLocked() did, to be followed up by commit() after releasing the lock. */
+  private record Appended(long endOffset, long sequence, SealedSegment sealed) {}
+
+  /**
+   * Writes the events at the end of the active segment in one go, and indexes them. Seals the
+   * active segment first, if due. Caller must hold the lock and have called lastTime(), and must
+   * commit() after releasing the lock.
+   */
+  private Appended appendLocked(final List<EventEnvelope> events) throws IOException {
+    final SealedSegment sealed = (rollDue(events.getFirst()) ? roll() : null);
+    ByteBuffer batch = appendBuffer.clear();
+    final long offset = channel.size();
+    for (EventEnvelope event : events) {
+      index.onAppend(event.time(), offset + batch.position());
+      batch = codec.encodeInto(event, batch);
+    }
+    write(batch.flip(), channel);
+    // reused, unless grown exceptionally large
+    appendBuffer =
+        (batch.capacity() > MAX_APPEND_BUFFER_BYTES
+            ? ByteBuffer.allocateDirect(APPEND_BUFFER_BYTES)
+            : batch);
+    if (offset == 0) {
+      activeFirstTime = events.getFirst().time();
     }
+    tailSize = channel.size();
+    tailTime = events.getLast().time();
+    return new Appended(tailSize, ++appendSequence, sealed);
+  }
 
-    // atomically compare with previous time and append
-    try (FileLock lock = channel.lock()) {
-      if (channel.size() > 0) {
-        seekToLastLine();
-        final EventEnvelope latestEvent = read(channel);
-        if (latestEvent == null) {
-          throw new IllegalStateException("log is closed");
+  /**
+   * @return the time of the last event, or null if the log is empty. Caller must hold the lock.
+   * @throws IllegalStateException if the log is closed
+   */
+  private EventTime lastTime() throws IOException {
+    boolean reopened = false;
+    long size;
+    while ((size = channel.size()) != tailSize) {
+      // another process has written, or nothing is cached yet
+      final EventEnvelope last;
+      try {
+        last = codec.readLast(channel);
+      } catch (InternalException e) {
+        if (!truncateTornTailLocked()) {
+          throw e;
         }
-        if (latestEvent.time().compareTo(prevTime) != 0) {
-          return false;
+        continue;
+      }
+      if (last == RecordCodec.SEAL_MARKER) {
+        if (!options.segmented()) {
+          throw new InternalException(
+              "Sealed segment at " + filePath + " - the log must be opened as segmented");
         }
+        if (reopened) {
+          // still the same segment, as the sealing process has crashed before renaming it
+          rename(SealedSegment.of(filePath, activeFirstTime(), scanLastTime()));
+        } else {
+          switchChannel();
+          reopened = true;
+        }
+        continue;
       }
-      return append(event, channel);
+      tailClosed = (last == RecordCodec.CLOSE_MARKER);
+      if (last == null) {
+        final List<SealedSegment> sealedSegments = SealedSegment.list(filePath);
+        tailTime = (sealedSegments.isEmpty() ? null : sealedSegments.getLast().last());
+      } else {
+        tailTime = (tailClosed ? null : last.time());
+      }
+      tailSize = size;
+    }
+    if (tailClosed) {
+      throw new IllegalStateException("log is closed");
     }
+    return tailTime;
   }
 
-  /** Seeks to the beginning of the last line, or does nothing if the channel has size 0. */
-  private void seekToLastLine() throws IOException {
-    final int chunkSize = 1024;
-    final ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
-    long p = channel.size();
-    do {
-      p = Math.max(p - chunkSize, 0);
-      channel.position(p);
-      buffer.clear();
-      channel.read(buffer);
-      if (buffer.limit() < chunkSize && !(p == 0 && buffer.limit() == channel.size())) {
-        throw new InternalException("Hard to seek from end with this channel");
-      }
-      for (int i = buffer.limit(); i-- > 0; ) {
-        if (buffer.get(i) == '\n' && p + i + 1 != channel.size()) {
-          channel.position(p + i + 1);
-          return;
+  /**
+   * Truncates a partial record left at the end of the active segment by a crashed appender, before
+   * anyone waits on it. Checks the tail without the lock first, and with the lock only if it looks
+   * incomplete, as it may just be an append in progress by another process.
+   */
+  private void truncateTornTail() throws IOException {
+    try {
+      codec.readLast(channel);
+      return;
+    } catch (InternalException e) {
+      // check again under the lock
+    }
+    try (LogLock lock = new LogLock()) {
+      try {
+        codec.readLast(channel);
+      } catch (InternalException e) {
+        if (!truncateTornTailLocked()) {
+          throw e;
         }
       }
-    } while (p > 0);
+    }
   }
 
   /**
-   * Reads from current position until '\n' is read or end of channel is reached, whichever comes
-   * first, and leaves channel open.
+   * Scans the active segment for the end of its last complete record, and truncates it there. The
+   * index is deleted, to be rebuilt on demand, in case it has an entry for the partial record.
+   * Caller must hold the lock.
    *
-   * @return the bytes read, skipping an eventual trailing '\n'
+   * @return false if there was no partial record at the end
    */
-  private static ByteBuffer readLine(FileChannel channel) throws IOException {
-    final int chunkSize = 1024;
-    ArrayList<ByteBuffer> tmp = new ArrayList<>();
-    long oldPosition = channel.position();
-    long newPosition = oldPosition;
-    while (true) {
-      ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
-      int read = channel.read(buffer);
-      if (read > 0) {
-        tmp.add(buffer.flip());
-        int i;
-        for (i = 0; i < read; i++) {
-          if (buffer.get(i) == '\n') {
-            break;
+  private boolean truncateTornTailLocked() throws IOException {
+    final RecordReader reader = new RecordReader(channel, codec);
+    EventEnvelope record;
+    while ((record = reader.read()) != null
+        && record != RecordCodec.CLOSE_MARKER
+        && record != RecordCodec.SEAL_MARKER) {}
+    if (record != null || reader.position() == channel.size()) {
+      return false;
+    }
+    LOG.warn(
+        "Truncating an incomplete record at position {} in {} - torn write?",
+        reader.position(),
+        filePath);
+    channel.truncate(reader.position());
+    channel.force(true);
+    Files.deleteIfExists(index.path);
+    index.reset();
+    tailSize = -1;
+    return true;
+  }
+
+  private boolean rollDue(final EventEnvelope event) throws IOException {
+    if (!options.segmented() || channel.size() == 0) {
+      return false;
+    }
+    if (options.segmentBytes() > 0 && channel.size() >= options.segmentBytes()) {
+      return true;
+    }
+    return !options.segmentSpan().isZero()
+        && Duration.between(activeFirstTime().instant, event.time().instant)
+                .compareTo(options.segmentSpan())
+            >= 0;
+  }
+
+  private EventTime activeFirstTime() throws IOException {
+    if (activeFirstTime == null) {
+      final EventEnvelope first = new RecordReader(channel, codec).read();
+      if (first == null || first == RecordCodec.CLOSE_MARKER || first == RecordCodec.SEAL_MARKER) {
+        throw new InternalException("No first event in nonempty segment " + filePath);
+      }
+      activeFirstTime = first.time();
+    }
+    return activeFirstTime;
+  }
+
+  /** Seals the active segment, and starts a new one. Caller must hold the lock. */
+  private SealedSegment roll() throws IOException {
+    final SealedSegment sealed = SealedSegment.of(filePath, activeFirstTime(), tailTime);
+    // The seal marker is made durable before renaming, so that a crash in between leaves a segment
+    // that readers see sealed, and that the next appender renames. Readers reaching the marker wait
+    // for the renaming.
+    write(codec.encodeSealMarker(), channel);
+    channel.force(true);
+    rename(sealed);
+    tailSize = 0;
+    LOG.info("Sealed {}", sealed.path());
+    return sealed;
+  }
+
+  /**
+   * Renames the active segment, ending in a seal marker, and its index, and starts a new one.
+   * Caller must hold the lock.
+   */
+  private void rename(final SealedSegment sealed) throws IOException {
+    Files.move(filePath, sealed.path(), StandardCopyOption.ATOMIC_MOVE);
+    index.reset();
+    if (Files.exists(index.path)) {
+      Files.move(index.path, sealed.indexPath(), StandardCopyOption.ATOMIC_MOVE);
+      // keeps being maintained from the start of the new segment
+      Files.createFile(index.path);
+    }
+    switchChannel();
+  }
+
+  /** Scans the active segment for the time of its last event. Caller must hold the lock. */
+  private EventTime scanLastTime() throws IOException {
+    final RecordReader reader = new RecordReader(channel, codec);
+    EventTime last = null;
+    EventEnvelope record;
+    while ((record = reader.read()) != null
+        && record != RecordCodec.CLOSE_MARKER
+        && record != RecordCodec.SEAL_MARKER) {
+      last = record.time();
+    }
+    return last;
+  }
+
+  /**
+   * Opens the active segment anew, after the previous one got sealed. Caller must hold the lock.
+   */
+  private void switchChannel() throws IOException {
+    final FileChannel oldChannel = channel;
+    channel = FileChannel.open(filePath, openOptions);
+    if (groupCommitter != null) {
+      oldChannel.force(true);
+      groupCommitter.switchChannel(channel);
+    }
+    oldChannel.close();
+    index.reset();
+    tailSize = -1;
+    activeFirstTime = null;
+  }
+
+  /** Returns once the append is durable, and notifies the readers and the onSealed hook. */
+  private void commit(final Appended appended) throws IOException {
+    if (groupCommitter != null) {
+      groupCommitter.awaitDurable(appended.sequence());
+    }
+    tailNotifier.signal();
+    final SealedSegment sealed = appended.sealed();
+    if (sealed == null) {
+      return;
+    }
+    if (compressor == null) {
+      onSealed(sealed);
+      return;
+    }
+    compressor.execute(
+        () -> {
+          SealedSegment result = sealed;
+          try {
+            result = CompressedSegment.compress(sealed, codec);
+            LOG.info("Compressed {}", result.path());
+          } catch (IOException | RuntimeException e) {
+            // the uncompressed segment stays in place, readable as before
+            LOG.warn("Failed to compress {}", sealed.path(), e);
           }
-        }
-        if (i < read) {
-          newPosition += i + 1;
-          buffer.limit(i + 1);
-          break;
-        } else {
-          newPosition += read;
-        }
-      } else {
-        break;
+          onSealed(result);
+        });
+  }
+
+  private void onSealed(final SealedSegment sealed) {
+    try {
+      options.onSealed().accept(sealed);
+    } catch (RuntimeException e) {
+      LOG.warn("onSealed failed for {}", sealed.path(), e);
+    }
+  }
+
+  /**
+   * Compresses a sealed segment in place, e.g. one sealed before compression was enabled.
+   *
+   * <p>Iterators keep reading the segment transparently.
+   *
+   * @return the compressed segment
+   */
+  public static SealedSegment compress(final SealedSegment sealed, final Format format)
+      throws IOException {
+    if (sealed.compressed()) {
+      throw new IllegalArgumentException("already compressed: " + sealed.path());
+    }
+    return CompressedSegment.compress(sealed, format.codec);
+  }
+
+  /**
+   * Decides the time under the lock, where the cached tail is authoritative, so there are never
+   * conflicts to retry - one locked write, same as appendIfPrevTimeMatch.
+   */
+  @Override
+  public EventTime appendAndGetAdjustedTime(final EventEnvelope event) throws IOException {
+    final EventTime time;
+    final Appended appended;
+    try (LogLock lock = new LogLock()) {
+      time = EventLog.adjustTime(event.time(), lastTime());
+      appended = appendLocked(List.of(event.withTime(time)));
+    }
+    commit(appended);
+    appendCounters.onAppended(event.time(), time);
+    return time;
+  }
+
+  public AppendCounters appendCounters() {
+    return appendCounters;
+  }
+
+  @Override
+  public boolean appendIfPrevTimeMatch(EventEnvelope event, EventTime prevTime) throws IOException {
+    if (event.time().compareTo(prevTime) <= 0) {
+      throw new IllegalArgumentException("event must have time later than prevTime");
+    }
+    return appendAllIfPrevTimeMatch(List.of(event), prevTime);
+  }
+
+  /** Writes the events with one write call, and syncs once. */
+  @Override
+  public boolean appendAllIfPrevTimeMatch(List<EventEnvelope> events, EventTime prevTime)
+      throws IOException {
+    EventLog.checkRun(events, prevTime);
+
+    // atomically compare with previous time and append
+    final Appended appended;
+    try (LogLock lock = new LogLock()) {
+      final EventTime latestTime = lastTime();
+      if (latestTime != null && latestTime.compareTo(prevTime) != 0) {
+        return false;
       }
+      appended = appendLocked(events);
     }
-    channel.position(newPosition);
+    commit(appended);
+    return true;
+  }
 
-    ByteBuffer ret = ByteBuffer.allocate((int) (newPosition - oldPosition));
-    for (ByteBuffer buffer : tmp) {
-      ret.put(buffer);
+  /**
+   * Rewrites a log from one format to another, in one go.
+   *
+   * <p>Reads all the complete records present in src, including an eventual closing marker. The
+   * destination is written to a temporary file first and moved in place in the end, so that a
+   * partially converted log never appears at dst.
+   *
+   * @return the number of events converted
+   * @throws FileAlreadyExistsException if dst exists
+   */
+  public static long convert(
+      final Path src, final Format srcFormat, final Path dst, final Format dstFormat)
+      throws IOException {
+    if (Files.exists(dst)) {
+      throw new FileAlreadyExistsException(dst.toString());
     }
-    if (ret.limit() > 0 && ret.get(ret.limit() - 1) == '\n') {
-      ret.limit(ret.limit() - 1);
+    final Path tmp = dst.resolveSibling(dst.getFileName() + ".tmp");
+    long n = 0;
+    try (FileChannel srcChannel = FileChannel.open(src, StandardOpenOption.READ);
+        FileChannel dstChannel =
+            FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      final RecordReader reader = new RecordReader(srcChannel, srcFormat.codec);
+      EventEnvelope prevEvent = null;
+      EventEnvelope record;
+      while ((record = reader.read()) != null) {
+        if (record == RecordCodec.CLOSE_MARKER) {
+          write(dstFormat.codec.encodeCloseMarker(), dstChannel);
+          break;
+        }
+        if (prevEvent != null && record.time().compareTo(prevEvent.time()) <= 0) {
+          throw new InternalException(
+              String.format(
+                  "Out-of-order event sequence: %s followed by %s in %s",
+                  prevEvent.time(), record.time(), src));
+        }
+        write(dstFormat.codec.encode(record), dstChannel);
+        prevEvent = record;
+        n++;
+      }
+      if (reader.position() != srcChannel.size() && record != RecordCodec.CLOSE_MARKER) {
+        throw new InternalException(
+            "Incomplete record at position " + reader.position() + " in " + src + " - torn write?");
+      }
+      dstChannel.force(true);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
     }
-    ret.rewind();
-    return ret;
+    Files.move(tmp, dst, StandardCopyOption.ATOMIC_MOVE);
+    return n;
   }
 
+  /** Waits for the pending compressions too, so that onSealed is called for every segment. */
   @Override
   public void close() throws Exception {
+    if (groupCommitter != null) {
+      groupCommitter.close();
+    }
+    if (compressor != null) {
+      compressor.shutdown();
+      compressor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    tailNotifier.close();
+    index.close();
     channel.close();
+    lockChannel.close();
   }
 
   @Override
@@ -181,36 +764,268 @@ public final class LocalFileSystemEventLog implements EventLog {
 
   @Override
   public AppendIterator iterator() {
-    return new AppendIteratorImpl();
+    try {
+      return new AppendIteratorImpl(EventTime.INFINITE_PAST, false);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Seeks with the help of the sparse index, rebuilding the index of the active segment first if it
+   * is missing.
+   */
+  @Override
+  public AppendIterator iterator(final EventTime from) {
+    try {
+      return new SkippingAppendIterator(new AppendIteratorImpl(from, true), from);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return the offset of the indexed record nearest before from, or 0
+   */
+  private long seekOffset(
+      final FileChannel segmentChannel, final SparseIndex segmentIndex, final EventTime from)
+      throws IOException {
+    final SparseIndex.Entry entry = segmentIndex.floor(from);
+    if (entry == null) {
+      return 0;
+    }
+    // guard against an index that does not belong with the log, e.g. restored from another backup
+    final RecordReader reader = new RecordReader(segmentChannel, codec);
+    reader.seek(entry.offset());
+    EventEnvelope record;
+    try {
+      record = reader.read();
+    } catch (RuntimeException e) {
+      record = null;
+    }
+    if (record != null
+        && record != RecordCodec.CLOSE_MARKER
+        && record != RecordCodec.SEAL_MARKER
+        && record.time().equals(entry.time())) {
+      return entry.offset();
+    }
+    LOG.warn("Index {} does not match its log segment, deleting it", segmentIndex.path);
+    try (LogLock lock = new LogLock()) {
+      Files.deleteIfExists(segmentIndex.path);
+      segmentIndex.reset();
+    }
+    return 0;
+  }
+
+  /**
+   * Scans the active segment from the start into a new index file.
+   *
+   * <p>The bulk of the scan happens without holding the lock, so appends are only held up for the
+   * final stretch.
+   */
+  private void rebuildIndex() throws IOException {
+    final Path tmp =
+        Files.createTempFile(index.path.getParent(), index.path.getFileName().toString(), ".tmp");
+    try (FileChannel scanChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+      final RecordReader reader = new RecordReader(scanChannel, codec, options.mappedReads());
+      try (SparseIndex.Builder builder = index.new Builder(tmp)) {
+        scanInto(builder, reader);
+        try (LogLock lock = new LogLock()) {
+          // unless the segment has been sealed meanwhile
+          if (scanInto(builder, reader) != RecordCodec.SEAL_MARKER) {
+            builder.close();
+            if (!Files.exists(index.path)) {
+              Files.move(tmp, index.path, StandardCopyOption.ATOMIC_MOVE);
+              index.reset();
+            }
+          }
+        }
+      }
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
   }
 
-  private class AppendIteratorImpl implements AppendIterator {
-    private final FileChannel iterChannel;
+  /**
+   * @return the record that ended the scan - null, CLOSE_MARKER or SEAL_MARKER
+   */
+  private static EventEnvelope scanInto(
+      final SparseIndex.Builder builder, final RecordReader reader) throws IOException {
+    long offset = reader.position();
+    EventEnvelope record;
+    while ((record = reader.read()) != null
+        && record != RecordCodec.CLOSE_MARKER
+        && record != RecordCodec.SEAL_MARKER) {
+      builder.add(record.time(), offset);
+      offset = reader.position();
+    }
+    return record;
+  }
+
+  private class AppendIteratorImpl implements AppendIterator, AutoCloseable {
+    private Path segmentPath;
+    private FileChannel iterChannel;
+    // reads the segment, through reader unless compressed
+    private RecordSource source;
+    // null if the segment is compressed
+    private RecordReader reader;
     private EventEnvelope prevEvent;
     private EventEnvelope nextEvent;
+    // whether the active segment has been read up to its seal marker, but is not renamed yet
+    private boolean sealSeen;
+    // the rest of the events appended by appendAllOrPeek, to be returned after nextEvent
+    private final Queue<EventEnvelope> appendedAhead = new ArrayDeque<>();
 
-    public AppendIteratorImpl() {
-      try {
-        iterChannel =
-            FileChannel.open(
-                filePath,
-                Set.of(
-                    StandardOpenOption.CREATE,
-                    StandardOpenOption.READ,
-                    StandardOpenOption.WRITE,
-                    StandardOpenOption.SYNC));
+    AppendIteratorImpl(final EventTime after, final boolean seek) throws IOException {
+      openSegmentAfter(after, seek);
+    }
+
+    /**
+     * Opens the earliest segment with events later than after, positioned at its start, or close to
+     * after if seeking.
+     *
+     * <p>The active segment is opened before listing the sealed ones, so that a segment sealed
+     * concurrently is either listed, or read through up to its seal marker - never missed.
+     */
+    private void openSegmentAfter(final EventTime after, final boolean seek) throws IOException {
+      while (true) {
+        final FileChannel activeChannel = FileChannel.open(filePath, openOptions);
+        SealedSegment next = null;
+        for (SealedSegment sealed : SealedSegment.list(filePath)) {
+          if (sealed.last().compareTo(after) > 0 && !sealed.path().equals(segmentPath)) {
+            next = sealed;
+            break;
+          }
+        }
+        if (next == null) {
+          if (seek && !Files.exists(index.path)) {
+            rebuildIndex();
+          }
+          open(filePath, activeChannel, (seek ? seekOffset(activeChannel, index, after) : 0));
+          return;
+        }
+        activeChannel.close();
+        final FileChannel sealedChannel;
+        try {
+          sealedChannel = FileChannel.open(next.path(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+          // expired or compressed meanwhile
+          continue;
+        }
+        if (next.compressed()) {
+          final CompressedSegment.Reader compressedReader =
+              new CompressedSegment.Reader(sealedChannel, codec);
+          if (seek) {
+            compressedReader.skipTo(after);
+          }
+          segmentPath = next.path();
+          iterChannel = sealedChannel;
+          source = compressedReader;
+          reader = null;
+          return;
+        }
+        final long offset =
+            (seek
+                ? seekOffset(
+                    sealedChannel,
+                    new SparseIndex(next.indexPath(), options.indexIntervalBytes()),
+                    after)
+                : 0);
+        open(next.path(), sealedChannel, offset);
+        return;
+      }
+    }
+
+    private void open(final Path path, final FileChannel channel, final long offset) {
+      segmentPath = path;
+      iterChannel = channel;
+      reader = new RecordReader(iterChannel, codec, options.mappedReads());
+      reader.seek(offset);
+      source = reader;
+    }
+
+    /** Moves on to the segment following the one just read till the end. */
+    private void advance() throws IOException {
+      iterChannel.close();
+      openSegmentAfter((prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time()), false);
+    }
+
+    /**
+     * Reads one record, continuing in the next segment at the end of a sealed one.
+     *
+     * @param blocking whether to wait at the end of the active segment
+     * @return the event, or CLOSE_MARKER, or null if not blocking and no complete record is
+     *     available yet, or the active segment is sealed but not renamed yet
+     */
+    private EventEnvelope readRecord(final boolean blocking) throws IOException {
+      if (!appendedAhead.isEmpty()) {
+        return appendedAhead.remove();
+      }
+      while (true) {
+        final boolean active = segmentPath.equals(filePath);
+        EventEnvelope record =
+            (sealSeen
+                ? RecordCodec.SEAL_MARKER
+                : (blocking && active ? read(reader) : source.read()));
+        if (record == null && !active) {
+          // no seal marker when sealed by an older version that renamed first, and crashed
+          record = RecordCodec.SEAL_MARKER;
+        }
+        if (record != RecordCodec.SEAL_MARKER) {
+          return record;
+        }
+        if (active) {
+          // opening filePath anew would open this same segment until renamed
+          sealSeen = true;
+          if (blocking) {
+            awaitRenamed();
+          } else if (!renamed()) {
+            return null;
+          }
+          sealSeen = false;
+        }
+        advance();
+      }
+    }
+
+    @Override
+    public boolean wouldBlock() {
+      if (nextEvent != null) {
+        return false;
+      }
+      try (LogLock lock = new LogLock()) {
+        nextEvent = readRecord(false);
+        if (nextEvent != null) {
+          checkOrder();
+          return false;
+        }
+        return reader.position() == iterChannel.size();
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
     }
 
+    /**
+     * Takes no LogLock, unlike wouldBlock(). Reads ahead a complete record, so that hasNext() does
+     * not block afterwards - bytes of a record still being written do not count as available.
+     */
     @Override
-    public boolean wouldBlock() {
-      try (FileLock lock = iterChannel.lock()) {
-        return iterChannel.position() == iterChannel.size();
+    public CompletableFuture<Void> onAvailable() {
+      if (nextEvent != null) {
+        return AVAILABLE;
+      }
+      // taken before reading, so as to not miss the rest of a record being written in between
+      final CompletableFuture<Void> signalled = tailNotifier.onSignal();
+      try {
+        nextEvent = readRecord(false);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      if (nextEvent == null) {
+        return signalled;
+      }
+      checkOrder();
+      return AVAILABLE;
     }
 
     /** Will block after the last event until more events are appended or the log is closed. */
@@ -218,20 +1033,13 @@ public final class LocalFileSystemEventLog implements EventLog {
     public boolean hasNext() {
       if (nextEvent == null) {
         try {
-          nextEvent = read(iterChannel);
-          if (prevEvent != null
-              && nextEvent != null
-              && nextEvent.time().compareTo(prevEvent.time()) <= 0) {
-            throw new InternalException(
-                String.format(
-                    "Out-of-order event sequence: %s followed by %s in %s",
-                    prevEvent.time(), nextEvent.time(), filePath));
-          }
+          nextEvent = readRecord(true);
+          checkOrder();
         } catch (IOException e) {
           throw new RuntimeException(e);
         }
       }
-      if (nextEvent == null) {
+      if (nextEvent == RecordCodec.CLOSE_MARKER) {
         try {
           close();
         } catch (IOException e) {
@@ -242,6 +1050,17 @@ public final class LocalFileSystemEventLog implements EventLog {
       return true;
     }
 
+    private void checkOrder() {
+      if (prevEvent != null
+          && nextEvent != RecordCodec.CLOSE_MARKER
+          && nextEvent.time().compareTo(prevEvent.time()) <= 0) {
+        throw new InternalException(
+            String.format(
+                "Out-of-order event sequence: %s followed by %s in %s",
+                prevEvent.time(), nextEvent.time(), segmentPath));
+      }
+    }
+
     @Override
     public EventEnvelope next() {
       if (!hasNext()) {
@@ -254,32 +1073,66 @@ public final class LocalFileSystemEventLog implements EventLog {
 
     @Override
     public EventEnvelope appendOrPeek(EventEnvelope event) {
+      return appendAllOrPeek(List.of(event));
+    }
+
+    @Override
+    public EventEnvelope appendAllOrPeek(List<EventEnvelope> events) {
       final EventTime prevTime = (prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time());
-      if (event.time().compareTo(prevTime) <= 0) {
+      if (events.getFirst().time().compareTo(prevTime) <= 0) {
         throw new IllegalArgumentException(
             "event must have time later than that of the preceding event");
       }
+      EventLog.checkRun(events, prevTime);
 
       // atomically check the tail and append
-      try (FileLock lock = iterChannel.lock()) {
-        if (iterChannel.position() == iterChannel.size()) {
-          append(event, iterChannel);
-          nextEvent = event;
-        } else if (iterChannel.position() + 3 == iterChannel.size()) {
-          // "{}\n"
+      final Appended appended;
+      try (LogLock lock = new LogLock()) {
+        if (nextEvent == null) {
+          nextEvent = readRecord(false);
+          if (nextEvent == null && sealSeen) {
+            // left so by a crashed sealing process, which lastTime() makes up for
+            lastTime();
+            nextEvent = readRecord(false);
+          }
+          if (nextEvent != null) {
+            checkOrder();
+          }
+        }
+        if (nextEvent == RecordCodec.CLOSE_MARKER) {
           throw new IllegalStateException("log is closed");
+        }
+        if (nextEvent != null) {
+          return nextEvent;
+        }
+        if (reader.position() != iterChannel.size()) {
+          throw new InternalException(
+              "Incomplete record at position "
+                  + reader.position()
+                  + " in "
+                  + segmentPath
+                  + " - torn write?");
+        }
+        // this iterator is at the end of the active segment now, and so is the log after lastTime()
+        lastTime();
+        appended = appendLocked(events);
+        if (appended.sealed() != null) {
+          iterChannel.close();
+          open(filePath, FileChannel.open(filePath, openOptions), appended.endOffset());
         } else {
-          if (!hasNext()) { // sets nextEvent
-            throw new IllegalStateException(
-                "expected a subsequent event after "
-                    + prevTime
-                    + ", but log prematurely indicates end");
-          }
+          reader.seek(appended.endOffset());
         }
-        return nextEvent;
+        nextEvent = events.getFirst();
+        appendedAhead.addAll(events.subList(1, events.size()));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      try {
+        commit(appended);
       } catch (IOException e) {
         throw new RuntimeException(e);
       }
+      return nextEvent;
     }
 
     @Override
@@ -287,7 +1140,9 @@ public final class LocalFileSystemEventLog implements EventLog {
       return getClass().getSimpleName() + "(" + LocalFileSystemEventLog.this + ")";
     }
 
-    private void close() throws IOException {
+    /** Releases the file handle. (Happens by itself too, when reaching the end of a closed log.) */
+    @Override
+    public void close() throws IOException {
       iterChannel.close();
     }
   }
@@ -1,13 +1,17 @@
 package io.ulzha.spive.core;
 
+import io.ulzha.spive.lib.EventLog;
 import io.ulzha.spive.lib.EventStore;
 import io.ulzha.spive.lib.InternalException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,15 +23,75 @@ import java.util.regex.Pattern;
  * <p>This can reside on local disk, or on e.g. Google Persistent Disk for more durability.
  *
  * <p>When a log is closed for appending, a special {} line is appended at its end.
+ *
+ * <p>Alternatively, with `;format=binary` appended to the connection string, stores framed binary
+ * records in `<path>/<logId>/events.bin`, as per FramedRecordCodec. Existing logs can be converted
+ * with LocalFileSystemEventLog.convert() (see also ConvertLocalEventLog tool).
+ *
+ * <p>Next to each log, a sparse index of event times is kept in `events.jsonl.idx` (or
+ * `events.bin.idx`), to speed up iterating from a given time. It may be deleted at any time, and
+ * will be rebuilt on demand.
+ *
+ * <p>With `;segmentBytes=...` and/or `;segmentSeconds=...`, each log is split in segments, as per
+ * SealedSegment. An onSealed hook may be given to archive or expire the sealed segments. With
+ * `;compress=true` in addition, sealed segments are compressed, as per CompressedSegment.
+ *
+ * <p>The base path may contain ';', unless followed by what looks like an option, as in
+ * `;name=value` up to the end.
  */
 public final class LocalFileSystemEventStore implements EventStore {
+  private static final Set<String> KNOWN_OPTIONS =
+      Set.of(
+          "format",
+          "indexInterval",
+          "mmap",
+          "groupCommitMicros",
+          "segmentBytes",
+          "segmentSeconds",
+          "compress",
+          "maxOpenHandles",
+          "idleSeconds");
+
+  // Options are told apart from the right, as the longest run of ;name=value segments at the end,
+  // so that basePath may still contain ';' as it always could. Any option names are matched here,
+  // for misspelt ones to be rejected rather than taken for part of basePath.
   private static final Pattern CONNECTION_STRING_RE =
-      Pattern.compile(".+" + ";basePath=(.+)" + "$");
+      Pattern.compile(".+;basePath=(.+?)((?:;[A-Za-z]\\w*=[^;]*)*)$");
 
   private final String basePath;
-  private final Map<UUID, LocalFileSystemEventLog> eventLogs = new ConcurrentHashMap<>();
+  private final LocalFileSystemEventLog.Options logOptions;
+  private final HandleCache<LocalFileSystemEventLog> handleCache;
 
+  /**
+   * Formats supported:
+   *
+   * <p>
+   *
+   * <ul>
+   *   <li>basePath=/mnt/event-store - JSONL
+   *   <li>basePath=/mnt/event-store;format=binary - framed binary records
+   *   <li>basePath=/mnt/event-store;indexInterval=1048576 - sparser index, in bytes of log
+   *   <li>basePath=/mnt/event-store;mmap=true - memory-mapped reads, faster for replaying long logs
+   *   <li>basePath=/mnt/event-store;groupCommitMicros=500 - appends made durable in batches, with
+   *       one fsync per up to 500 microseconds, instead of synchronous writes
+   *   <li>basePath=/mnt/event-store;segmentBytes=1073741824;segmentSeconds=86400 - a new segment
+   *       after every GiB or day of events, whichever comes first
+   *   <li>basePath=/mnt/event-store;segmentBytes=1073741824;compress=true - sealed segments
+   *       compressed in the background
+   *   <li>basePath=/mnt/event-store;maxOpenHandles=256;idleSeconds=60 - at most 256 logs and
+   *       iterators kept open, unless all in use, and none left unused for over a minute, as per
+   *       HandleCache
+   * </ul>
+   */
   public LocalFileSystemEventStore(final String connectionString) {
+    this(connectionString, segment -> {});
+  }
+
+  /**
+   * @param onSealed called with each segment sealed by this process
+   */
+  public LocalFileSystemEventStore(
+      final String connectionString, final Consumer<SealedSegment> onSealed) {
     final Matcher matcher = CONNECTION_STRING_RE.matcher(connectionString);
 
     if (!matcher.matches()) {
@@ -36,21 +100,86 @@ public final class LocalFileSystemEventStore implements EventStore {
 
     final MatchResult matchResult = matcher.toMatchResult();
     this.basePath = matchResult.group(1);
+    final Map<String, String> options = parseOptions(matchResult.group(2), connectionString);
+
+    final LocalFileSystemEventLog.Format format =
+        switch (options.getOrDefault("format", "jsonl")) {
+          case "jsonl" -> LocalFileSystemEventLog.Format.JSONL;
+          case "binary" -> LocalFileSystemEventLog.Format.BINARY;
+          default ->
+              throw new InternalException(
+                  "Unexpected format in connectionString: " + connectionString);
+        };
+    try {
+      this.logOptions =
+          new LocalFileSystemEventLog.Options(
+              format,
+              parseLong(
+                  options,
+                  "indexInterval",
+                  LocalFileSystemEventLog.Options.DEFAULT_INDEX_INTERVAL_BYTES),
+              parseBoolean(options, "mmap", false),
+              Duration.ofNanos(1000 * parseLong(options, "groupCommitMicros", 0)),
+              parseLong(options, "segmentBytes", 0),
+              Duration.ofSeconds(parseLong(options, "segmentSeconds", 0)),
+              parseBoolean(options, "compress", false),
+              onSealed);
+      this.handleCache =
+          new HandleCache<>(
+              (int) parseLong(options, "maxOpenHandles", HandleCache.DEFAULT_MAX_OPEN_HANDLES),
+              Duration.ofSeconds(
+                  parseLong(options, "idleSeconds", HandleCache.DEFAULT_IDLE_TIMEOUT.toSeconds())),
+              this::createLog);
+    } catch (IllegalArgumentException e) {
+      throw new InternalException("Unexpected connectionString: " + connectionString, e);
+    }
+  }
+
+  private static long parseLong(
+      final Map<String, String> options, final String key, final long defaultValue) {
+    final String value = options.get(key);
+    return (value == null ? defaultValue : Long.parseLong(value));
+  }
+
+  private static boolean parseBoolean(
+      final Map<String, String> options, final String key, final boolean defaultValue) {
+    return switch (options.getOrDefault(key, String.valueOf(defaultValue))) {
+      case "true" -> true;
+      case "false" -> false;
+      default -> throw new IllegalArgumentException("Unexpected value for " + key);
+    };
+  }
+
+  private static Map<String, String> parseOptions(
+      final String optionsString, final String connectionString) {
+    final Map<String, String> options = new HashMap<>();
+    for (String option : optionsString.split(";")) {
+      if (option.isEmpty()) {
+        continue;
+      }
+      final String[] keyValue = option.split("=", 2);
+      if (!KNOWN_OPTIONS.contains(keyValue[0]) || options.put(keyValue[0], keyValue[1]) != null) {
+        throw new InternalException("Unexpected connectionString: " + connectionString);
+      }
+    }
+    return options;
   }
 
+  /** Opened lazily, and closed when idle, as per HandleCache. */
   @Override
-  public LocalFileSystemEventLog openLog(final UUID logId) {
-    return eventLogs.computeIfAbsent(
-        logId,
-        theId -> {
-          try {
-            var parentPath = Paths.get(basePath, theId.toString());
-            Files.createDirectories(parentPath);
-            var filePath = parentPath.resolve("events.jsonl");
-            return new LocalFileSystemEventLog(filePath);
-          } catch (IOException e) {
-            throw new RuntimeException(e);
-          }
-        });
+  public EventLog openLog(final UUID logId) {
+    return handleCache.get(logId);
+  }
+
+  private LocalFileSystemEventLog createLog(final UUID logId) throws IOException {
+    var parentPath = Paths.get(basePath, logId.toString());
+    Files.createDirectories(parentPath);
+    var filePath = parentPath.resolve(logOptions.format().fileName);
+    return new LocalFileSystemEventLog(filePath, logOptions);
+  }
+
+  /** For monitoring the handles open. */
+  public HandleCache<LocalFileSystemEventLog> handleCache() {
+    return handleCache;
   }
 }
@@ -0,0 +1,536 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.AppendCounters;
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventLog;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.lib.InternalException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a log in a BlobStore as a sequence of immutable objects, each holding a run of events
+ * appended together:
+ *
+ * <pre>
+ * &lt;logId&gt;/data/&lt;sequence number, zero padded to 20 digits&gt;
+ * &lt;logId&gt;/seek/&lt;first event time&gt;_&lt;sequence number&gt;
+ * </pre>
+ *
+ * <p>A data object holds records as per FramedRecordCodec. Appending is creating the data object
+ * with the sequence number after the last one, conditionally on it not existing yet, which makes
+ * for one request per append, and no more objects than appends. Concurrent
+ * appendAndGetAdjustedTime() calls are appended together in one object, by whichever of them gets
+ * to create the next one (group commit), so that a busy log does not grow one object per event.
+ *
+ * <p>The seek objects are empty, and only their names matter. They serve as a manifest of every
+ * SEEK_INTERVAL-th data object, with event time in EventTime order-preserving string
+ * representation, so that iterator(from) can find where to start by listing them, without reading
+ * any data objects. They are created after the corresponding data objects, so a missing one (if the
+ * appender crashed in between) only makes seeking start earlier.
+ *
+ * <p>When the log is closed for appending, its last data object holds a closing marker record.
+ */
+public final class ObjectStoreEventLog implements EventLog {
+  private static final Logger LOG = LoggerFactory.getLogger(ObjectStoreEventLog.class);
+  static final int SEEK_INTERVAL = 64;
+  private static final int LIST_LIMIT = 1000;
+  private static final int INITIAL_OBJECT_BYTES = 4096;
+  private static final long MIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long MAX_POLL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final BlobStore blobStore;
+  private final UUID logId;
+  private final String dataPrefix;
+  private final String seekPrefix;
+  private final RecordCodec codec = new FramedRecordCodec();
+  private final AppendCounters appendCounters = new AppendCounters();
+  // Guards the following fields, which cache the end of the log as last seen by this process.
+  private final ReentrantLock tailLock = new ReentrantLock();
+  private boolean tailKnown;
+  // -1 if no data objects
+  private long tailSequence = -1;
+  private EventTime tailTime = EventTime.INFINITE_PAST;
+  private boolean tailClosed;
+  // of iterators waiting for the next data object, completed when this process creates it
+  private final Set<CompletableFuture<Void>> awaitingCreate = ConcurrentHashMap.newKeySet();
+  // of appendAndGetAdjustedTime() calls waiting for tailLock, appended together by whichever
+  // takes it first
+  private final Queue<PendingAppend> pendingAppends = new ConcurrentLinkedQueue<>();
+
+  private record PendingAppend(EventEnvelope event, CompletableFuture<EventTime> appendedTime) {}
+
+  public ObjectStoreEventLog(final BlobStore blobStore, final UUID logId) {
+    this.blobStore = blobStore;
+    this.logId = logId;
+    this.dataPrefix = logId + "/data/";
+    this.seekPrefix = logId + "/seek/";
+  }
+
+  private String dataName(final long sequence) {
+    return dataPrefix + String.format("%020d", sequence);
+  }
+
+  private long parseDataName(final String name) {
+    try {
+      return Long.parseLong(name.substring(dataPrefix.length()));
+    } catch (NumberFormatException e) {
+      throw new InternalException("Unexpected object in " + logId + ": " + name, e);
+    }
+  }
+
+  /**
+   * Waits for tailLock, and then appends the events of all the calls pending meanwhile in one
+   * object - unless the call holding tailLock before has appended this one's event already.
+   */
+  @Override
+  public EventTime appendAndGetAdjustedTime(final EventEnvelope event) throws IOException {
+    final PendingAppend pending = new PendingAppend(event, new CompletableFuture<>());
+    pendingAppends.add(pending);
+    tailLock.lock();
+    try {
+      if (!pending.appendedTime().isDone()) {
+        appendPending();
+      }
+    } finally {
+      tailLock.unlock();
+    }
+    try {
+      return pending.appendedTime().join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof IOException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Appends the events pending, with times adjusted in the order of the calls, and completes the
+   * calls with the outcome. Caller must hold tailLock.
+   */
+  private void appendPending() {
+    final List<PendingAppend> batch = new ArrayList<>();
+    PendingAppend pending;
+    while ((pending = pendingAppends.poll()) != null) {
+      batch.add(pending);
+    }
+    try {
+      if (!tailKnown) {
+        refreshTail();
+      }
+      while (true) {
+        if (tailClosed) {
+          throw new IllegalStateException("log is closed");
+        }
+        final List<EventEnvelope> events = new ArrayList<>(batch.size());
+        EventTime time = tailTime;
+        for (PendingAppend append : batch) {
+          time = EventLog.adjustTime(append.event().time(), time);
+          events.add(append.event().withTime(time));
+        }
+        if (create(tailSequence + 1, events)) {
+          for (int i = 0; i < batch.size(); i++) {
+            appendCounters.onAppended(batch.get(i).event().time(), events.get(i).time());
+            batch.get(i).appendedTime().complete(events.get(i).time());
+          }
+          return;
+        }
+        appendCounters.onConflict();
+        appendCounters.onRetry();
+        refreshTail();
+      }
+    } catch (IOException | RuntimeException e) {
+      for (PendingAppend append : batch) {
+        append.appendedTime().completeExceptionally(e);
+      }
+    }
+  }
+
+  /** For monitoring contention on appendAndGetAdjustedTime(). */
+  public AppendCounters appendCounters() {
+    return appendCounters;
+  }
+
+  @Override
+  public boolean appendIfPrevTimeMatch(final EventEnvelope event, final EventTime prevTime)
+      throws IOException {
+    if (event.time().compareTo(prevTime) <= 0) {
+      throw new IllegalArgumentException("event time must come strictly after prevTime");
+    }
+    return appendAllIfPrevTimeMatch(List.of(event), prevTime);
+  }
+
+  /** Appends the events in one object, so all or nothing by nature. */
+  @Override
+  public boolean appendAllIfPrevTimeMatch(
+      final List<EventEnvelope> events, final EventTime prevTime) throws IOException {
+    EventLog.checkRun(events, prevTime);
+    tailLock.lock();
+    try {
+      // the cached tail can only be behind the actual one
+      if (!tailKnown || tailTime.compareTo(prevTime) < 0) {
+        refreshTail();
+      }
+      while (true) {
+        if (tailClosed) {
+          throw new IllegalStateException("log is closed");
+        }
+        final int cmp = tailTime.compareTo(prevTime);
+        if (cmp > 0) {
+          return false;
+        }
+        if (cmp < 0) {
+          throw new IllegalArgumentException(
+              "prevTime must be set to previous event time read, when appending a subsequent event");
+        }
+        if (create(tailSequence + 1, events)) {
+          return true;
+        }
+        refreshTail();
+      }
+    } finally {
+      tailLock.unlock();
+    }
+  }
+
+  /**
+   * Creates the data object, if absent, and follows up on its success.
+   *
+   * @return false if the object exists already
+   */
+  private boolean create(final long sequence, final List<EventEnvelope> events) throws IOException {
+    ByteBuffer content = ByteBuffer.allocate(INITIAL_OBJECT_BYTES);
+    for (EventEnvelope event : events) {
+      content = codec.encodeInto(event, content);
+    }
+    if (!blobStore.createIfAbsent(dataName(sequence), content.flip())) {
+      return false;
+    }
+    tailLock.lock();
+    try {
+      if (sequence > tailSequence) {
+        tailSequence = sequence;
+        tailTime = events.getLast().time();
+      }
+    } finally {
+      tailLock.unlock();
+    }
+    for (CompletableFuture<Void> created : awaitingCreate) {
+      awaitingCreate.remove(created);
+      created.complete(null);
+    }
+    if (sequence % SEEK_INTERVAL == 0) {
+      final String seekName =
+          seekPrefix
+              + events.getFirst().time().toOrderPreservingString()
+              + '_'
+              + String.format("%020d", sequence);
+      try {
+        blobStore.createIfAbsent(seekName, ByteBuffer.allocate(0));
+      } catch (IOException e) {
+        // only makes seeking slower
+        LOG.warn("Failed to create " + seekName, e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Lists the data objects after the cached tail, and reads the last one. Caller must hold
+   * tailLock.
+   */
+  private void refreshTail() throws IOException {
+    String startAfter;
+    if (tailKnown) {
+      startAfter = (tailSequence < 0 ? null : dataName(tailSequence));
+    } else {
+      final long seekSequence = seekSequence(null);
+      startAfter = (seekSequence == 0 ? null : dataName(seekSequence - 1));
+    }
+    String last = null;
+    List<String> names;
+    do {
+      names = blobStore.list(dataPrefix, startAfter, LIST_LIMIT);
+      if (!names.isEmpty()) {
+        last = names.getLast();
+        startAfter = last;
+      }
+    } while (names.size() == LIST_LIMIT);
+    tailKnown = true;
+    if (last == null) {
+      return;
+    }
+    final ByteBuffer content = blobStore.read(last);
+    if (content == null) {
+      throw new InternalException("Object listed but missing: " + last);
+    }
+    EventEnvelope record = null;
+    EventEnvelope lastRecord = null;
+    while ((record = codec.decode(content)) != null) {
+      lastRecord = record;
+    }
+    if (lastRecord == null || content.hasRemaining()) {
+      throw new InternalException("Corrupt object: " + last);
+    }
+    tailSequence = parseDataName(last);
+    tailClosed = (lastRecord == RecordCodec.CLOSE_MARKER);
+    if (!tailClosed) {
+      tailTime = lastRecord.time();
+    }
+  }
+
+  /**
+   * @param from null for the latest seek object
+   * @return the sequence number of the latest data object, per seek objects, that starts with an
+   *     event time <= from, or 0 if none
+   */
+  private long seekSequence(final EventTime from) throws IOException {
+    long sequence = 0;
+    String startAfter = null;
+    List<String> names;
+    do {
+      names = blobStore.list(seekPrefix, startAfter, LIST_LIMIT);
+      for (String name : names) {
+        final int iSep = name.lastIndexOf('_');
+        try {
+          final EventTime first =
+              EventTime.fromOrderPreservingString(name.substring(seekPrefix.length(), iSep));
+          if (from != null && first.compareTo(from) > 0) {
+            return sequence;
+          }
+          sequence = Long.parseLong(name.substring(iSep + 1));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+          throw new InternalException("Unexpected object in " + logId + ": " + name, e);
+        }
+      }
+      if (!names.isEmpty()) {
+        startAfter = names.getLast();
+      }
+    } while (names.size() == LIST_LIMIT);
+    return sequence;
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public AppendIterator iterator() {
+    try {
+      return new AppendIteratorImpl(0, null);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /** Starts at the object found through the seek objects, reading only from there. */
+  @Override
+  public AppendIterator iterator(final EventTime from) {
+    try {
+      return new AppendIteratorImpl(seekSequence(from), from);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private class AppendIteratorImpl implements AppendIterator {
+    // the data object to read after the buffered events
+    private long nextSequence;
+    // the rest of the events of the data object read last, or appended by appendAllOrPeek
+    private final Queue<EventEnvelope> buffered = new ArrayDeque<>();
+    private boolean closed;
+    private EventEnvelope prevEvent;
+    private EventEnvelope nextEvent;
+    // returned by onAvailable() until the next poll is due
+    private CompletableFuture<Void> nextPoll;
+    private long pollNanos = MIN_POLL_NANOS;
+
+    /**
+     * @param from null to start at the first event in the data object, otherwise skips over the
+     *     events with time <= from, without blocking
+     */
+    AppendIteratorImpl(final long startSequence, final EventTime from) throws IOException {
+      this.nextSequence = startSequence;
+      if (from != null) {
+        while ((!buffered.isEmpty() || readObject())
+            && !buffered.isEmpty()
+            && buffered.peek().time().compareTo(from) <= 0) {
+          prevEvent = buffered.remove();
+        }
+      }
+    }
+
+    /**
+     * @return false if the next data object does not exist (yet)
+     */
+    private boolean readObject() throws IOException {
+      if (closed) {
+        return false;
+      }
+      final String name = dataName(nextSequence);
+      final ByteBuffer content = blobStore.read(name);
+      if (content == null) {
+        return false;
+      }
+      EventEnvelope record;
+      while ((record = codec.decode(content)) != null) {
+        if (record == RecordCodec.CLOSE_MARKER) {
+          closed = true;
+        } else if (record == RecordCodec.SEAL_MARKER || closed) {
+          throw new InternalException("Unexpected record in " + name);
+        } else {
+          buffered.add(record);
+        }
+      }
+      if (content.hasRemaining()) {
+        throw new InternalException("Incomplete record at the end of " + name);
+      }
+      nextSequence++;
+      return true;
+    }
+
+    /**
+     * Will block after the last event until more events are appended or the log is closed.
+     *
+     * @return the next event, or null to signify a closed log.
+     */
+    private EventEnvelope read() {
+      long sleepNanos = MIN_POLL_NANOS;
+      try {
+        while (buffered.isEmpty()) {
+          if (closed) {
+            return null;
+          }
+          if (!readObject()) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            sleepNanos = Math.min(sleepNanos * 2, MAX_POLL_NANOS);
+          }
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      return buffered.remove();
+    }
+
+    @Override
+    public boolean wouldBlock() {
+      if (nextEvent != null || !buffered.isEmpty() || closed) {
+        return false;
+      }
+      try {
+        return !readObject();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * Object stores do not notify of changes, so polls like read() does, with one read request per
+     * poll interval at most - or sooner, once this process creates the next data object.
+     */
+    @Override
+    public CompletableFuture<Void> onAvailable() {
+      if (nextEvent != null || !buffered.isEmpty() || closed) {
+        return AVAILABLE;
+      }
+      if (nextPoll != null && !nextPoll.isDone()) {
+        return nextPoll;
+      }
+      final CompletableFuture<Void> created = new CompletableFuture<>();
+      // registered before reading, so as to not miss a creation in between
+      awaitingCreate.add(created);
+      if (!wouldBlock()) {
+        awaitingCreate.remove(created);
+        pollNanos = MIN_POLL_NANOS;
+        return AVAILABLE;
+      }
+      created.whenComplete((v, e) -> awaitingCreate.remove(created));
+      nextPoll = created.completeOnTimeout(null, pollNanos, TimeUnit.NANOSECONDS);
+      pollNanos = Math.min(pollNanos * 2, MAX_POLL_NANOS);
+      return nextPoll;
+    }
+
+    /** Will block after the last event until more events are appended or the log is closed. */
+    @Override
+    public boolean hasNext() {
+      if (nextEvent == null) {
+        nextEvent = read();
+        if (prevEvent != null
+            && nextEvent != null
+            && nextEvent.time().compareTo(prevEvent.time()) <= 0) {
+          throw new InternalException(
+              String.format(
+                  "Out-of-order event sequence: %s followed by %s in %s",
+                  prevEvent.time(), nextEvent.time(), logId));
+        }
+      }
+      return nextEvent != null;
+    }
+
+    @Override
+    public EventEnvelope next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      prevEvent = nextEvent;
+      nextEvent = null;
+      return prevEvent;
+    }
+
+    @Override
+    public EventEnvelope appendOrPeek(EventEnvelope event) {
+      return appendAllOrPeek(List.of(event));
+    }
+
+    /**
+     * Creates the data object this iterator would read next, if absent - exactly the position after
+     * the event read last.
+     */
+    @Override
+    public EventEnvelope appendAllOrPeek(List<EventEnvelope> events) {
+      final EventTime prevTime = (prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time());
+      EventLog.checkRun(events, prevTime);
+
+      if (nextEvent == null && buffered.isEmpty()) {
+        if (closed) {
+          throw new IllegalStateException("log is closed");
+        }
+        try {
+          if (create(nextSequence, events)) {
+            nextSequence++;
+            nextEvent = events.getFirst();
+            buffered.addAll(events.subList(1, events.size()));
+            return nextEvent;
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (!hasNext()) { // sets nextEvent
+        throw new IllegalStateException("log is closed");
+      }
+      return nextEvent;
+    }
+  }
+}
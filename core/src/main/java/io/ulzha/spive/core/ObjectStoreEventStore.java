@@ -0,0 +1,56 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventStore;
+import io.ulzha.spive.lib.InternalException;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores streams in an object store, a few events per object, as per ObjectStoreEventLog.
+ *
+ * <p>Suits cold streams, where the cost per stored byte matters more than latency. Appends take one
+ * request each, conditional on the object not existing yet, and runs of events appended together
+ * share one object.
+ *
+ * <p>Works on top of any BlobStore. The one available via connection string is
+ * LocalFileSystemBlobStore, standing in for a cloud bucket in tests and benchmarks.
+ */
+public final class ObjectStoreEventStore implements EventStore {
+  private static final Pattern CONNECTION_STRING_RE =
+      Pattern.compile(".+" + ";basePath=([^;]+)" + "$");
+
+  private final BlobStore blobStore;
+  private final Map<UUID, ObjectStoreEventLog> eventLogs = new ConcurrentHashMap<>();
+
+  /**
+   * Formats supported:
+   *
+   * <p>
+   *
+   * <ul>
+   *   <li>basePath=/mnt/blob-store - objects as files in a local directory tree
+   * </ul>
+   */
+  public ObjectStoreEventStore(final String connectionString) {
+    final Matcher matcher = CONNECTION_STRING_RE.matcher(connectionString);
+
+    if (!matcher.matches()) {
+      throw new InternalException("Unexpected connectionString: " + connectionString);
+    }
+
+    this.blobStore = new LocalFileSystemBlobStore(Paths.get(matcher.group(1)));
+  }
+
+  public ObjectStoreEventStore(final BlobStore blobStore) {
+    this.blobStore = blobStore;
+  }
+
+  @Override
+  public ObjectStoreEventLog openLog(final UUID logId) {
+    return eventLogs.computeIfAbsent(logId, theId -> new ObjectStoreEventLog(blobStore, theId));
+  }
+}
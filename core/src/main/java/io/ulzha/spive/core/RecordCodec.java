@@ -0,0 +1,76 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.lib.InternalException;
+import io.ulzha.spive.util.ByteBuffers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * On-disk representation of events in a LocalFileSystemEventLog, one record per event.
+ *
+ * <p>Decoding works over buffers so that the same logic serves plain channel reads as well as other
+ * sources of bytes.
+ */
+interface RecordCodec {
+  /**
+   * Returned in place of an event when the special record marking a log closed for appending is
+   * encountered. Compared by reference.
+   */
+  EventEnvelope CLOSE_MARKER = new EventEnvelope(EventTime.INFINITE_PAST, null, null, null);
+
+  /**
+   * Returned in place of an event when the special record marking the end of a sealed segment is
+   * encountered. The log continues in the next segment. Compared by reference.
+   */
+  EventEnvelope SEAL_MARKER = new EventEnvelope(EventTime.INFINITE_PAST, null, null, null);
+
+  /**
+   * Decodes the record starting at the buffer's position, and advances the position past it. The
+   * payload bytes are copied, as the buffer may get reused.
+   *
+   * @return the event, or CLOSE_MARKER, or SEAL_MARKER, or null if the buffer does not (yet) hold a
+   *     complete record - in which case the buffer position is left unchanged.
+   * @throws InternalException if the record is corrupt
+   */
+  default EventEnvelope decode(ByteBuffer buffer) throws IOException {
+    return decode(buffer, false);
+  }
+
+  /**
+   * Like decode(buffer), but without copying if stable.
+   *
+   * @param stable whether the buffer contents stay unchanged for as long as the events are in use,
+   *     such as in a read-only mapping of the file, so that the payloads may be views of it
+   */
+  EventEnvelope decode(ByteBuffer buffer, boolean stable) throws IOException;
+
+  /**
+   * @return the bytes of one record, ready to be written out
+   */
+  ByteBuffer encode(EventEnvelope event);
+
+  /**
+   * Encodes one record at the position of buffer, like encode() but without a buffer of its own.
+   *
+   * @return buffer, or a larger copy of it if it had too little room remaining
+   */
+  default ByteBuffer encodeInto(EventEnvelope event, ByteBuffer buffer) {
+    final ByteBuffer record = encode(event);
+    return ByteBuffers.ensureRemaining(buffer, record.remaining()).put(record);
+  }
+
+  ByteBuffer encodeCloseMarker();
+
+  ByteBuffer encodeSealMarker();
+
+  /**
+   * Reads the last record in the channel, without relying on channel position.
+   *
+   * @return the event, or CLOSE_MARKER, or SEAL_MARKER, or null if the channel has size 0.
+   * @throws InternalException if the last record is incomplete or corrupt
+   */
+  EventEnvelope readLast(FileChannel channel) throws IOException;
+}
@@ -0,0 +1,110 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads records sequentially from a channel, through one reused buffer.
+ *
+ * <p>Uses positional reads, so the channel position is left alone.
+ *
+ * <p>Optionally, when far enough behind the end of file, maps a window of the file instead and lets
+ * the codec decode records straight from the mapping, the payloads being views of it. This saves
+ * copying and syscalls when replaying a long log. (The events keep a mapping reachable, and so
+ * mapped, for as long as they are in use, even after the reader moves on to the next window.)
+ * Closer to the end, where the file keeps growing and a window would need remapping for every
+ * record, falls back to reads into the reused buffer.
+ */
+final class RecordReader implements RecordSource {
+  private static final int INITIAL_CAPACITY = 64 << 10;
+  private static final int MAP_WINDOW = 64 << 20;
+  private static final int MIN_MAP_LENGTH = 1 << 20;
+
+  private final FileChannel channel;
+  private final RecordCodec codec;
+  private final boolean mapped;
+  private ByteBuffer heapBuffer = ByteBuffer.allocate(INITIAL_CAPACITY).flip();
+  // either heapBuffer or a read-only mapping
+  private ByteBuffer buffer = heapBuffer;
+  // file offset of the first record not yet returned, which corresponds to buffer.position()
+  private long position;
+
+  RecordReader(final FileChannel channel, final RecordCodec codec) {
+    this(channel, codec, false);
+  }
+
+  RecordReader(final FileChannel channel, final RecordCodec codec, final boolean mapped) {
+    this.channel = channel;
+    this.codec = codec;
+    this.mapped = mapped;
+  }
+
+  @Override
+  public EventEnvelope read() throws IOException {
+    while (true) {
+      final int start = buffer.position();
+      final EventEnvelope record = codec.decode(buffer, buffer != heapBuffer);
+      if (record != null) {
+        position += buffer.position() - start;
+        return record;
+      }
+      if (!fill()) {
+        return null;
+      }
+    }
+  }
+
+  /** File offset of the next record. */
+  long position() {
+    return position;
+  }
+
+  /** Moves to the given file offset, which must be a record boundary. */
+  void seek(final long newPosition) {
+    buffer = heapBuffer.clear().flip();
+    position = newPosition;
+  }
+
+  /**
+   * @return false if nothing more could be read
+   */
+  private boolean fill() throws IOException {
+    if (mapped) {
+      final long unread = channel.size() - position;
+      if (unread >= MIN_MAP_LENGTH) {
+        return map(unread);
+      }
+      if (buffer != heapBuffer) {
+        // the rest of the mapping becomes the start of heapBuffer
+        if (heapBuffer.capacity() < buffer.remaining()) {
+          heapBuffer = ByteBuffer.allocate(buffer.remaining() * 2);
+        }
+        buffer = heapBuffer.clear().put(buffer).flip();
+      }
+    }
+    buffer.compact();
+    if (!buffer.hasRemaining()) {
+      buffer =
+          ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip()); // leaves it in put mode
+      heapBuffer = buffer;
+    }
+    final int read = channel.read(buffer, position + buffer.position());
+    buffer.flip();
+    return read > 0;
+  }
+
+  /** Maps a window starting at the first unconsumed byte, larger than the current buffer. */
+  private boolean map(final long unread) throws IOException {
+    final long length =
+        Math.min(
+            unread, Math.max(MAP_WINDOW, Math.min(2L * buffer.remaining(), Integer.MAX_VALUE)));
+    if (length <= buffer.remaining()) {
+      return false;
+    }
+    // the previous mapping, if any, is unmapped when garbage collected
+    buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+    return true;
+  }
+}
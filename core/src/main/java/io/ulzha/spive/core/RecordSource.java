@@ -0,0 +1,15 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import java.io.IOException;
+
+/** Records of one segment of a log, read sequentially. */
+interface RecordSource {
+  /**
+   * Reads one record, if a complete one is available.
+   *
+   * @return the event, or RecordCodec.CLOSE_MARKER, or RecordCodec.SEAL_MARKER, or null if no
+   *     complete record is available (yet).
+   */
+  EventEnvelope read() throws IOException;
+}
@@ -0,0 +1,106 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventTime;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable part of a segmented LocalFileSystemEventLog, holding events from first to last
+ * inclusive.
+ *
+ * <p>The active segment of a log, e.g. `events.jsonl`, is sealed by renaming it to a name carrying
+ * its first and last event times, e.g. `events.<first>_<last>.jsonl`, in EventTime order-preserving
+ * string representation. Hence sealed segments sort by name in event order, and can be found
+ * without opening them.
+ *
+ * <p>A sealed segment may be deleted, moved away or compressed in place, to expire or archive old
+ * history. A log iterated from the start then starts at the earliest segment remaining.
+ *
+ * <p>Compressed in place means replaced by `events.<first>_<last>.jsonl.deflate`, as per
+ * CompressedSegment. Iterators read such segments transparently.
+ */
+public record SealedSegment(Path path, EventTime first, EventTime last) {
+  static SealedSegment of(final Path activePath, final EventTime first, final EventTime last) {
+    final String[] nameAndExtension = splitExtension(activePath);
+    return new SealedSegment(
+        activePath.resolveSibling(
+            nameAndExtension[0]
+                + '.'
+                + first.toOrderPreservingString()
+                + '_'
+                + last.toOrderPreservingString()
+                + nameAndExtension[1]),
+        first,
+        last);
+  }
+
+  /**
+   * @return the sealed segments of the log with the given active segment path, in event order - the
+   *     compressed one, in case both versions of a segment are present while compressing
+   */
+  static List<SealedSegment> list(final Path activePath) throws IOException {
+    final String[] nameAndExtension = splitExtension(activePath);
+    final String prefix = nameAndExtension[0] + '.';
+    final String suffix = nameAndExtension[1];
+    final List<SealedSegment> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(activePath.getParent(), prefix + "*_*" + suffix + "*")) {
+      for (Path path : stream) {
+        final String name = path.getFileName().toString();
+        final String times;
+        if (name.endsWith(suffix)) {
+          times = name.substring(prefix.length(), name.length() - suffix.length());
+        } else if (name.endsWith(suffix + CompressedSegment.SUFFIX)) {
+          times =
+              name.substring(
+                  prefix.length(),
+                  name.length() - suffix.length() - CompressedSegment.SUFFIX.length());
+        } else {
+          // an index or a temporary file
+          continue;
+        }
+        final int iSep = times.indexOf('_');
+        try {
+          segments.add(
+              new SealedSegment(
+                  path,
+                  EventTime.fromOrderPreservingString(times.substring(0, iSep)),
+                  EventTime.fromOrderPreservingString(times.substring(iSep + 1))));
+        } catch (IllegalArgumentException e) {
+          // not ours
+        }
+      }
+    }
+    segments.sort(
+        Comparator.comparing(SealedSegment::first).thenComparing(segment -> !segment.compressed()));
+    final List<SealedSegment> deduplicated = new ArrayList<>();
+    for (SealedSegment segment : segments) {
+      if (deduplicated.isEmpty() || !deduplicated.getLast().first().equals(segment.first())) {
+        deduplicated.add(segment);
+      }
+    }
+    return deduplicated;
+  }
+
+  public boolean compressed() {
+    return path.getFileName().toString().endsWith(CompressedSegment.SUFFIX);
+  }
+
+  /** The sparse index sidecar, as kept for the active segment and renamed along with it. */
+  Path indexPath() {
+    return path.resolveSibling(path.getFileName() + ".idx");
+  }
+
+  private static String[] splitExtension(final Path path) {
+    final String name = path.getFileName().toString();
+    final int iDot = name.lastIndexOf('.');
+    return (iDot < 0
+        ? new String[] {name, ""}
+        : new String[] {name.substring(0, iDot), name.substring(iDot)});
+  }
+}
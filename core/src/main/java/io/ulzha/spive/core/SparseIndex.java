@@ -0,0 +1,174 @@
+package io.ulzha.spive.core;
+
+import io.ulzha.spive.lib.EventTime;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.Instant;
+
+/**
+ * Sidecar file mapping EventTime to byte offset in a log file, for a sparse subset of records.
+ *
+ * <p>An entry is added whenever a record lands at least intervalBytes past the previously indexed
+ * record, so that after seeking to an entry, at most about intervalBytes need to be scanned. (Byte
+ * spacing rather than every Nth record, so that appenders need not count records.)
+ *
+ * <p>Entries are fixed-width, 24 bytes each: long epoch second, int nano, int tiebreaker, long
+ * offset. A partial entry at the end (torn write) is ignored and eventually overwritten.
+ *
+ * <p>Any sorted subset of valid entries yields correct seeks, so the index may lag behind the log,
+ * and it is only maintained by appenders when it exists. When missing, it is rebuilt lazily upon
+ * the first seek.
+ *
+ * <p>Appends must happen under the log lock. Not thread-safe otherwise.
+ */
+final class SparseIndex {
+  static final int ENTRY_SIZE = 24;
+
+  final Path path;
+  private final long intervalBytes;
+  private FileChannel indexChannel;
+  // cached for the common case where only this process appends
+  private long knownSize = -1;
+  private long lastIndexedOffset;
+
+  SparseIndex(final Path path, final long intervalBytes) {
+    this.path = path;
+    this.intervalBytes = intervalBytes;
+  }
+
+  record Entry(EventTime time, long offset) {}
+
+  /** Notes a record that was appended at the given offset. Caller must hold the log lock. */
+  void onAppend(final EventTime time, final long offset) throws IOException {
+    if (indexChannel == null) {
+      if (!Files.exists(path)) {
+        return;
+      }
+      indexChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    final long size = indexChannel.size() / ENTRY_SIZE * ENTRY_SIZE;
+    if (size != knownSize) {
+      lastIndexedOffset = (size == 0 ? 0 : readEntry(indexChannel, size - ENTRY_SIZE).offset());
+      knownSize = size;
+    }
+    if (offset - lastIndexedOffset >= intervalBytes) {
+      writeEntry(indexChannel, size, time, offset);
+      lastIndexedOffset = offset;
+      knownSize = size + ENTRY_SIZE;
+    }
+  }
+
+  /**
+   * Binary searches for the latest entry with time <= from.
+   *
+   * @return null if there is no such entry, or if the index is missing
+   */
+  Entry floor(final EventTime from) throws IOException {
+    if (!Files.exists(path)) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long lo = 0;
+      long hi = channel.size() / ENTRY_SIZE;
+      Entry found = null;
+      while (lo < hi) {
+        final long mid = (lo + hi) >>> 1;
+        final Entry entry = readEntry(channel, mid * ENTRY_SIZE);
+        if (entry.time().compareTo(from) <= 0) {
+          found = entry;
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return found;
+    }
+  }
+
+  /** Forgets the cached state, so that a replaced or deleted index file is picked up anew. */
+  void reset() throws IOException {
+    if (indexChannel != null) {
+      indexChannel.close();
+      indexChannel = null;
+    }
+    knownSize = -1;
+  }
+
+  void close() throws IOException {
+    reset();
+  }
+
+  /**
+   * Accumulates entries for a complete index, such as when rebuilding by scanning a log from the
+   * start.
+   */
+  final class Builder implements AutoCloseable {
+    private final FileChannel channel;
+    private long size = 0;
+    private long lastOffset = 0;
+
+    Builder(final Path builderPath) throws IOException {
+      channel =
+          FileChannel.open(
+              builderPath,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+    }
+
+    void add(final EventTime time, final long offset) throws IOException {
+      if (offset - lastOffset >= intervalBytes) {
+        writeEntry(channel, size, time, offset);
+        size += ENTRY_SIZE;
+        lastOffset = offset;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!channel.isOpen()) {
+        return;
+      }
+      channel.force(true);
+      channel.close();
+    }
+  }
+
+  private static Entry readEntry(final FileChannel channel, final long position)
+      throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of index at " + position);
+      }
+    }
+    buffer.flip();
+    try {
+      final Instant instant = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+      final EventTime time = new EventTime(instant, buffer.getInt());
+      return new Entry(time, buffer.getLong());
+    } catch (DateTimeException | IllegalArgumentException e) {
+      throw new IOException("Corrupt index entry at " + position, e);
+    }
+  }
+
+  private static void writeEntry(
+      final FileChannel channel, final long position, final EventTime time, final long offset)
+      throws IOException {
+    final ByteBuffer buffer =
+        ByteBuffer.allocate(ENTRY_SIZE)
+            .putLong(time.instant.getEpochSecond())
+            .putInt(time.instant.getNano())
+            .putInt(time.tiebreaker)
+            .putLong(offset)
+            .flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer, position + buffer.position());
+    }
+  }
+}
@@ -0,0 +1,251 @@
+package io.ulzha.spive.core;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wakes up readers waiting at the end of a log file, when the file grows.
+ *
+ * <p>Appenders in the same JVM signal directly. Appends by other processes are noticed through a
+ * WatchService (inotify on Linux) on the directory of the log, one for all the logs in the JVM.
+ *
+ * <p>As a safety net, waiting readers also poll, with the interval doubling from 1 ms up to a
+ * maximum - 1 s if the file is watched, or a much shorter one if watching is unavailable. (Watching
+ * may also silently miss changes on network file systems, which is why the maximum is not longer.)
+ *
+ * <p>Usage, to not miss a signal arriving between a read attempt and waiting:
+ *
+ * <pre>
+ * long sequence = notifier.sequence();
+ * if (read() == null) notifier.await(sequence, pollNanos);
+ * </pre>
+ *
+ * <p>Or, to wait without blocking, take onSignal() before the read attempt instead.
+ */
+final class TailNotifier implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(TailNotifier.class);
+  static final long MIN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long MAX_POLL_NANOS_WATCHED = TimeUnit.SECONDS.toNanos(1);
+  private static final long MAX_POLL_NANOS_UNWATCHED = TimeUnit.MILLISECONDS.toNanos(50);
+
+  private final Path filePath;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition grown = lock.newCondition();
+  private volatile long sequence = 0;
+  // completed by the next signal (or timeout), created on demand and anew once completed
+  private CompletableFuture<Void> nextSignal;
+  private final boolean watched;
+
+  TailNotifier(final Path filePath) {
+    this.filePath = filePath.toAbsolutePath();
+    this.watched = Watcher.register(this);
+  }
+
+  long sequence() {
+    return sequence;
+  }
+
+  /** Wakes up all the readers waiting. */
+  void signal() {
+    final CompletableFuture<Void> signalled;
+    lock.lock();
+    try {
+      sequence++;
+      grown.signalAll();
+      signalled = nextSignal;
+      nextSignal = null;
+    } finally {
+      lock.unlock();
+    }
+    if (signalled != null) {
+      signalled.complete(null);
+    }
+  }
+
+  /**
+   * @return a future completed by the next signal - or by a timeout instead, if the file is not
+   *     watched, standing in for polling
+   */
+  CompletableFuture<Void> onSignal() {
+    lock.lock();
+    try {
+      // done already if timed out, as only signal() clears it
+      if (nextSignal == null || nextSignal.isDone()) {
+        nextSignal = new CompletableFuture<>();
+        if (!watched) {
+          nextSignal.completeOnTimeout(null, MAX_POLL_NANOS_UNWATCHED, TimeUnit.NANOSECONDS);
+        }
+      }
+      return nextSignal;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Waits until signalled after the given sequence number was observed, or until timeout.
+   *
+   * @return true if signalled
+   */
+  boolean await(final long observedSequence, final long timeoutNanos) throws InterruptedException {
+    lock.lock();
+    try {
+      long nanos = timeoutNanos;
+      while (sequence == observedSequence) {
+        if (nanos <= 0) {
+          return false;
+        }
+        nanos = grown.awaitNanos(nanos);
+      }
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the next poll interval, after waiting for pollNanos
+   */
+  long backOff(final long pollNanos, final boolean signalled) {
+    if (signalled) {
+      return MIN_POLL_NANOS;
+    }
+    return Math.min(pollNanos * 2, watched ? MAX_POLL_NANOS_WATCHED : MAX_POLL_NANOS_UNWATCHED);
+  }
+
+  /** Also completes the future from onSignal(), as no more signals would. */
+  @Override
+  public void close() {
+    if (watched) {
+      Watcher.unregister(this);
+    }
+    signal();
+  }
+
+  /** One daemon thread dispatching file system events to the notifiers of the affected files. */
+  private static final class Watcher implements Runnable {
+    private static Watcher instance;
+
+    private final WatchService watchService;
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private final Map<Path, Set<TailNotifier>> notifiers = new HashMap<>();
+
+    private Watcher(final WatchService watchService) {
+      this.watchService = watchService;
+    }
+
+    /**
+     * @return false if the file cannot be watched
+     */
+    static synchronized boolean register(final TailNotifier notifier) {
+      final Path dir = notifier.filePath.getParent();
+      try {
+        if (instance == null) {
+          instance = new Watcher(FileSystems.getDefault().newWatchService());
+          // shared by all the applications in the JVM, so none of theirs to belong to
+          final Thread thread = new Thread(rootThreadGroup(), instance, "spive-tail-watcher");
+          thread.setDaemon(true);
+          thread.setContextClassLoader(Watcher.class.getClassLoader());
+          thread.start();
+        }
+        if (!instance.keys.containsKey(dir)) {
+          instance.keys.put(
+              dir,
+              dir.register(
+                  instance.watchService,
+                  StandardWatchEventKinds.ENTRY_CREATE,
+                  StandardWatchEventKinds.ENTRY_MODIFY));
+        }
+      } catch (IOException | UnsupportedOperationException e) {
+        LOG.debug("Unable to watch {}, will poll more frequently", dir, e);
+        return false;
+      }
+      synchronized (instance.notifiers) {
+        instance
+            .notifiers
+            .computeIfAbsent(notifier.filePath, p -> new CopyOnWriteArraySet<>())
+            .add(notifier);
+      }
+      return true;
+    }
+
+    private static ThreadGroup rootThreadGroup() {
+      ThreadGroup group = Thread.currentThread().getThreadGroup();
+      while (group.getParent() != null) {
+        group = group.getParent();
+      }
+      return group;
+    }
+
+    static synchronized void unregister(final TailNotifier notifier) {
+      final Path dir = notifier.filePath.getParent();
+      synchronized (instance.notifiers) {
+        final Set<TailNotifier> set = instance.notifiers.get(notifier.filePath);
+        set.remove(notifier);
+        if (set.isEmpty()) {
+          instance.notifiers.remove(notifier.filePath);
+        }
+        if (instance.notifiers.keySet().stream().noneMatch(p -> p.getParent().equals(dir))) {
+          instance.keys.remove(dir).cancel();
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final WatchKey key = watchService.take();
+          final Path dir = (Path) key.watchable();
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+              signalAll(dir);
+            } else {
+              signal(dir.resolve((Path) event.context()));
+            }
+          }
+          key.reset();
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        LOG.warn("Tail watcher stopped", e);
+      }
+    }
+
+    private void signal(final Path filePath) {
+      final Set<TailNotifier> set;
+      synchronized (notifiers) {
+        set = notifiers.get(filePath);
+      }
+      if (set != null) {
+        set.forEach(TailNotifier::signal);
+      }
+    }
+
+    private void signalAll(final Path dir) {
+      synchronized (notifiers) {
+        notifiers.forEach(
+            (filePath, set) -> {
+              if (filePath.getParent().equals(dir)) {
+                set.forEach(TailNotifier::signal);
+              }
+            });
+      }
+    }
+  }
+}
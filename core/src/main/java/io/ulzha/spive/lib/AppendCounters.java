@@ -0,0 +1,55 @@
+package io.ulzha.spive.lib;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of appendAndGetAdjustedTime() outcomes on an EventLog, to tell how contended the log is.
+ *
+ * <p>A conflict is an attempt that lost a race to a concurrent append, and is followed by a retry.
+ * Retries also follow transient failures of the underlying store.
+ */
+public final class AppendCounters {
+  private final LongAdder appended = new LongAdder();
+  private final LongAdder adjusted = new LongAdder();
+  private final LongAdder conflicts = new LongAdder();
+  private final LongAdder retries = new LongAdder();
+
+  public void onAppended(final EventTime requestedTime, final EventTime appendedTime) {
+    appended.increment();
+    if (!appendedTime.equals(requestedTime)) {
+      adjusted.increment();
+    }
+  }
+
+  public void onConflict() {
+    conflicts.increment();
+  }
+
+  public void onRetry() {
+    retries.increment();
+  }
+
+  public long appended() {
+    return appended.sum();
+  }
+
+  /** Appended with time other than requested. */
+  public long adjusted() {
+    return adjusted.sum();
+  }
+
+  public long conflicts() {
+    return conflicts.sum();
+  }
+
+  public long retries() {
+    return retries.sum();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "appended=%d, adjusted=%d, conflicts=%d, retries=%d",
+        appended(), adjusted(), conflicts(), retries());
+  }
+}
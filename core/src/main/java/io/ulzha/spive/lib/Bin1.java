@@ -0,0 +1,197 @@
+package io.ulzha.spive.lib;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Field encodings of the "bin1:" format, used by generated BinaryCodecs.
+ *
+ * <p>Fields are written in record component order, with no names or delimiters. Primitives are
+ * written as by DataOutput. Every reference is preceded by a presence byte, 0 for null and 1
+ * otherwise. Strings are written as a varint byte length followed by UTF-8 bytes, lists and maps as
+ * a varint size followed by their elements.
+ *
+ * <p>The format never changes in place; an incompatible encoding would get a new prefix.
+ */
+public final class Bin1 {
+  private Bin1() {}
+
+  @FunctionalInterface
+  public interface Writer<T> {
+    void write(DataOutput out, T value) throws IOException;
+  }
+
+  @FunctionalInterface
+  public interface Reader<T> {
+    T read(DataInput in) throws IOException;
+  }
+
+  private static boolean writePresence(final DataOutput out, final Object value)
+      throws IOException {
+    out.writeByte(value == null ? 0 : 1);
+    return value != null;
+  }
+
+  private static boolean readPresence(final DataInput in) throws IOException {
+    final byte b = in.readByte();
+    if (b != 0 && b != 1) {
+      throw new IOException("Unexpected presence byte: " + b);
+    }
+    return b == 1;
+  }
+
+  /** Unsigned LEB128, so small sizes take a single byte. */
+  public static void writeVarint(final DataOutput out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  public static int readVarint(final DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      final byte b = in.readByte();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Varint too long");
+  }
+
+  public static void writeString(final DataOutput out, final String value) throws IOException {
+    if (writePresence(out, value)) {
+      final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarint(out, bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  public static String readString(final DataInput in) throws IOException {
+    if (!readPresence(in)) {
+      return null;
+    }
+    final byte[] bytes = new byte[readVarint(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public static void writeUuid(final DataOutput out, final UUID value) throws IOException {
+    if (writePresence(out, value)) {
+      out.writeLong(value.getMostSignificantBits());
+      out.writeLong(value.getLeastSignificantBits());
+    }
+  }
+
+  public static UUID readUuid(final DataInput in) throws IOException {
+    return (readPresence(in) ? new UUID(in.readLong(), in.readLong()) : null);
+  }
+
+  public static void writeInstant(final DataOutput out, final Instant value) throws IOException {
+    if (writePresence(out, value)) {
+      out.writeLong(value.getEpochSecond());
+      out.writeInt(value.getNano());
+    }
+  }
+
+  public static Instant readInstant(final DataInput in) throws IOException {
+    return (readPresence(in) ? Instant.ofEpochSecond(in.readLong(), in.readInt()) : null);
+  }
+
+  /** As EventTime.toOrderPreservingBytes(), which is self-delimiting. */
+  public static void writeEventTime(final DataOutput out, final EventTime value)
+      throws IOException {
+    if (writePresence(out, value)) {
+      out.write(value.toOrderPreservingBytes());
+    }
+  }
+
+  public static EventTime readEventTime(final DataInput in) throws IOException {
+    if (!readPresence(in)) {
+      return null;
+    }
+    final byte[] bytes = new byte[EventTime.ORDER_PRESERVING_BYTES_LENGTH];
+    bytes[0] = in.readByte();
+    if (bytes[0] == 0) {
+      return EventTime.INFINITE_PAST;
+    }
+    in.readFully(bytes, 1, bytes.length - 1);
+    try {
+      return EventTime.fromOrderPreservingBytes(bytes);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public static void writeUri(final DataOutput out, final URI value) throws IOException {
+    writeString(out, (value == null ? null : value.toString()));
+  }
+
+  public static URI readUri(final DataInput in) throws IOException {
+    final String s = readString(in);
+    return (s == null ? null : URI.create(s));
+  }
+
+  public static <T> void writeList(
+      final DataOutput out, final List<T> value, final Writer<T> elementWriter) throws IOException {
+    if (writePresence(out, value)) {
+      writeVarint(out, value.size());
+      for (T element : value) {
+        elementWriter.write(out, element);
+      }
+    }
+  }
+
+  public static <T> List<T> readList(final DataInput in, final Reader<T> elementReader)
+      throws IOException {
+    if (!readPresence(in)) {
+      return null;
+    }
+    final int size = readVarint(in);
+    final List<T> value = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      value.add(elementReader.read(in));
+    }
+    return value;
+  }
+
+  public static <K, V> void writeMap(
+      final DataOutput out,
+      final Map<K, V> value,
+      final Writer<K> keyWriter,
+      final Writer<V> valueWriter)
+      throws IOException {
+    if (writePresence(out, value)) {
+      writeVarint(out, value.size());
+      for (Map.Entry<K, V> entry : value.entrySet()) {
+        keyWriter.write(out, entry.getKey());
+        valueWriter.write(out, entry.getValue());
+      }
+    }
+  }
+
+  public static <K, V> Map<K, V> readMap(
+      final DataInput in, final Reader<K> keyReader, final Reader<V> valueReader)
+      throws IOException {
+    if (!readPresence(in)) {
+      return null;
+    }
+    final int size = readVarint(in);
+    final Map<K, V> value = new LinkedHashMap<>();
+    for (int i = 0; i < size; i++) {
+      value.put(keyReader.read(in), valueReader.read(in));
+    }
+    return value;
+  }
+}
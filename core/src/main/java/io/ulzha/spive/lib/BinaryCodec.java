@@ -0,0 +1,17 @@
+package io.ulzha.spive.lib;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reflection-free serde logic for one event type, generated by Spīve (see Bin1 for the encoding of
+ * fields) and registered with EventSerde.forCodec() under a "bin1:" tag.
+ */
+public interface BinaryCodec<T> {
+  Class<T> type();
+
+  void write(T value, DataOutput out) throws IOException;
+
+  T read(DataInput in) throws IOException;
+}
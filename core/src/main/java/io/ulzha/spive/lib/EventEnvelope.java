@@ -1,13 +1,60 @@
 package io.ulzha.spive.lib;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import java.util.UUID;
 
 /**
  * Raw representation of an Event, carrying payload in its serialized form.
  *
  * <p>Useful sometimes in order to transmit events or inspect metadata without unwrapping payloads.
+ *
+ * <p>The payload is held either as a String or as UTF-8 bytes, whichever the envelope was created
+ * from, and converted to the other form only on demand. Event logs that store payloads as bytes
+ * create envelopes via ofPayloadBytes(), so that unwrap() deserializes straight from the bytes they
+ * read, without an intermediate String.
  */
-public record EventEnvelope(EventTime time, UUID id, String typeTag, String serializedPayload) {
+public final class EventEnvelope {
+  private final EventTime time;
+  private final UUID id;
+  private final String typeTag;
+  // at least one of the two is set, unless payload is null; racy caching is benign
+  private String serializedPayload;
+  private final ByteBuffer payloadBytes;
+
+  public EventEnvelope(EventTime time, UUID id, String typeTag, String serializedPayload) {
+    this(time, id, typeTag, serializedPayload, null);
+  }
+
+  private EventEnvelope(
+      EventTime time, UUID id, String typeTag, String serializedPayload, ByteBuffer payloadBytes) {
+    this.time = time;
+    this.id = id;
+    this.typeTag = typeTag;
+    this.serializedPayload = serializedPayload;
+    this.payloadBytes = payloadBytes;
+  }
+
+  /**
+   * @param payloadBytes the UTF-8 serialized payload, between its position and limit. Not copied,
+   *     so the caller must not modify the contents afterwards.
+   */
+  public static EventEnvelope ofPayloadBytes(
+      EventTime time, UUID id, String typeTag, ByteBuffer payloadBytes) {
+    return new EventEnvelope(
+        time,
+        id,
+        typeTag,
+        null,
+        (payloadBytes == null ? null : payloadBytes.slice().asReadOnlyBuffer()));
+  }
+
+  /** A copy at another time, carrying the payload in the same form. */
+  public EventEnvelope withTime(EventTime newTime) {
+    return new EventEnvelope(newTime, id, typeTag, serializedPayload, payloadBytes);
+  }
+
   public static EventEnvelope wrap(Event event) {
     return new EventEnvelope(
         event.time, event.id, event.serde.getTag(), event.serde.serialize(event.payload));
@@ -15,6 +62,86 @@ public record EventEnvelope(EventTime time, UUID id, String typeTag, String seri
 
   public Event unwrap() {
     final EventSerde serde = EventSerde.forTypeTag(typeTag);
-    return new Event(time, id, serde, serde.deserialize(serializedPayload));
+    return new Event(
+        time,
+        id,
+        serde,
+        (payloadBytes == null
+            ? serde.deserialize(serializedPayload)
+            : serde.deserialize(payloadBytes.duplicate())));
+  }
+
+  public EventTime time() {
+    return time;
+  }
+
+  public UUID id() {
+    return id;
+  }
+
+  public String typeTag() {
+    return typeTag;
+  }
+
+  public String serializedPayload() {
+    if (serializedPayload == null && payloadBytes != null) {
+      serializedPayload = StandardCharsets.UTF_8.decode(payloadBytes.duplicate()).toString();
+    }
+    return serializedPayload;
+  }
+
+  /** Whether the payload is held as bytes, so that payloadBytes() is a mere view. */
+  public boolean holdsPayloadBytes() {
+    return payloadBytes != null;
+  }
+
+  /**
+   * @return a read-only view of the UTF-8 serialized payload, or null for null payload
+   */
+  public ByteBuffer payloadBytes() {
+    if (payloadBytes != null) {
+      return payloadBytes.duplicate();
+    }
+    if (serializedPayload == null) {
+      return null;
+    }
+    return ByteBuffer.wrap(serializedPayload.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof EventEnvelope that)) {
+      return false;
+    }
+    if (!(Objects.equals(time, that.time)
+        && Objects.equals(id, that.id)
+        && Objects.equals(typeTag, that.typeTag))) {
+      return false;
+    }
+    if (payloadBytes != null && that.payloadBytes != null) {
+      return payloadBytes.equals(that.payloadBytes);
+    }
+    return Objects.equals(serializedPayload(), that.serializedPayload());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(time, id, typeTag, serializedPayload());
+  }
+
+  @Override
+  public String toString() {
+    return "EventEnvelope[time="
+        + time
+        + ", id="
+        + id
+        + ", typeTag="
+        + typeTag
+        + ", serializedPayload="
+        + serializedPayload()
+        + "]";
   }
 }
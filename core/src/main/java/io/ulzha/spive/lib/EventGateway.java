@@ -2,9 +2,9 @@ package io.ulzha.spive.lib;
 
 import io.ulzha.spive.lib.umbilical.UmbilicalWriter;
 import java.time.Instant;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
 
 public class EventGateway extends Gateway {
@@ -25,7 +25,8 @@ public class EventGateway extends Gateway {
   }
 
   // quick and dirty "history"; not sure how this will evolve
-  private Map<UUID, UUID> lastPseudorandomKeyPerPartition = new HashMap<>();
+  // concurrent, as partitions may be handled on lanes of a PartitionedEventLoop
+  private final Map<UUID, UUID> lastPseudorandomKeyPerPartition = new ConcurrentHashMap<>();
 
   private UUID getPseudorandomUuid(UUID prevUuid) {
     return UUID.nameUUIDFromBytes(prevUuid.toString().getBytes());
@@ -282,29 +283,9 @@ public class EventGateway extends Gateway {
         eventLock.lockConsequential();
         final EventTime eventTime = nextConsequentialTime();
         final Event event = new Event(eventTime, null, serde, payload);
-        final EventEnvelope wanted = EventEnvelope.wrap(event);
-        final EventEnvelope actual = eventIterator.appendOrPeek(wanted);
-        if (actual == wanted) {
-          // we actually appended
-          System.out.println("Led with a consequential event, wdyt? " + eventTime);
-          // maybe this report can be in eventIterator... DRYer... But we might prefer no added
-          // complexity there... unless reduced locking benefit also manifests, or something like
-          // that
-          umbilicus.addOutputEvent(actual.time());
-        } else {
-          // must act idempotent anyway, as we came here from an event handler
-          if (!actual.equals(wanted)) {
-            System.out.println("Actual: " + actual);
-            System.out.println("Wanted: " + wanted);
-            throw new IllegalStateException(
-                "Could not emit consequential event "
-                    + wanted.time()
-                    + ": unexpected event in log "
-                    + actual.time()
-                    + " - possible nondeterminism in handler code, or corrupt log");
-          }
-          System.out.println("Trailed with a consequential event, wdyt? " + eventTime);
-        }
+        // Buffered until the handler completes, and then appended in one go, along with any
+        // further consequential events. See EventLoop.
+        eventIterator.addConsequential(EventEnvelope.wrap(event));
       } finally {
         eventLock.unlock();
       }
@@ -316,10 +297,7 @@ public class EventGateway extends Gateway {
 
   /** Caters for one or multiple consequential events. */
   private EventTime nextConsequentialTime() {
-    EventTime prevTime = eventIterator.lastTimeRead;
-    if (eventIterator.lastTimeEmitted.compareTo(prevTime) > 0) {
-      prevTime = eventIterator.lastTimeEmitted;
-    }
+    final EventTime prevTime = eventIterator.prevTimeConsequential();
     return new EventTime(prevTime.instant, prevTime.tiebreaker + 1);
   }
 }
@@ -1,9 +1,13 @@
 package io.ulzha.spive.lib;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Iterator that keeps own output around in memory for fast readback, for cases where output log is
@@ -11,81 +15,348 @@ import java.util.Queue;
  *
  * <p>In most respects, delegates to EventLog.AppendIterator.
  *
- * <p>The appendOrPeek method is thread-safe, and would wake up hasNext() resp. next() if they were
- * blocked.
+ * <p>Meant for one reading thread, the event loop, and any number of appending threads, which take
+ * turns (normally under EventLock anyway). Events appended are handed over to the reader through a
+ * lock-free queue, so reading them back takes no lock. The delegate, not being thread-safe, is only
+ * accessed under a lock, which the reader takes only when the queue is empty.
+ *
+ * <p>The appendOrPeek method is thread-safe, and unparks hasNext() resp. next() if they were
+ * blocked. Events appended to the log otherwise unpark them through the delegate's onAvailable()
+ * future, so the reader never blocks inside the delegate, where it would hold appenders up.
  */
 // CoordinableEventIterator? LockingEventIterator? EventIteratorChannel vs EventLogChannel?
 // EventLog.ConcurrentAppendIterator? Instance.ConcurrentAppendIterator and Instance.Main?
 // lib.instance? dist?
 // Yet another layer to come, for multiple inputs, and watermark awareness?
 public class EventIterator implements Iterator<EventEnvelope> {
+  // an appender typically hands over within microseconds, cheaper to catch than an unpark, unless
+  // there's no other processor for the appender to run on meanwhile
+  private static final int SPINS = (Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0);
+  // in case a notification goes missing, such as from a file system watch on a network file system
+  private static final long MAX_PARK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private final EventLog.AppendIterator delegate;
+  private final ReentrantLock delegateLock = new ReentrantLock();
   // may accrue 1 event that's been just emitted by a sporadic workload, or alternatively n
   // consecutive events that have been emitted (deterministically, as direct or indirect
   // consequences of a preceding event) by event handlers
-  private final Queue<EventEnvelope> knownEvents = new LinkedList<>();
+  private final SpscChunkedQueue<EventEnvelope> knownEvents = new SpscChunkedQueue<>();
+  // the reader, while parked
+  private volatile Thread waiter;
+  // the delegate's future that the reader has subscribed to last
+  private CompletableFuture<Void> awaited;
+  // consequential events emitted by the event handler in progress, on the event loop thread, to be
+  // appended in one go
+  private final List<EventEnvelope> pendingConsequential = new ArrayList<>();
+  // false once the delegate has rejected a run, as its store appends one event at a time. Guarded
+  // by delegateLock
+  private boolean appendsRuns = true;
+  // set on lane threads of InstanceMain.PartitionedEventLoop, for the event handled there, whereas
+  // the serial EventLoop handles the event read last
+  private final ThreadLocal<Handling> handling = new ThreadLocal<>();
+
+  private static final class Handling {
+    final EventTime time;
+    final List<EventEnvelope> pendingConsequential = new ArrayList<>();
 
-  public EventTime lastTimeRead = EventTime.INFINITE_PAST;
-  public EventTime lastTimeEmitted = EventTime.INFINITE_PAST;
+    Handling(final EventTime time) {
+      this.time = time;
+    }
+  }
+
+  public volatile EventTime lastTimeRead = EventTime.INFINITE_PAST;
+  public volatile EventTime lastTimeEmitted = EventTime.INFINITE_PAST;
 
   public EventIterator(final EventLog.AppendIterator delegate) {
     this.delegate = delegate;
   }
 
+  /** Non-blocking, unlike hasNext(), and cheap while events are available. For the reader. */
+  public boolean wouldBlock() {
+    if (!knownEvents.isEmpty()) {
+      return false;
+    }
+    delegateLock.lock();
+    try {
+      return knownEvents.isEmpty() && !delegate.onAvailable().isDone();
+    } finally {
+      delegateLock.unlock();
+    }
+  }
+
   @Override
-  public synchronized boolean hasNext() {
-    while (knownEvents.isEmpty() && delegate.wouldBlock()) {
-      System.out.println("In snazzy wait loop...");
+  public boolean hasNext() {
+    while (true) {
+      if (!knownEvents.isEmpty()) {
+        return true;
+      }
+      final CompletableFuture<Void> available;
+      delegateLock.lock();
       try {
-        wait(1000);
-      } catch (InterruptedException e) {
+        // checking again, as an appender may have held the lock and handed events over meanwhile,
+        // which come before whatever the delegate would return
+        if (!knownEvents.isEmpty()) {
+          return true;
+        }
+        available = delegate.onAvailable();
+        if (available.isDone()) {
+          return delegate.hasNext();
+        }
+      } finally {
+        delegateLock.unlock();
+      }
+      for (int i = 0; i < SPINS && knownEvents.isEmpty() && !available.isDone(); i++) {
+        Thread.onSpinWait();
+      }
+      if (!knownEvents.isEmpty()) {
+        return true;
+      }
+      waiter = Thread.currentThread();
+      try {
+        if (available != awaited) {
+          // a delegate normally hands out the same future until it completes, so subscribing once
+          awaited = available;
+          available.thenRun(this::signal);
+        }
+        // checking again after registering, so as to not miss an unpark
+        if (knownEvents.isEmpty() && !available.isDone()) {
+          LockSupport.parkNanos(this, MAX_PARK_NANOS);
+        }
+      } finally {
+        waiter = null;
+      }
+      if (Thread.interrupted()) {
         Thread.currentThread().interrupt();
-        throw new RuntimeException(e);
+        throw new RuntimeException(new InterruptedException());
       }
     }
-    if (knownEvents.isEmpty()) {
-      return delegate.hasNext();
-    } else {
-      return true;
-    }
   }
 
   @Override
-  public synchronized EventEnvelope next() {
+  public EventEnvelope next() {
     if (!hasNext()) {
       throw new NoSuchElementException();
     }
 
-    final EventEnvelope event;
-
-    if (knownEvents.isEmpty()) {
-      event = delegate.next();
-    } else {
-      event = knownEvents.remove();
+    EventEnvelope event = knownEvents.poll();
+    if (event == null) {
+      delegateLock.lock();
+      try {
+        event = knownEvents.poll();
+        if (event == null) {
+          event = delegate.next();
+        }
+      } finally {
+        delegateLock.unlock();
+      }
     }
 
     lastTimeRead = event.time();
     return event;
   }
 
+  private void signal() {
+    final Thread reader = waiter;
+    if (reader != null) {
+      LockSupport.unpark(reader);
+    }
+  }
+
   /**
    * A bit different docstring than AppendIterator; here {@code next()} is guaranteed to eventually
    * return the appended events, in sequence, after knownEvents are exhausted first.
    */
-  public synchronized EventEnvelope appendOrPeek(final EventEnvelope event) {
-    final EventEnvelope actualEvent = delegate.appendOrPeek(event);
-    if (actualEvent == event) {
-      lastTimeEmitted = event.time();
+  public EventEnvelope appendOrPeek(final EventEnvelope event) {
+    final EventEnvelope actualEvent;
+    delegateLock.lock();
+    try {
+      actualEvent = delegate.appendOrPeek(event);
+      if (actualEvent == event) {
+        lastTimeEmitted = event.time();
+      }
+      if (actualEvent != delegate.next()) { // note side effects
+        throw new InternalException(
+            "delegate violated appendOrPeek contract - next() should have returned the peeked event");
+      }
+      knownEvents.offer(actualEvent);
+    } finally {
+      delegateLock.unlock();
     }
-    if (actualEvent != delegate.next()) { // note side effects
-      throw new InternalException(
-          "delegate violated appendOrPeek contract - next() should have returned the peeked event");
+    signal();
+    return actualEvent;
+  }
+
+  /**
+   * Like appendOrPeek, for a contiguous run of events appended all or nothing. If appended, {@code
+   * next()} returns all of them in sequence.
+   */
+  public EventEnvelope appendAllOrPeek(final List<EventEnvelope> events) {
+    final EventEnvelope actualEvent;
+    delegateLock.lock();
+    try {
+      actualEvent = delegate.appendAllOrPeek(events);
+      if (actualEvent == events.getFirst()) {
+        for (EventEnvelope event : events) {
+          if (event != delegate.next()) { // note side effects
+            throw new InternalException(
+                "delegate violated appendAllOrPeek contract - next() should have returned the appended events");
+          }
+        }
+        lastTimeEmitted = events.getLast().time();
+        for (EventEnvelope event : events) {
+          knownEvents.offer(event);
+        }
+      } else {
+        if (actualEvent != delegate.next()) { // note side effects
+          throw new InternalException(
+              "delegate violated appendAllOrPeek contract - next() should have returned the peeked event");
+        }
+        knownEvents.offer(actualEvent);
+      }
+    } finally {
+      delegateLock.unlock();
     }
-    knownEvents.add(actualEvent);
-    notify();
+    signal();
     return actualEvent;
   }
 
+  /**
+   * @return the time of the event being handled by the current thread, i.e. the event read last,
+   *     unless set otherwise by beginHandling()
+   */
+  public EventTime currentTime() {
+    final Handling current = handling.get();
+    return (current == null ? lastTimeRead : current.time);
+  }
+
+  /**
+   * Makes the current thread buffer consequential events separately, on behalf of the event at the
+   * given time, until endHandling(). For handling events concurrently with reading further.
+   */
+  public void beginHandling(final EventTime time) {
+    handling.set(new Handling(time));
+  }
+
+  /**
+   * @return the consequential events buffered since beginHandling(), to be passed to
+   *     flushConsequential() in the order the events were read
+   */
+  public List<EventEnvelope> endHandling() {
+    final Handling current = handling.get();
+    handling.remove();
+    return current.pendingConsequential;
+  }
+
+  /** Buffers a consequential event, to be appended by flushConsequential(). */
+  public void addConsequential(final EventEnvelope event) {
+    final Handling current = handling.get();
+    if (current != null) {
+      current.pendingConsequential.add(event);
+      return;
+    }
+    pendingConsequential.add(event);
+  }
+
+  /**
+   * @return the time after which the next consequential event of the handler in progress goes
+   */
+  public EventTime prevTimeConsequential() {
+    final Handling current = handling.get();
+    if (current != null) {
+      return (current.pendingConsequential.isEmpty()
+          ? current.time
+          : current.pendingConsequential.getLast().time());
+    }
+    EventTime prevTime = lastTimeRead;
+    if (lastTimeEmitted.compareTo(prevTime) > 0) {
+      prevTime = lastTimeEmitted;
+    }
+    if (!pendingConsequential.isEmpty()
+        && pendingConsequential.getLast().time().compareTo(prevTime) > 0) {
+      prevTime = pendingConsequential.getLast().time();
+    }
+    return prevTime;
+  }
+
+  /**
+   * Appends the consequential events buffered, as one run, unless they are in the log already.
+   * Where the store cannot append runs, they are appended one at a time, so other events may land
+   * in between.
+   *
+   * <p>The latter is normal when replaying, or when a redundant instance has appended them first.
+   * As they come from an event handler, the events found in the log must be equal to the ones
+   * buffered.
+   *
+   * @return the events appended by this call
+   * @throws IllegalStateException if a different event is found in place of a consequential event
+   */
+  public List<EventEnvelope> flushConsequential() {
+    final List<EventEnvelope> events = List.copyOf(pendingConsequential);
+    pendingConsequential.clear();
+    return flushConsequential(events);
+  }
+
+  /**
+   * Like flushConsequential(), for events buffered between beginHandling() and endHandling(). To be
+   * called by the reader, right after reading the event that they are consequences of, or the ones
+   * found in the log after it so far.
+   */
+  public List<EventEnvelope> flushConsequential(final List<EventEnvelope> events) {
+    delegateLock.lock();
+    try {
+      List<EventEnvelope> rest = events;
+      // appended but not read yet, so in the log right after the events read
+      for (int i = 0; !rest.isEmpty(); i++) {
+        final EventEnvelope actual = knownEvents.peek(i);
+        if (actual == null) {
+          break;
+        }
+        checkConsequential(rest.getFirst(), actual);
+        rest = rest.subList(1, rest.size());
+      }
+      final List<EventEnvelope> appended = new ArrayList<>();
+      while (!rest.isEmpty()) {
+        final EventEnvelope wanted = rest.getFirst();
+        final List<EventEnvelope> run = (appendsRuns ? rest : rest.subList(0, 1));
+        final EventEnvelope actual;
+        try {
+          actual = appendAllOrPeek(run);
+        } catch (UnsupportedOperationException e) {
+          if (run.size() == 1) {
+            throw e;
+          }
+          appendsRuns = false;
+          continue;
+        }
+        if (actual == wanted) {
+          // we actually appended
+          appended.addAll(run);
+          rest = rest.subList(run.size(), rest.size());
+        } else {
+          checkConsequential(wanted, actual);
+          rest = rest.subList(1, rest.size());
+        }
+      }
+      return appended;
+    } finally {
+      delegateLock.unlock();
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the event found in the log differs from the one buffered
+   */
+  static void checkConsequential(final EventEnvelope wanted, final EventEnvelope actual) {
+    if (!actual.equals(wanted)) {
+      throw new IllegalStateException(
+          "Could not emit consequential event "
+              + wanted.time()
+              + ": unexpected event in log "
+              + actual.time()
+              + " - possible nondeterminism in handler code, or corrupt log");
+    }
+  }
+
   @Override
   public String toString() {
     return getClass().getSimpleName() + "(" + delegate + ")";
@@ -1,5 +1,7 @@
 package io.ulzha.spive.lib;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -10,9 +12,28 @@ import java.util.concurrent.locks.ReentrantLock;
  * an input event and its eventual consequential event destined for the same log. (Otherwise event
  * handler behavior would become nondeterministic due to nondeterministic results of _their_ emit()
  * calls.)
+ *
+ * <p>Lane threads of a PartitionedEventLoop run handlers under the hold of the loop thread, which
+ * keeps the lock for as long as any of them are busy. Consequential emits from lanes therefore
+ * neither lock nor unlock.
  */
 public class EventLock {
   private final ReentrantLock spontaneousAppendLock = new ReentrantLock(true);
+  private final Set<Thread> proxies = ConcurrentHashMap.newKeySet();
+
+  /** Makes the current thread act under the hold of another one, until removeProxy(). */
+  void addProxy() {
+    proxies.add(Thread.currentThread());
+  }
+
+  void removeProxy() {
+    proxies.remove(Thread.currentThread());
+  }
+
+  /** Whether workloads are waiting to emit, so that the holder should let go soon. */
+  boolean hasWaiters() {
+    return spontaneousAppendLock.hasQueuedThreads();
+  }
 
   /** Sets hold count to one unless we already hold it. */
   public void lock() {
@@ -33,10 +54,14 @@ public class EventLock {
    * until the corresponding consecutive event has been handled too.
    */
   public void lockConsequential() {
-    spontaneousAppendLock.lock();
+    if (!proxies.contains(Thread.currentThread())) {
+      spontaneousAppendLock.lock();
+    }
   }
 
   public void unlock() {
-    spontaneousAppendLock.unlock();
+    if (!proxies.contains(Thread.currentThread())) {
+      spontaneousAppendLock.unlock();
+    }
   }
 }
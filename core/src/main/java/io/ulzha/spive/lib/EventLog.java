@@ -2,11 +2,15 @@ package io.ulzha.spive.lib;
 
 import io.ulzha.spive.core.BigtableEventStore;
 import io.ulzha.spive.core.LocalFileSystemEventStore;
+import io.ulzha.spive.core.ObjectStoreEventStore;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An append-only durable data structure, totally ordered by event time. (Akin to a Kafka partition,
@@ -48,6 +52,10 @@ public interface EventLog extends Iterable<EventEnvelope>, AutoCloseable {
         return new BigtableEventStore(connectionString);
         // should validate immediately? (as opposed to validating late, at an openLog attempt)
         // throw new RuntimeException("Failed to connect to event store", e);
+      } else if (connectionString.startsWith("io.ulzha.spive.core.ObjectStoreEventStore;")) {
+        return new ObjectStoreEventStore(connectionString);
+      } else if (connectionString.startsWith("io.ulzha.spive.lib.InMemoryEventStore;")) {
+        return new InMemoryEventStore(connectionString);
       } else {
         throw new InternalException(
             "No such event store: "
@@ -91,11 +99,75 @@ public interface EventLog extends Iterable<EventEnvelope>, AutoCloseable {
       throw new UnsupportedOperationException("appendOrPeek");
     }
 
+    /**
+     * Like {@code appendOrPeek}, but for a contiguous run of events, appended all or nothing.
+     *
+     * @param events in strictly increasing order of event time
+     * @return the first of {@code events} if the iterator was at the end of the log, and all of
+     *     {@code events} were appended directly after. Then {@code events} are also guaranteed to
+     *     be returned by the subsequent {@code next()} calls. Otherwise the actual next element
+     *     read from the store, as with {@code appendOrPeek}, and none of {@code events} was
+     *     appended.
+     * @throws UnsupportedOperationException if this iterator is read-only, or does not support
+     *     appending more than one event at a time
+     * @throws IllegalArgumentException if {@code events} are not in order, or if the first event
+     *     time <= the event time of the latest event returned from this iterator's {@code next()}
+     * @throws IllegalStateException if the iterator is at the end of the log and the log is closed
+     */
+    default EventEnvelope appendAllOrPeek(List<EventEnvelope> events) {
+      if (events.size() == 1) {
+        return appendOrPeek(events.getFirst());
+      }
+      throw new UnsupportedOperationException("appendAllOrPeek");
+    }
+
+    /** Already done, for onAvailable() to return when events are available. */
+    CompletableFuture<Void> AVAILABLE = CompletableFuture.completedFuture(null);
+
+    /**
+     * Non-blocking, unlike hasNext().
+     *
+     * @return true if hasNext() would block, waiting for more events to be appended
+     */
     boolean wouldBlock();
+
+    /**
+     * Readiness signal, for waiting at the end of the log without blocking in this iterator, e.g.
+     * while also waiting for events from elsewhere (as EventIterator does).
+     *
+     * <p>Meant to cost no more than a field check while events are available. Otherwise
+     * implementations rely on notifications native to the underlying store, falling back to polling
+     * where the store has none. The default implementation polls wouldBlock().
+     *
+     * @return a future that is done once hasNext() would not block on more events being appended -
+     *     AVAILABLE if it would not block now. A future that is not done yet may complete
+     *     spuriously, so onAvailable() is to be checked again after it completes, but one returned
+     *     done guarantees that hasNext() would not block. Callers must not complete it.
+     */
+    default CompletableFuture<Void> onAvailable() {
+      if (!wouldBlock()) {
+        return AVAILABLE;
+      }
+      return new CompletableFuture<Void>().completeOnTimeout(null, 10, TimeUnit.MILLISECONDS);
+    }
   }
 
   public AppendIterator iterator();
 
+  /**
+   * Opens an iterator positioned after the latest event with time <= from, such as when resuming
+   * from a checkpoint.
+   *
+   * <p>The default implementation reads from the start and skips; implementations may seek more
+   * efficiently.
+   *
+   * @return an iterator whose {@code next()} returns the earliest event with time > from, and whose
+   *     {@code appendOrPeek()} validates against the latest event with time <= from.
+   */
+  default AppendIterator iterator(EventTime from) {
+    return new SkippingAppendIterator(iterator(), from);
+  }
+
   /* unclear if needed:
    * Tries to append event to the end of the log.
    *
@@ -156,4 +228,62 @@ public interface EventLog extends Iterable<EventEnvelope>, AutoCloseable {
    * @throws IllegalStateException if the log is closed.
    */
   boolean appendIfPrevTimeMatch(EventEnvelope event, EventTime prevTime) throws IOException;
+
+  /**
+   * Like appendIfPrevTimeMatch, but for a contiguous run of events, appended all or nothing.
+   *
+   * <p>Saves a round trip per event, for example when an event handler emits several consequential
+   * events, or when copying a log.
+   *
+   * <p>This method is thread-safe.
+   *
+   * @param events in strictly increasing order of event time
+   * @param prevTime the time of the event preceding the first of events
+   * @return true if all the events were appended directly after the event that had time of
+   *     prevTime, false if none was, because the latest stored Event has time > prevTime.
+   * @throws IllegalArgumentException if events are not in order, or if the first event time <=
+   *     prevTime, or if the latest stored Event has time < prevTime.
+   * @throws IllegalStateException if the log is closed.
+   * @throws UnsupportedOperationException if the implementation cannot append more than one event
+   *     at a time
+   */
+  default boolean appendAllIfPrevTimeMatch(List<EventEnvelope> events, EventTime prevTime)
+      throws IOException {
+    if (events.size() == 1) {
+      return appendIfPrevTimeMatch(events.getFirst(), prevTime);
+    }
+    throw new UnsupportedOperationException("appendAllIfPrevTimeMatch");
+  }
+
+  /**
+   * @return time, if it comes strictly after latestTime, or else the earliest time after latestTime
+   *     - one tiebreaker later, or one nanosecond later when tiebreakers run out
+   */
+  static EventTime adjustTime(final EventTime time, final EventTime latestTime) {
+    if (latestTime == null || time.compareTo(latestTime) > 0) {
+      return time;
+    }
+    if (latestTime.tiebreaker < 999999999) {
+      return new EventTime(latestTime.instant, latestTime.tiebreaker + 1);
+    }
+    return new EventTime(latestTime.instant.plusNanos(1), 0);
+  }
+
+  /**
+   * @throws IllegalArgumentException unless events is nonempty and in strictly increasing order of
+   *     event time after prevTime
+   */
+  static void checkRun(final List<EventEnvelope> events, final EventTime prevTime) {
+    if (events.isEmpty()) {
+      throw new IllegalArgumentException("events must not be empty");
+    }
+    EventTime time = prevTime;
+    for (EventEnvelope event : events) {
+      if (event.time().compareTo(time) <= 0) {
+        throw new IllegalArgumentException(
+            "event times must be strictly increasing, starting after prevTime");
+      }
+      time = event.time();
+    }
+  }
 }
@@ -2,22 +2,54 @@ package io.ulzha.spive.lib;
 
 import jakarta.json.bind.Jsonb;
 import jakarta.json.bind.JsonbBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Types should not undergo breaking changes in their serde logic; any new functionality should be
  * implemented as a new Type, even though the output type of deserialize() in the programming
  * language may stay the same.
+ *
+ * <p>Two formats are supported, told apart by the prefix of the tag: "pojo:" for reflective JSON-B,
+ * and "bin1:" for the compact binary encoding of generated BinaryCodecs. A "bin1:" payload is
+ * carried in envelopes as a base64 JSON string, so logs stay valid JSON lines either way. Base64
+ * inflates it by a third, which still tends to undercut JSON-B as field names are not repeated in
+ * every event; carrying the raw bytes would take a binary envelope format in the event logs.
  */
 public class EventSerde {
+  // Serdes are cached per classloader, as one and the same tag may resolve to different classes in
+  // different applications run side by side (such as in BasicRunner). Values reference their
+  // classes and so keep the classloaders reachable, hence eviction is explicit.
+  private static final Map<ClassLoader, Map<String, EventSerde>> REGISTRY =
+      new ConcurrentHashMap<>();
+
   private final String tag;
 
   public final Class<?> type;
 
+  // exactly one of the two is set
   private final Jsonb jsonb;
+  private final BinaryCodec<Object> codec;
+
+  @SuppressWarnings("unchecked")
+  private EventSerde(String tag, BinaryCodec<?> codec) {
+    this.tag = tag;
+    this.type = codec.type();
+    this.jsonb = null;
+    this.codec = (BinaryCodec<Object>) codec;
+  }
 
   private EventSerde(String tag, Class<?> type) {
     this.tag = tag;
     this.type = type;
+    this.codec = null;
     // An implementation, such as EventTimeJsonbSerde, should be packaged with spive.app or
     // spive.lib somehow... Now we leech it off basic-runner. FIXME
     if (tag.equals("pojo:io.ulzha.spive.app.events.InstanceProgress")) {
@@ -41,38 +73,180 @@ public class EventSerde {
    *
    * <p>(Maybe, instead of dynamic loading, always just generate and plop a lib of types in
    * app.spive.gen, as source or as a jar?)
+   *
+   * <p>Resolves the type in the context classloader of the calling thread, if set. Serdes are
+   * thread-safe and cached, so the same instance is returned for the same tag and classloader.
    */
   public static EventSerde forTypeTag(final String tag) {
+    return forTypeTag(tag, contextLoader());
+  }
+
+  public static EventSerde forTypeTag(final String tag, final ClassLoader loader) {
+    final Map<String, EventSerde> serdes =
+        REGISTRY.computeIfAbsent(loader, k -> new ConcurrentHashMap<>());
+    final EventSerde serde = serdes.get(tag);
+    // not computeIfAbsent, as class initialization may look up further serdes
+    return (serde == null ? cache(serdes, create(tag, loader)) : serde);
+  }
+
+  private static ClassLoader contextLoader() {
+    final ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+    return (contextLoader == null ? EventSerde.class.getClassLoader() : contextLoader);
+  }
+
+  private static EventSerde cache(final Map<String, EventSerde> serdes, final EventSerde serde) {
+    final EventSerde raced = serdes.putIfAbsent(serde.tag, serde);
+    return (raced == null ? serde : raced);
+  }
+
+  private static EventSerde create(final String tag, final ClassLoader loader) {
     if (tag.startsWith("pojo:")) {
       final String name = tag.substring(5);
       try {
-        Class<?> type = Class.forName(name);
+        Class<?> type = Class.forName(name, true, loader);
         return new EventSerde(tag, type);
       } catch (ClassNotFoundException e) {
         throw new InternalException(String.format("Unexpected class name: %s", name), e);
       }
+    } else if (tag.startsWith("bin1:")) {
+      throw new InternalException(
+          String.format(
+              "No codec registered for %s - expected generated output gateway to register it",
+              tag));
     } else {
       throw new InternalException(String.format("Unexpected type prefix: %s", tag));
     }
   }
 
+  /**
+   * Registers a generated codec for forTypeTag() to return, under the context classloader of the
+   * calling thread, if set - the same one that forTypeTag() looks it up in.
+   *
+   * @return the serde registered for the tag, possibly earlier
+   */
+  public static EventSerde forCodec(final String tag, final BinaryCodec<?> codec) {
+    return forCodec(tag, codec, contextLoader());
+  }
+
+  public static EventSerde forCodec(
+      final String tag, final BinaryCodec<?> codec, final ClassLoader loader) {
+    if (!tag.equals("bin1:" + codec.type().getName())) {
+      throw new InternalException(
+          String.format("Unexpected tag %s for codec of %s", tag, codec.type().getName()));
+    }
+    final Map<String, EventSerde> serdes =
+        REGISTRY.computeIfAbsent(loader, k -> new ConcurrentHashMap<>());
+    final EventSerde serde = serdes.get(tag);
+    return (serde == null ? cache(serdes, new EventSerde(tag, codec)) : serde);
+  }
+
+  /**
+   * Forgets the serdes resolved in the given classloader, for it to be garbage collected once the
+   * application using it stops.
+   */
+  public static void evict(final ClassLoader loader) {
+    REGISTRY.remove(loader);
+  }
+
   public String getTag() {
     return tag;
   }
 
   public String serialize(Object payload) {
     try {
-      return jsonb.toJson(payload, type);
+      if (codec == null) {
+        return jsonb.toJson(payload, type);
+      }
+      if (payload == null) {
+        return "null";
+      }
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      codec.write(payload, new DataOutputStream(bytes));
+      return '"' + Base64.getEncoder().encodeToString(bytes.toByteArray()) + '"';
     } catch (Exception e) {
       throw new InternalException("Failed to serialize " + tag, e);
     }
   }
 
   public Object deserialize(String s) {
+    if (codec != null) {
+      return deserialize(ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII)));
+    }
     try {
       return jsonb.fromJson(s, type);
     } catch (Exception e) {
       throw new InternalException("Failed to deserialize " + tag, e);
     }
   }
+
+  /**
+   * Deserializes straight from UTF-8 bytes, between position and limit of the buffer, sparing the
+   * intermediate String.
+   */
+  public Object deserialize(ByteBuffer bytes) {
+    try {
+      if (codec == null) {
+        return jsonb.fromJson(new ByteBufferInputStream(bytes), type);
+      }
+      return decode(bytes);
+    } catch (Exception e) {
+      throw new InternalException("Failed to deserialize " + tag, e);
+    }
+  }
+
+  /** Unwraps the base64 JSON string, and reads the binary encoding within. */
+  private Object decode(final ByteBuffer bytes) throws Exception {
+    int start = bytes.position();
+    int end = bytes.limit();
+    while (start < end && bytes.get(start) <= ' ') {
+      start++;
+    }
+    while (end > start && bytes.get(end - 1) <= ' ') {
+      end--;
+    }
+    if (end - start == 4 && bytes.get(start) == 'n') {
+      return null;
+    }
+    if (end - start < 2 || bytes.get(start) != '"' || bytes.get(end - 1) != '"') {
+      throw new IllegalArgumentException("Expected a base64 JSON string");
+    }
+    final ByteBuffer binary = Base64.getDecoder().decode(bytes.slice(start + 1, end - start - 2));
+    final DataInputStream in = new DataInputStream(new ByteBufferInputStream(binary));
+    final Object payload = codec.read(in);
+    if (binary.hasRemaining()) {
+      throw new IllegalArgumentException(binary.remaining() + " trailing bytes");
+    }
+    return payload;
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return (buffer.hasRemaining() ? buffer.get() & 0xff : -1);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
 }
@@ -1,44 +1,209 @@
 package io.ulzha.spive.lib;
 
 import jakarta.annotation.Nonnull;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
-/** For testing and debugging. */
+/**
+ * Keeps events in memory, for testing and debugging, as well as for local runs of whole pipelines
+ * at memory speed (see InMemoryEventStore).
+ *
+ * <p>Events are stored in an append-only linked list of fixed size chunks, so stored references
+ * never move. An append claims the slot at the published length by compare-and-set, fills in the
+ * rest of its run (which nobody else can claim meanwhile), and then publishes the new length. Hence
+ * appends are lock-free, and readers are wait-free, never looking past the published length.
+ *
+ * <p>Readers at the end of the log park until woken up by an append, or have their onAvailable()
+ * futures completed by it.
+ *
+ * <p>When closed for appending, a sentinel is stored after the last event.
+ */
 public class InMemoryEventLog implements EventLog {
-  private List<EventEnvelope> list = new ArrayList<>();
+  private static final int CHUNK_SIZE = 1024;
+  // compared by reference
+  private static final EventEnvelope CLOSED =
+      new EventEnvelope(EventTime.INFINITE_PAST, null, null, null);
+
+  private static final class Chunk {
+    final int base;
+    final AtomicReferenceArray<EventEnvelope> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+    final AtomicReference<Chunk> next = new AtomicReference<>();
+
+    Chunk(final int base) {
+      this.base = base;
+    }
+  }
+
+  private final Chunk head = new Chunk(0);
+  // the chunk appended to last, to not walk the list from the head every time
+  private volatile Chunk tailChunk = head;
+  // of slots filled, including the CLOSED sentinel
+  private volatile int length = 0;
+  private final Set<Thread> waiters = ConcurrentHashMap.newKeySet();
+  private final Set<CompletableFuture<Void>> awaitingAppend = ConcurrentHashMap.newKeySet();
+  private final AppendCounters appendCounters = new AppendCounters();
+
+  /**
+   * @return the chunk holding the slot at index, appending chunks if necessary
+   */
+  private Chunk chunkFor(final int index) {
+    Chunk chunk = tailChunk;
+    if (chunk.base > index) {
+      chunk = head;
+    }
+    while (index >= chunk.base + CHUNK_SIZE) {
+      Chunk next = chunk.next.get();
+      if (next == null) {
+        chunk.next.compareAndSet(null, new Chunk(chunk.base + CHUNK_SIZE));
+        next = chunk.next.get();
+      }
+      chunk = next;
+    }
+    if (chunk.base > tailChunk.base) {
+      tailChunk = chunk;
+    }
+    return chunk;
+  }
+
+  /**
+   * Stores events from index on, and publishes them.
+   *
+   * @return false if the slot at index is taken already
+   */
+  private boolean tryAppend(final int index, final List<EventEnvelope> events) {
+    Chunk chunk = chunkFor(index);
+    if (!chunk.slots.compareAndSet(index - chunk.base, null, events.getFirst())) {
+      return false;
+    }
+    // the following slots are ours, as nobody else appends before the length is published
+    for (int i = 1; i < events.size(); i++) {
+      chunk = chunkFor(index + i);
+      chunk.slots.set(index + i - chunk.base, events.get(i));
+    }
+    length = index + events.size();
+    for (Thread waiter : waiters) {
+      LockSupport.unpark(waiter);
+    }
+    for (CompletableFuture<Void> available : awaitingAppend) {
+      awaitingAppend.remove(available);
+      available.complete(null);
+    }
+    return true;
+  }
+
+  /**
+   * @return the chunk holding the slot at index, which must be below the published length
+   */
+  private static Chunk seek(Chunk chunk, final int index) {
+    while (index >= chunk.base + CHUNK_SIZE) {
+      chunk = chunk.next.get();
+    }
+    return chunk;
+  }
+
+  /** Only for indices below the published length, near its end. */
+  private EventEnvelope get(final int index) {
+    final Chunk chunk = chunkFor(index);
+    return chunk.slots.get(index - chunk.base);
+  }
+
+  /**
+   * @return the time of the last event, or INFINITE_PAST if none
+   * @throws IllegalStateException if the log is closed
+   */
+  private EventTime lastTime(final int length) {
+    if (length == 0) {
+      return EventTime.INFINITE_PAST;
+    }
+    final EventEnvelope last = get(length - 1);
+    if (last == CLOSED) {
+      throw new IllegalStateException("log is closed");
+    }
+    return last.time();
+  }
 
   @Override
-  public EventTime appendAndGetAdjustedTime(final EventEnvelope event) throws IOException {
-    throw new UnsupportedOperationException("not implemented");
+  public EventTime appendAndGetAdjustedTime(final EventEnvelope event) {
+    while (true) {
+      final int n = length;
+      final EventTime time = EventLog.adjustTime(event.time(), lastTime(n));
+      if (tryAppend(n, List.of(event.withTime(time)))) {
+        appendCounters.onAppended(event.time(), time);
+        return time;
+      }
+      appendCounters.onConflict();
+      appendCounters.onRetry();
+      // the winner is about to publish
+      while (length == n) {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  /** For monitoring contention on appendAndGetAdjustedTime(). */
+  public AppendCounters appendCounters() {
+    return appendCounters;
   }
 
   @Override
-  public synchronized boolean appendIfPrevTimeMatch(
-      final EventEnvelope event, final EventTime prevTime) {
+  public boolean appendIfPrevTimeMatch(final EventEnvelope event, final EventTime prevTime) {
     if (event.time().compareTo(prevTime) <= 0) {
       throw new IllegalArgumentException("event time must come strictly after prevTime");
     }
+    return appendAllIfPrevTimeMatch(List.of(event), prevTime);
+  }
 
-    if (list.isEmpty() && EventTime.INFINITE_PAST.compareTo(prevTime) < 0) {
+  @Override
+  public boolean appendAllIfPrevTimeMatch(
+      final List<EventEnvelope> events, final EventTime prevTime) {
+    EventLog.checkRun(events, prevTime);
+
+    final int n = length;
+    final EventTime latestTime = lastTime(n);
+    if (n == 0 && EventTime.INFINITE_PAST.compareTo(prevTime) < 0) {
       throw new IllegalArgumentException(
           "prevTime must be set to INFINITE_PAST, when appending the first event");
-    } else if (!list.isEmpty() && list.get(list.size() - 1).time().compareTo(prevTime) < 0) {
+    } else if (latestTime.compareTo(prevTime) < 0) {
       throw new IllegalArgumentException(
           "prevTime must be set to previous event time read, when appending a subsequent event");
     }
 
-    if (!list.isEmpty() && list.get(list.size() - 1).time().compareTo(prevTime) > 0) {
+    if (latestTime.compareTo(prevTime) > 0) {
       return false;
     }
 
-    list.add(event);
-    return true;
+    if (tryAppend(n, events)) {
+      return true;
+    }
+    if (get(n) == CLOSED) {
+      throw new IllegalStateException("log is closed");
+    }
+    // taken by an event after prevTime
+    return false;
+  }
+
+  /**
+   * Stores the sentinel, after which no more events can be appended, and iterators reaching it
+   * finish.
+   *
+   * @throws IllegalStateException if closed already
+   */
+  public void closeForAppending() {
+    int n;
+    do {
+      n = length;
+      lastTime(n);
+    } while (!tryAppend(n, List.of(CLOSED)));
   }
 
+  /** Keeps the events, for as long as the log object is referenced. */
   @Override
   public void close() {}
 
@@ -49,18 +214,66 @@ public class InMemoryEventLog implements EventLog {
   }
 
   private class AppendIteratorImpl implements AppendIterator {
-    private int i = 0;
+    // of the next event to read
+    private int position = 0;
+    private Chunk chunk = head;
+    private EventEnvelope prevEvent;
+    private EventEnvelope nextEvent;
+    // returned by onAvailable(), until completed by an append
+    private CompletableFuture<Void> nextAppend;
+
+    /** Parks until something is published at position. */
+    private void awaitPosition() {
+      while (length <= position) {
+        final Thread thread = Thread.currentThread();
+        waiters.add(thread);
+        try {
+          // checking again after registering, so as to not miss a wakeup
+          if (length <= position) {
+            LockSupport.park(InMemoryEventLog.this);
+          }
+        } finally {
+          waiters.remove(thread);
+        }
+        if (Thread.interrupted()) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(new InterruptedException());
+        }
+      }
+    }
 
     @Override
     public boolean wouldBlock() {
-      // FIXME
-      return false;
+      return nextEvent == null && length <= position;
     }
 
+    @Override
+    public CompletableFuture<Void> onAvailable() {
+      if (!wouldBlock()) {
+        return AVAILABLE;
+      }
+      if (nextAppend == null || nextAppend.isDone()) {
+        nextAppend = new CompletableFuture<>();
+        awaitingAppend.add(nextAppend);
+      }
+      // checking again after registering, so as to not miss an append
+      return (wouldBlock() ? nextAppend : AVAILABLE);
+    }
+
+    /** Will block after the last event until more events are appended or the log is closed. */
     @Override
     public boolean hasNext() {
-      // FIXME block and null terminate
-      return i < list.size();
+      if (nextEvent == null) {
+        awaitPosition();
+        chunk = seek(chunk, position);
+        final EventEnvelope event = chunk.slots.get(position - chunk.base);
+        if (event == CLOSED) {
+          return false;
+        }
+        position++;
+        nextEvent = event;
+      }
+      return true;
     }
 
     @Override
@@ -68,33 +281,54 @@ public class InMemoryEventLog implements EventLog {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
-      return list.get(i++);
+      prevEvent = nextEvent;
+      nextEvent = null;
+      return prevEvent;
     }
 
     @Override
     public EventEnvelope appendOrPeek(EventEnvelope event) {
-      final EventTime prevTime = (i == 0 ? EventTime.INFINITE_PAST : list.get(i - 1).time());
-      if (InMemoryEventLog.this.appendIfPrevTimeMatch(event, prevTime)) {
-        return event;
-      } else {
-        return list.get(i);
+      return appendAllOrPeek(List.of(event));
+    }
+
+    /** Claims the slot at this iterator's position, so no time comparisons are needed. */
+    @Override
+    public EventEnvelope appendAllOrPeek(List<EventEnvelope> events) {
+      final EventTime prevTime = (prevEvent == null ? EventTime.INFINITE_PAST : prevEvent.time());
+      EventLog.checkRun(events, prevTime);
+
+      if (nextEvent == null && length == position && tryAppend(position, events)) {
+        return events.getFirst();
+      }
+      // if the slot was taken, its appender is about to publish it
+      if (!hasNext()) {
+        throw new IllegalStateException("log is closed");
       }
+      return nextEvent;
     }
   }
 
   /** for testing only */
   public List<Object> asPayloadList() {
-    return list.stream()
-        .map(event -> EventSerde.forTypeTag(event.typeTag()).deserialize(event.serializedPayload()))
-        .collect(Collectors.toList());
+    final int n = length;
+    final List<Object> payloads = new ArrayList<>(n);
+    Chunk chunk = head;
+    for (int i = 0; i < n; i++) {
+      chunk = seek(chunk, i);
+      final EventEnvelope event = chunk.slots.get(i - chunk.base);
+      if (event != CLOSED) {
+        payloads.add(EventSerde.forTypeTag(event.typeTag()).deserialize(event.serializedPayload()));
+      }
+    }
+    return payloads;
   }
 
   /** for testing only */
   public EventTime latestEventTime() {
-    if (list.isEmpty()) {
-      return EventTime.INFINITE_PAST;
-    } else {
-      return list.get(list.size() - 1).time();
+    final int n = length;
+    if (n > 0 && get(n - 1) == CLOSED) {
+      return lastTime(n - 1);
     }
+    return lastTime(n);
   }
 }
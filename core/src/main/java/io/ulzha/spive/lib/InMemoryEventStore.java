@@ -0,0 +1,39 @@
+package io.ulzha.spive.lib;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps streams in memory of this process, as per InMemoryEventLog, for running whole pipelines
+ * locally at memory speed, in development and in benchmarks.
+ *
+ * <p>Nothing is persisted. Logs live for as long as the store, which EventLog.open() keeps one of
+ * per connection string, so instances named alike share their logs.
+ */
+public final class InMemoryEventStore implements EventStore {
+  private static final Pattern CONNECTION_STRING_RE = Pattern.compile(".+" + ";name=([^;]+)" + "$");
+
+  private final Map<UUID, InMemoryEventLog> eventLogs = new ConcurrentHashMap<>();
+
+  /**
+   * Format supported:
+   *
+   * <p>
+   *
+   * <ul>
+   *   <li>name=dev - an arbitrary name, distinguishing stores within one process
+   * </ul>
+   */
+  public InMemoryEventStore(final String connectionString) {
+    if (!CONNECTION_STRING_RE.matcher(connectionString).matches()) {
+      throw new InternalException("Unexpected connectionString: " + connectionString);
+    }
+  }
+
+  @Override
+  public InMemoryEventLog openLog(final UUID logId) {
+    return eventLogs.computeIfAbsent(logId, theId -> new InMemoryEventLog());
+  }
+}
@@ -1,17 +1,27 @@
 package io.ulzha.spive.lib;
 
 import io.ulzha.spive.lib.umbilical.UmbilicalWriter;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,24 +89,139 @@ public class InstanceMain {
     }
   }
 
+  /**
+   * Calls the application's accept() overload for the type of event, generated as a switch (see
+   * AppInstance template) so that no reflection is involved on the hot path.
+   */
+  @FunctionalInterface
+  protected interface EventDispatcher<T> {
+    /**
+     * Lets exceptions thrown by the application propagate as is.
+     *
+     * @throws NoSuchMethodException if the application does not handle the type of event
+     */
+    void dispatch(T app, Event event) throws Throwable;
+  }
+
+  /**
+   * Fallback for applications without a generated dispatcher. Looks up accept() reflectively once
+   * per type of event, and caches a MethodHandle.
+   *
+   * <p>Thread-safe, as lanes of a PartitionedEventLoop share it.
+   */
+  private static final class ReflectiveDispatcher<T> implements EventDispatcher<T> {
+    private static final MethodType GENERIC_TYPE =
+        MethodType.methodType(void.class, Object.class, Object.class, EventTime.class);
+
+    private final Map<Class<?>, MethodHandle> handles = new ConcurrentHashMap<>();
+
+    @Override
+    public void dispatch(final T app, final Event event) throws Throwable {
+      MethodHandle handle = handles.get(event.payload.getClass());
+      if (handle == null) {
+        handle = lookup(app.getClass(), event.payload.getClass());
+        handles.put(event.payload.getClass(), handle);
+      }
+      handle.invokeExact((Object) app, event.payload, event.time);
+    }
+
+    /** Prefers accept(payload, eventTime), as generated dispatchers do. */
+    private static MethodHandle lookup(final Class<?> appClass, final Class<?> payloadClass)
+        throws NoSuchMethodException, IllegalAccessException {
+      MethodHandle handle;
+      try {
+        final Method method = appClass.getMethod("accept", payloadClass, EventTime.class);
+        handle = MethodHandles.publicLookup().unreflect(method);
+      } catch (NoSuchMethodException e) {
+        final Method method = appClass.getMethod("accept", payloadClass);
+        handle =
+            MethodHandles.dropArguments(
+                MethodHandles.publicLookup().unreflect(method), 2, EventTime.class);
+      }
+      return handle.asType(GENERIC_TYPE);
+    }
+  }
+
+  /**
+   * Picks PartitionedEventLoop for applications that opt in by implementing PartitionedByKey, and
+   * EventLoop otherwise.
+   */
+  protected static <T> Runnable eventLoop(
+      UmbilicalWriter umbilical,
+      EventIterator eventIterator,
+      T app,
+      EventDispatcher<T> dispatcher,
+      EventLock eventLock) {
+    if (app instanceof PartitionedByKey partitioning && partitioning.lanes() > 1) {
+      return new PartitionedEventLoop<>(
+          umbilical, eventIterator, app, dispatcher, eventLock, partitioning);
+    }
+    return new EventLoop<>(umbilical, eventIterator, app, dispatcher, eventLock);
+  }
+
+  /**
+   * Reports a failure thrown by dispatch().
+   *
+   * @return the exception for the event loop to exit with
+   */
+  private static RuntimeException handlerFailure(
+      final UmbilicalWriter umbilical, final Object app, final Event event, final Throwable t) {
+    if (t instanceof NoSuchMethodException || t instanceof IllegalAccessException) {
+      umbilical.addError(t);
+      return new InternalException(
+          "Error invoking "
+              + app.getClass().getCanonicalName()
+              + ".accept() on "
+              + event.payload.getClass().getCanonicalName()
+              + " - should never happen if, upon creating a process, the artifact was reliably checked.",
+          t);
+    }
+    // cause seems to be in user code... But could be also from a Gateway call
+    // TODO sanity check if gateway exceptions are swallowed by user code
+    umbilical.addError(t);
+    // TODO proceed gracefully actually? Other partitions can be processed so long as the
+    // crashed one sees no subsequent events? If event log stalls, keep serving read requests
+    // for a while? Vice versa as well? Write requests can even be served against the
+    // unaffected partitions?
+    return new HandledException(t);
+  }
+
   protected static class EventLoop<T> implements Runnable {
     private final UmbilicalWriter umbilical;
     private final EventIterator eventIterator;
     private final T app;
+    private final EventDispatcher<T> dispatcher;
     private final EventLock eventLock;
 
     public EventLoop(
-        UmbilicalWriter umbilical, EventIterator eventIterator, T app, EventLock eventLock) {
+        UmbilicalWriter umbilical,
+        EventIterator eventIterator,
+        T app,
+        EventDispatcher<T> dispatcher,
+        EventLock eventLock) {
       this.umbilical = umbilical;
       this.eventIterator = eventIterator;
       this.app = app;
+      this.dispatcher = dispatcher;
       this.eventLock = eventLock;
     }
 
+    /** For applications without a generated dispatcher. */
+    public EventLoop(
+        UmbilicalWriter umbilical, EventIterator eventIterator, T app, EventLock eventLock) {
+      this(umbilical, eventIterator, app, new ReflectiveDispatcher<>(), eventLock);
+    }
+
     @Override
     public void run() {
       LOG.info("EventLoop over {} running", eventIterator);
       while (eventIterator.hasNext()) {
+        // The synchronization here ensures that emitIf runs serially with event handlers, and
+        // that it never runs between an input event and its consequential event when emitted to
+        // the same log. Taken before reading, so that no workload can append right after the
+        // event read.
+        // TODO optimize to forego synchronization when no other workloads are running
+        eventLock.lock();
         final EventEnvelope envelope = eventIterator.next();
         LOG.debug("We have an envelope: {}", envelope);
         final Event event = envelope.unwrap();
@@ -105,40 +230,251 @@ public class InstanceMain {
         // TODO maintain a rolling hash and panic if inconsistency observed?
         umbilical.addHeartbeat();
         try {
-          // The synchronization here ensures that emitIf runs serially with event handlers, and
-          // that it never runs between an input event and its consequential event when emitted to
-          // the same log.
-          // TODO optimize to forego synchronization when no other workloads are running
-          eventLock.lock();
-          app.getClass().getMethod("accept", event.payload.getClass()).invoke(app, event.payload);
-          eventLock.unlock();
-          // There is intentionally no `finally` here. If we ensure unlock after an exception then
-          // that may give workloads a short window before instance death where they can corrupt
-          // the event sequence ahead of an intended consequential event. Leaving them deadlocked
-          // when a handler throws is consistent.
-        } catch (InvocationTargetException ite) {
-          // cause seems to be in user code... But could be also from a Gateway call
-          // TODO sanity check if gateway exceptions are swallowed by user code
-          umbilical.addError(ite.getCause());
-          // TODO proceed gracefully actually? Other partitions can be processed so long as the
-          // crashed one sees no subsequent events? If event log stalls, keep serving read requests
-          // for a while? Vice versa as well? Write requests can even be served against the
-          // unaffected partitions?
-          throw new HandledException(ite.getCause());
-        } catch (NoSuchMethodException | IllegalAccessException e) {
-          umbilical.addError(e);
-          throw new InternalException(
-              "Error invoking "
-                  + app.getClass().getCanonicalName()
-                  + ".accept() on "
-                  + event.getClass().getCanonicalName()
-                  + " - should never happen if, upon creating a process, the artifact was reliably checked.",
-              e);
+          dispatcher.dispatch(app, event);
+        } catch (Throwable t) {
+          throw handlerFailure(umbilical, app, event, t);
         }
+        flushConsequential();
+        eventLock.unlock();
+        // There is intentionally no `finally` here. If we ensure unlock after an exception then
+        // that may give workloads a short window before instance death where they can corrupt the
+        // event sequence ahead of an intended consequential event. Leaving them deadlocked when a
+        // handler throws is consistent.
         umbilical.addSuccess();
       }
       LOG.info("EventLoop over {} completed", eventIterator);
       // end of event log, so just exit normally
     }
+
+    /** Appends the consequential events emitted by the handler, if any, with one round trip. */
+    private void flushConsequential() {
+      final List<EventEnvelope> appended;
+      try {
+        appended = eventIterator.flushConsequential();
+      } catch (RuntimeException e) {
+        umbilical.addError(e);
+        throw new HandledException(e);
+      }
+      for (EventEnvelope event : appended) {
+        umbilical.addOutputEvent(event.time());
+      }
+    }
+  }
+
+  /**
+   * Reads events in log order like EventLoop does, but hands them over to several lanes, a thread
+   * each, by partition key (see PartitionedByKey), in the manner of a sharded executor. So events
+   * of one partition get handled in order, and events of different partitions concurrently.
+   *
+   * <p>Handling gets completed back on the loop thread, in log order: consequential events emitted
+   * on a lane are verified against the events read after their cause, and any remaining ones are
+   * appended, only once all the preceding events have been completed. Hence the log ends up with
+   * the same sequence as with EventLoop, and replays alike.
+   *
+   * <p>The loop thread holds EventLock for as long as any lane is busy. It stops reading ahead, and
+   * lets go once the lanes are idle, whenever workloads wait to emit or the log has no more events.
+   */
+  protected static class PartitionedEventLoop<T> implements Runnable {
+    // bounds the events read ahead of the ones completed, across all lanes
+    private static final int MAX_IN_FLIGHT = 1024;
+
+    private final UmbilicalWriter umbilical;
+    private final EventIterator eventIterator;
+    private final T app;
+    private final EventDispatcher<T> dispatcher;
+    private final EventLock eventLock;
+    private final PartitionedByKey partitioning;
+    private final int nLanes;
+    // in log order
+    private final ArrayDeque<Task> inFlight = new ArrayDeque<>();
+    private Thread loopThread;
+    private boolean locked = false;
+
+    private static final class Task {
+      final EventEnvelope envelope;
+      final Event event;
+      // handled on the loop thread, after all the preceding events are completed
+      final boolean barrier;
+      // set before done
+      List<EventEnvelope> consequential;
+      Throwable failure;
+      volatile boolean done = false;
+
+      Task(final EventEnvelope envelope, final Event event, final boolean barrier) {
+        this.envelope = envelope;
+        this.event = event;
+        this.barrier = barrier;
+      }
+    }
+
+    private final class Lane implements Runnable {
+      final BlockingQueue<Task> tasks = new ArrayBlockingQueue<>(MAX_IN_FLIGHT);
+
+      @Override
+      public void run() {
+        eventLock.addProxy();
+        try {
+          while (true) {
+            handle(tasks.take());
+            LockSupport.unpark(loopThread);
+          }
+        } catch (InterruptedException e) {
+          // the loop has exited
+        } finally {
+          eventLock.removeProxy();
+        }
+      }
+    }
+
+    public PartitionedEventLoop(
+        UmbilicalWriter umbilical,
+        EventIterator eventIterator,
+        T app,
+        EventDispatcher<T> dispatcher,
+        EventLock eventLock,
+        PartitionedByKey partitioning) {
+      this.umbilical = umbilical;
+      this.eventIterator = eventIterator;
+      this.app = app;
+      this.dispatcher = dispatcher;
+      this.eventLock = eventLock;
+      this.partitioning = partitioning;
+      this.nLanes = partitioning.lanes();
+    }
+
+    @Override
+    public void run() {
+      LOG.info("PartitionedEventLoop over {} running with {} lanes", eventIterator, nLanes);
+      loopThread = Thread.currentThread();
+      final List<Lane> lanes = new ArrayList<>();
+      final List<Thread> threads = new ArrayList<>();
+      for (int i = 0; i < nLanes; i++) {
+        final Lane lane = new Lane();
+        final Thread thread = new Thread(lane, loopThread.getName() + "-lane-" + i);
+        thread.setDaemon(true);
+        lanes.add(lane);
+        threads.add(thread);
+        thread.start();
+      }
+
+      try {
+        while (true) {
+          completeDone();
+          if (!inFlight.isEmpty()
+              && (inFlight.size() >= MAX_IN_FLIGHT
+                  || eventLock.hasWaiters()
+                  || eventIterator.wouldBlock())) {
+            awaitOldest();
+            continue;
+          }
+          if (inFlight.isEmpty() && locked) {
+            // at rest, so workloads may emit
+            eventLock.unlock();
+            locked = false;
+          }
+          if (!eventIterator.hasNext()) {
+            break;
+          }
+          if (!locked) {
+            eventLock.lock();
+            locked = true;
+          }
+          final EventEnvelope envelope = eventIterator.next();
+          final Event event = envelope.unwrap();
+          // TODO assert that the event belongs to the intended subset of partitions
+          umbilical.addHeartbeat();
+          final Object key = partitioning.partitionKey(event.payload);
+          final Task task = new Task(envelope, event, key == null);
+          inFlight.add(task);
+          if (task.barrier) {
+            drain();
+          } else {
+            lanes.get(Math.floorMod(key.hashCode(), nLanes)).tasks.add(task);
+          }
+        }
+        drain();
+      } finally {
+        for (Thread thread : threads) {
+          thread.interrupt();
+        }
+        // Like EventLoop, keeps holding the lock when a handler throws.
+      }
+      LOG.info("PartitionedEventLoop over {} completed", eventIterator);
+      // end of event log, so just exit normally
+    }
+
+    private void handle(final Task task) {
+      eventIterator.beginHandling(task.event.time);
+      try {
+        dispatcher.dispatch(app, task.event);
+      } catch (Throwable t) {
+        task.failure = t;
+      }
+      task.consequential = eventIterator.endHandling();
+      task.done = true;
+    }
+
+    /** Waits until the oldest event in flight is handled, handling it here if a barrier. */
+    private void awaitOldest() {
+      final Task oldest = inFlight.getFirst();
+      if (oldest.barrier && !oldest.done) {
+        handle(oldest);
+      }
+      while (!oldest.done) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(new InterruptedException());
+        }
+      }
+    }
+
+    private void drain() {
+      while (!inFlight.isEmpty()) {
+        awaitOldest();
+        completeDone();
+      }
+    }
+
+    /** Completes the events handled so far, up to the first one still in progress. */
+    private void completeDone() {
+      while (!inFlight.isEmpty() && inFlight.getFirst().done) {
+        final Task task = inFlight.removeFirst();
+        // so that umbilical updates concern this event rather than the one read last
+        eventIterator.beginHandling(task.event.time);
+        try {
+          if (task.failure != null) {
+            throw handlerFailure(umbilical, app, task.event, task.failure);
+          }
+          flushConsequential(task.consequential);
+          umbilical.addSuccess();
+        } finally {
+          eventIterator.endHandling();
+        }
+      }
+    }
+
+    /**
+     * Verifies the consequential events against the events read after their cause, which are the
+     * ones still in flight, and appends the rest.
+     */
+    private void flushConsequential(final List<EventEnvelope> consequential) {
+      final List<EventEnvelope> appended;
+      try {
+        List<EventEnvelope> rest = consequential;
+        final Iterator<Task> readAfter = inFlight.iterator();
+        while (!rest.isEmpty() && readAfter.hasNext()) {
+          EventIterator.checkConsequential(rest.getFirst(), readAfter.next().envelope);
+          rest = rest.subList(1, rest.size());
+        }
+        appended = (rest.isEmpty() ? List.of() : eventIterator.flushConsequential(rest));
+      } catch (RuntimeException e) {
+        umbilical.addError(e);
+        throw new HandledException(e);
+      }
+      for (EventEnvelope event : appended) {
+        umbilical.addOutputEvent(event.time());
+      }
+    }
   }
 }
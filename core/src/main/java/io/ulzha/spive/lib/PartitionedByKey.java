@@ -0,0 +1,25 @@
+package io.ulzha.spive.lib;
+
+/**
+ * Opt-in for applications whose in-memory state is partitioned by key, such that the handler of an
+ * event only touches the partition of that event. Instances of such applications handle events on
+ * several lanes concurrently (see InstanceMain.PartitionedEventLoop), instead of one event at a
+ * time.
+ *
+ * <p>Events with equal keys are handled on the same lane, in log order. Events with a null key act
+ * as barriers: they are handled alone, after all the preceding events, and before any subsequent
+ * one, so their handlers may touch the state at large.
+ */
+public interface PartitionedByKey {
+  /**
+   * Called on the event loop thread, so must be cheap and must not depend on mutable state.
+   *
+   * @return the key of the partition that the event belongs to, or null if it spans partitions
+   */
+  Object partitionKey(Object payload);
+
+  /** How many lanes to handle events on. One lane amounts to serial handling. */
+  default int lanes() {
+    return Runtime.getRuntime().availableProcessors();
+  }
+}
@@ -0,0 +1,120 @@
+package io.ulzha.spive.lib;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Skips over the events with time <= from, lazily, so that the first event returned is the earliest
+ * event with time > from.
+ *
+ * <p>Useful for resuming from a checkpoint. The skipping is sequential; an EventLog implementation
+ * may seek its delegate close to {@code from} beforehand, for the skipping to be cheap.
+ *
+ * <p>Skipping does not block, except as part of a blocking {@code hasNext()} or {@code next()}.
+ * Hence {@code wouldBlock()} returns true while the delegate has been exhausted up to {@code from}
+ * and no later events are present, and {@code onAvailable()} returns the delegate's future then.
+ */
+public class SkippingAppendIterator implements EventLog.AppendIterator, AutoCloseable {
+  private final EventLog.AppendIterator delegate;
+  private final EventTime from;
+  private boolean skipped = false;
+  // the first event with time > from, if read from delegate already
+  private EventEnvelope pending;
+
+  public SkippingAppendIterator(final EventLog.AppendIterator delegate, final EventTime from) {
+    this.delegate = delegate;
+    this.from = from;
+  }
+
+  /**
+   * @return true if done skipping
+   */
+  private boolean skip(final boolean blocking) {
+    while (!skipped) {
+      if (!blocking && !delegate.onAvailable().isDone()) {
+        return false;
+      }
+      if (!delegate.hasNext()) {
+        skipped = true;
+      } else {
+        final EventEnvelope event = delegate.next();
+        if (event.time().compareTo(from) > 0) {
+          pending = event;
+          skipped = true;
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean wouldBlock() {
+    if (!skip(false)) {
+      return true;
+    }
+    return pending == null && delegate.wouldBlock();
+  }
+
+  @Override
+  public CompletableFuture<Void> onAvailable() {
+    if (skip(false) && pending != null) {
+      return AVAILABLE;
+    }
+    return delegate.onAvailable();
+  }
+
+  @Override
+  public boolean hasNext() {
+    skip(true);
+    return pending != null || delegate.hasNext();
+  }
+
+  @Override
+  public EventEnvelope next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    if (pending != null) {
+      final EventEnvelope event = pending;
+      pending = null;
+      return event;
+    }
+    return delegate.next();
+  }
+
+  @Override
+  public EventEnvelope appendOrPeek(final EventEnvelope event) {
+    return appendAllOrPeek(List.of(event));
+  }
+
+  @Override
+  public EventEnvelope appendAllOrPeek(final List<EventEnvelope> events) {
+    if (skip(false)) {
+      return (pending != null ? pending : delegate.appendAllOrPeek(events));
+    }
+    if (events.getFirst().time().compareTo(from) <= 0) {
+      throw new IllegalArgumentException("event must have time later than " + from);
+    }
+    // at the tail, and events up to from may still be appended by others
+    EventEnvelope actual;
+    while ((actual = delegate.appendAllOrPeek(events)).time().compareTo(from) <= 0) {
+      delegate.next();
+    }
+    skipped = true;
+    return actual;
+  }
+
+  /** Closes the delegate, if closeable. */
+  @Override
+  public void close() throws Exception {
+    if (delegate instanceof AutoCloseable closeable) {
+      closeable.close();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName() + "(" + delegate + ", from=" + from + ")";
+  }
+}
@@ -0,0 +1,93 @@
+package io.ulzha.spive.lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unbounded queue for one producer and one consumer at a time, without locks. Elements go into
+ * fixed size array chunks, linked as they fill up, so offer() never blocks, even when the consumer
+ * itself is the producer (as with consequential events read back by the event loop that emitted
+ * them).
+ *
+ * <p>The producer publishes the count of elements offered in a volatile, so elements and chunk
+ * links written before publishing are visible to the consumer. (Release and acquire would suffice
+ * for that, but not for a consumer that announces itself as parked and then checks for elements
+ * once more, as EventIterator does, while the producer publishes and then checks for a parked
+ * consumer.) Several producer threads are fine as long as they take turns under a lock.
+ */
+final class SpscChunkedQueue<E> {
+  private static final int CHUNK_SIZE = 256;
+
+  private static final class Chunk {
+    final Object[] slots = new Object[CHUNK_SIZE];
+    Chunk next;
+  }
+
+  private final AtomicLong published = new AtomicLong();
+  // producer side
+  private Chunk tail = new Chunk();
+  private long offered = 0;
+  // consumer side
+  private Chunk head = tail;
+  private long polled = 0;
+
+  /** For the producer. */
+  void offer(final E element) {
+    final int offset = (int) (offered % CHUNK_SIZE);
+    if (offset == 0 && offered > 0) {
+      final Chunk chunk = new Chunk();
+      tail.next = chunk;
+      tail = chunk;
+    }
+    tail.slots[offset] = element;
+    offered++;
+    published.set(offered);
+  }
+
+  /** For the consumer. */
+  boolean isEmpty() {
+    return polled == published.get();
+  }
+
+  /**
+   * For the consumer.
+   *
+   * @return the head element, or null if empty
+   */
+  @SuppressWarnings("unchecked")
+  E poll() {
+    if (isEmpty()) {
+      return null;
+    }
+    final int offset = (int) (polled % CHUNK_SIZE);
+    if (offset == 0 && polled > 0) {
+      head = head.next;
+    }
+    final E element = (E) head.slots[offset];
+    head.slots[offset] = null;
+    polled++;
+    return element;
+  }
+
+  /**
+   * For the consumer.
+   *
+   * @return the element at the given index from the head, or null if not that many
+   */
+  @SuppressWarnings("unchecked")
+  E peek(final int index) {
+    if (polled + index >= published.get()) {
+      return null;
+    }
+    Chunk chunk = head;
+    int offset = (int) (polled % CHUNK_SIZE) + index;
+    if (polled % CHUNK_SIZE == 0 && polled > 0) {
+      // the consumer has not moved on to the next chunk yet
+      chunk = chunk.next;
+    }
+    while (offset >= CHUNK_SIZE) {
+      chunk = chunk.next;
+      offset -= CHUNK_SIZE;
+    }
+    return (E) chunk.slots[offset];
+  }
+}
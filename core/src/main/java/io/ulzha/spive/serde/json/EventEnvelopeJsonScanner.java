@@ -0,0 +1,317 @@
+package io.ulzha.spive.serde.json;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventTime;
+import jakarta.json.JsonException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Scans an envelope straight from UTF-8 bytes, without a general purpose JSON parser in between.
+ *
+ * <p>Strings are only materialized for the values of "id", "time" and "type". The payload is
+ * returned as a view of the input bytes, to be deserialized from them directly. Unknown keys are
+ * skipped over, for forward compatibility.
+ *
+ * <p>Values skipped over, the payload included, are only checked for terminated strings and
+ * balanced brackets. The payload gets validated fully when deserialized.
+ */
+final class EventEnvelopeJsonScanner {
+  private static final byte[] ID = "id".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TIME = "time".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TYPE = "type".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAYLOAD = "payload".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[][] KEYS = {ID, TIME, TYPE, PAYLOAD};
+
+  private final ByteBuffer buffer;
+  private final int end;
+  // absolute index in buffer
+  private int i;
+  // whether the string last skipped over contains escapes
+  private boolean escaped;
+
+  private EventEnvelopeJsonScanner(final ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.i = buffer.position();
+    this.end = buffer.limit();
+  }
+
+  /**
+   * Scans the bytes from position to limit, leaving the position unchanged.
+   *
+   * @param externalPayloadBytes specifies payload in case it is not included in json
+   * @return the event, or null if json is an empty object
+   */
+  static EventEnvelope scan(final ByteBuffer json, final ByteBuffer externalPayloadBytes) {
+    return new EventEnvelopeJsonScanner(json).scanEnvelope(externalPayloadBytes);
+  }
+
+  private EventEnvelope scanEnvelope(final ByteBuffer externalPayloadBytes) {
+    String idString = null;
+    boolean idSeen = false;
+    String timeString = null;
+    String typeString = null;
+    ByteBuffer payload = null;
+
+    skipWhitespace();
+    expect('{');
+    skipWhitespace();
+    if (peek() == '}') {
+      i++;
+      expectEnd();
+      return null;
+    }
+    while (true) {
+      skipWhitespace();
+      final byte[] key = readKey();
+      skipWhitespace();
+      expect(':');
+      skipWhitespace();
+      if (key == ID) {
+        if (idSeen) {
+          throw new JsonException("Duplicate key: \"id\"");
+        }
+        idSeen = true;
+        idString = (skipNull() ? null : readString());
+      } else if (key == TIME) {
+        if (timeString != null) {
+          throw new JsonException("Duplicate key: \"time\"");
+        }
+        timeString = readString();
+      } else if (key == TYPE) {
+        if (typeString != null) {
+          throw new JsonException("Duplicate key: \"type\"");
+        }
+        typeString = readString();
+      } else if (key == PAYLOAD) {
+        if (payload != null) {
+          throw new JsonException("Duplicate key: \"payload\"");
+        }
+        final int valueStart = i;
+        skipValue();
+        payload = buffer.slice(valueStart, i - valueStart);
+      } else {
+        skipValue();
+      }
+      skipWhitespace();
+      final byte b = next();
+      if (b == '}') {
+        break;
+      } else if (b != ',') {
+        throw unexpected(i - 1);
+      }
+    }
+    expectEnd();
+
+    final EventTime time = EventTime.fromString(timeString);
+    // treat ids as optional for now, unsure if we would need them
+    final UUID id = (idString == null ? null : UUID.fromString(idString));
+    if (payload == null && externalPayloadBytes == null) {
+      return new EventEnvelope(time, id, typeString, null);
+    }
+    return EventEnvelope.ofPayloadBytes(
+        time, id, typeString, (payload == null ? externalPayloadBytes : payload));
+  }
+
+  private JsonException unexpected(final int at) {
+    if (at >= end) {
+      return new JsonException("Unexpected end of input at offset " + at);
+    }
+    return new JsonException(
+        "Unexpected byte '" + (char) (buffer.get(at) & 0xff) + "' at offset " + at);
+  }
+
+  private byte peek() {
+    if (i >= end) {
+      throw unexpected(i);
+    }
+    return buffer.get(i);
+  }
+
+  private byte next() {
+    final byte b = peek();
+    i++;
+    return b;
+  }
+
+  private void expect(final char c) {
+    if (next() != c) {
+      throw unexpected(i - 1);
+    }
+  }
+
+  private void expectEnd() {
+    skipWhitespace();
+    if (i != end) {
+      throw unexpected(i);
+    }
+  }
+
+  private void skipWhitespace() {
+    while (i < end) {
+      final byte b = buffer.get(i);
+      if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+        return;
+      }
+      i++;
+    }
+  }
+
+  /**
+   * @return one of the known keys, compared by reference, or null if unknown
+   */
+  private byte[] readKey() {
+    final int start = i + 1;
+    skipString();
+    final int keyEnd = i - 1;
+    if (escaped) {
+      // unusual but valid, so compared the slow way
+      i = start - 1;
+      return switch (readString()) {
+        case "id" -> ID;
+        case "time" -> TIME;
+        case "type" -> TYPE;
+        case "payload" -> PAYLOAD;
+        default -> null;
+      };
+    }
+    for (byte[] key : KEYS) {
+      if (keyEquals(start, keyEnd, key)) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  private boolean keyEquals(final int start, final int keyEnd, final byte[] key) {
+    if (keyEnd - start != key.length) {
+      return false;
+    }
+    for (int j = 0; j < key.length; j++) {
+      if (buffer.get(start + j) != key[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Skips over a string, including the quotes. */
+  private void skipString() {
+    expect('"');
+    escaped = false;
+    while (true) {
+      final byte b = next();
+      if (b == '"') {
+        return;
+      } else if (b == '\\') {
+        escaped = true;
+        next();
+      } else if (b >= 0 && b < 0x20) {
+        throw unexpected(i - 1);
+      }
+    }
+  }
+
+  private boolean skipNull() {
+    if (peek() != 'n') {
+      return false;
+    }
+    final int start = i;
+    skipScalar();
+    if (i - start != 4
+        || buffer.get(start + 1) != 'u'
+        || buffer.get(start + 2) != 'l'
+        || buffer.get(start + 3) != 'l') {
+      throw unexpected(start);
+    }
+    return true;
+  }
+
+  /** Skips over a number, true, false or null. */
+  private void skipScalar() {
+    final int start = i;
+    while (i < end) {
+      final byte b = buffer.get(i);
+      if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+        break;
+      }
+      i++;
+    }
+    if (i == start) {
+      throw unexpected(i);
+    }
+  }
+
+  private void skipValue() {
+    final byte b = peek();
+    if (b == '"') {
+      skipString();
+    } else if (b == '{' || b == '[') {
+      int depth = 0;
+      do {
+        final byte c = peek();
+        if (c == '"') {
+          skipString();
+          continue;
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+        i++;
+      } while (depth > 0);
+    } else {
+      skipScalar();
+    }
+  }
+
+  private String readString() {
+    final int start = i + 1;
+    skipString();
+    final int length = i - 1 - start;
+    final String raw;
+    if (buffer.hasArray()) {
+      raw =
+          new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+    } else {
+      final byte[] bytes = new byte[length];
+      buffer.get(start, bytes);
+      raw = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return (escaped ? unescape(raw, start) : raw);
+  }
+
+  private static String unescape(final String raw, final int offset) {
+    final StringBuilder sb = new StringBuilder(raw.length());
+    for (int j = 0; j < raw.length(); j++) {
+      final char c = raw.charAt(j);
+      if (c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      final char e = raw.charAt(++j);
+      switch (e) {
+        case '"', '\\', '/' -> sb.append(e);
+        case 'b' -> sb.append('\b');
+        case 'f' -> sb.append('\f');
+        case 'n' -> sb.append('\n');
+        case 'r' -> sb.append('\r');
+        case 't' -> sb.append('\t');
+        case 'u' -> {
+          if (j + 4 >= raw.length()) {
+            throw new JsonException("Truncated escape in string at offset " + offset);
+          }
+          try {
+            sb.append((char) Integer.parseInt(raw, j + 1, j + 5, 16));
+          } catch (NumberFormatException ex) {
+            throw new JsonException("Invalid escape in string at offset " + offset, ex);
+          }
+          j += 4;
+        }
+        default -> throw new JsonException("Invalid escape in string at offset " + offset);
+      }
+    }
+    return sb.toString();
+  }
+}
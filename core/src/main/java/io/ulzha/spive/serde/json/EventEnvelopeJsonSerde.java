@@ -9,9 +9,18 @@ import jakarta.json.stream.JsonParser;
 import jakarta.json.stream.JsonParser.Event;
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
 public class EventEnvelopeJsonSerde {
+  // writers reuse scratch space, so one per thread
+  private static final ThreadLocal<EventEnvelopeJsonWriter> WRITER =
+      ThreadLocal.withInitial(EventEnvelopeJsonWriter::new);
+  // enough for typical metadata, so that buffers seldom need to grow
+  private static final int METADATA_BYTES = 160;
+  private static final ThreadLocal<ByteBuffer> METADATA_BUFFER =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(METADATA_BYTES));
+
   public static String serializeEventMetadata(EventEnvelope event) {
     return "{"
         + (event.id() == null ? "" : "\"id\":\"" + event.id().toString() + "\",")
@@ -22,12 +31,57 @@ public class EventEnvelopeJsonSerde {
         + "\"}";
   }
 
+  /**
+   * Like serializeEventMetadata(), but straight to UTF-8 bytes.
+   *
+   * @return a buffer, flipped, that the next call in the same thread reuses - so the caller must
+   *     copy the bytes out before then
+   */
+  public static ByteBuffer serializeEventMetadataBytes(EventEnvelope event) {
+    final ByteBuffer buffer = WRITER.get().writeEventMetadata(event, METADATA_BUFFER.get().clear());
+    // in case it has grown
+    METADATA_BUFFER.set(buffer);
+    return buffer.flip();
+  }
+
   /**
    * @param metadataJson may include payload (the key can have any value, not just an object)
    * @param externalPayloadJson specifies payload in case it is not included in metadataJson
    */
   public static EventEnvelope deserializeEventMetadata(
       String metadataJson, String externalPayloadJson) {
+    return deserializeEventMetadata(metadataJson, externalPayloadJson, null);
+  }
+
+  /**
+   * @param metadataJson may include payload (the key can have any value, not just an object)
+   * @param externalPayloadBytes specifies payload, as UTF-8 bytes, in case it is not included in
+   *     metadataJson. Not copied, to be deserialized straight from these bytes
+   */
+  public static EventEnvelope deserializeEventMetadataWithPayloadBytes(
+      String metadataJson, ByteBuffer externalPayloadBytes) {
+    return deserializeEventMetadata(metadataJson, null, externalPayloadBytes);
+  }
+
+  /**
+   * Like deserializeEventMetadataWithPayloadBytes(String, ByteBuffer), but scanning UTF-8 bytes
+   * directly, as per EventEnvelopeJsonScanner. Cheaper than parsing a String.
+   *
+   * @param metadataJson may include payload, in which case the payload is a view of these bytes.
+   *     Scanned from position to limit, the position left unchanged
+   * @throws JsonException if metadataJson is an empty object
+   */
+  public static EventEnvelope deserializeEventMetadataWithPayloadBytes(
+      ByteBuffer metadataJson, ByteBuffer externalPayloadBytes) {
+    final EventEnvelope event = EventEnvelopeJsonScanner.scan(metadataJson, externalPayloadBytes);
+    if (event == null) {
+      throw new JsonException("Expected event metadata, got an empty object");
+    }
+    return event;
+  }
+
+  private static EventEnvelope deserializeEventMetadata(
+      String metadataJson, String externalPayloadJson, ByteBuffer externalPayloadBytes) {
     JsonParser parser = createParser(new StringReader(metadataJson));
     String idString = null;
     String timeString = null;
@@ -81,8 +135,12 @@ public class EventEnvelopeJsonSerde {
             payloadJson = metadataJson.substring((int) valueStart, (int) valueEnd);
             break;
           default:
-            // TODO ignore (skip over) unknown keys for forward compatibility?
-            throw new JsonException("Unexpected key: \"" + keyName + "\"");
+            // ignored, for forward compatibility
+            if (valueEvent == Event.START_ARRAY) {
+              parser.skipArray();
+            } else if (valueEvent == Event.START_OBJECT) {
+              parser.skipObject();
+            }
         }
       }
     } while (event == Event.KEY_NAME);
@@ -90,12 +148,14 @@ public class EventEnvelopeJsonSerde {
       throw new JsonException(
           "Expected END_OBJECT at " + parser.getLocation().getStreamOffset() + "; got: " + event);
     }
+    final EventTime time = EventTime.fromString(timeString);
+    // treat ids as optional for now, unsure if we would need them
+    final UUID id = (idString == null ? null : UUID.fromString(idString));
+    if (payloadJson == null && externalPayloadBytes != null) {
+      return EventEnvelope.ofPayloadBytes(time, id, typeString, externalPayloadBytes);
+    }
     return new EventEnvelope(
-        EventTime.fromString(timeString),
-        // treat ids as optional for now, unsure if we would need them
-        idString == null ? null : UUID.fromString(idString),
-        typeString,
-        payloadJson == null ? externalPayloadJson : payloadJson);
+        time, id, typeString, payloadJson == null ? externalPayloadJson : payloadJson);
   }
 
   private static long getValueStartStreamOffset(final String stream, final JsonParser parser) {
@@ -110,7 +170,20 @@ public class EventEnvelopeJsonSerde {
 
   public static String serializeEventEnvelope(EventEnvelope event) {
     final String metadataJson = serializeEventMetadata(event);
-    return metadataJson.replaceFirst("}$", ",\"payload\":" + event.serializedPayload() + "}");
+    return metadataJson.substring(0, metadataJson.length() - 1)
+        + ",\"payload\":"
+        + event.serializedPayload()
+        + "}";
+  }
+
+  /**
+   * Like serializeEventEnvelope(), but straight to UTF-8 bytes at the position of out, as per
+   * EventEnvelopeJsonWriter.
+   *
+   * @return out, or a larger copy of it
+   */
+  public static ByteBuffer serializeEventEnvelopeInto(EventEnvelope event, ByteBuffer out) {
+    return WRITER.get().writeEventEnvelope(event, out);
   }
 
   public static EventEnvelope deserializeEventEnvelope(String json) throws IOException {
@@ -119,4 +192,16 @@ public class EventEnvelopeJsonSerde {
     }
     return deserializeEventMetadata(json, null);
   }
+
+  /**
+   * Like deserializeEventEnvelope(String), but scanning UTF-8 bytes directly, as per
+   * EventEnvelopeJsonScanner. The payload is a view of these bytes, so they must stay unchanged for
+   * as long as the event is in use.
+   *
+   * @param json scanned from position to limit, the position left unchanged
+   * @return null if json is an empty object
+   */
+  public static EventEnvelope deserializeEventEnvelope(ByteBuffer json) {
+    return EventEnvelopeJsonScanner.scan(json, null);
+  }
 }
@@ -0,0 +1,136 @@
+package io.ulzha.spive.serde.json;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.util.ByteBuffers;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Writes envelopes as UTF-8 JSON straight into a ByteBuffer, byte for byte the same as
+ * EventEnvelopeJsonSerde.serializeEventEnvelope() and serializeEventMetadata(), but without
+ * intermediate Strings.
+ *
+ * <p>Payloads held as bytes are copied over verbatim, and ones held as Strings are encoded in
+ * place. The buffer given is written at its position, and grown (replaced with a larger one of the
+ * same kind, direct or not) if needed, so callers keep using the buffer returned.
+ *
+ * <p>Not thread-safe, as scratch space is reused from one event to the next.
+ */
+public final class EventEnvelopeJsonWriter {
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] ID_KEY = "{\"id\":\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TIME_KEY = "\"time\":\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TYPE_KEY = "\",\"type\":\"".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] PAYLOAD_KEY = ",\"payload\":".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+  // UUID string length, plus the separating quote and comma
+  private static final int ID_LENGTH = 38;
+
+  private final byte[] scratch = new byte[EventTime.MAX_STRING_LENGTH];
+  // replacing unpaired surrogates with '?', as String.getBytes() does
+  private final CharsetEncoder encoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /**
+   * Writes {"id":...,"time":...,"type":...} at the position of out.
+   *
+   * @return out, or a larger copy of it
+   */
+  public ByteBuffer writeEventMetadata(final EventEnvelope event, ByteBuffer out) {
+    out = writeMetadataFields(event, out);
+    return ByteBuffers.ensureRemaining(out, 1).put((byte) '}');
+  }
+
+  /**
+   * Writes {"id":...,"time":...,"type":...,"payload":...} at the position of out.
+   *
+   * @return out, or a larger copy of it
+   */
+  public ByteBuffer writeEventEnvelope(final EventEnvelope event, ByteBuffer out) {
+    out = writeMetadataFields(event, out);
+    out = ByteBuffers.ensureRemaining(out, PAYLOAD_KEY.length).put(PAYLOAD_KEY);
+    if (event.holdsPayloadBytes()) {
+      final ByteBuffer payload = event.payloadBytes();
+      out = ByteBuffers.ensureRemaining(out, payload.remaining()).put(payload);
+    } else if (event.serializedPayload() == null) {
+      out = ByteBuffers.ensureRemaining(out, NULL.length).put(NULL);
+    } else {
+      out = writeUtf8(event.serializedPayload(), out);
+    }
+    return ByteBuffers.ensureRemaining(out, 1).put((byte) '}');
+  }
+
+  /** Everything but the closing brace. */
+  private ByteBuffer writeMetadataFields(final EventEnvelope event, ByteBuffer out) {
+    final UUID id = event.id();
+    if (id == null) {
+      out = ByteBuffers.ensureRemaining(out, 1).put((byte) '{');
+    } else {
+      out = ByteBuffers.ensureRemaining(out, ID_KEY.length + ID_LENGTH).put(ID_KEY);
+      putHex(out, id.getMostSignificantBits() >>> 32, 8);
+      out.put((byte) '-');
+      putHex(out, id.getMostSignificantBits() >>> 16, 4);
+      out.put((byte) '-');
+      putHex(out, id.getMostSignificantBits(), 4);
+      out.put((byte) '-');
+      putHex(out, id.getLeastSignificantBits() >>> 48, 4);
+      out.put((byte) '-');
+      putHex(out, id.getLeastSignificantBits(), 12);
+      out.put((byte) '"').put((byte) ',');
+    }
+
+    final int timeLength = event.time().formatTo(scratch, 0);
+    out = ByteBuffers.ensureRemaining(out, TIME_KEY.length + timeLength + TYPE_KEY.length);
+    out.put(TIME_KEY).put(scratch, 0, timeLength).put(TYPE_KEY);
+
+    out = writeUtf8(String.valueOf(event.typeTag()), out);
+    return ByteBuffers.ensureRemaining(out, 1).put((byte) '"');
+  }
+
+  /** Puts the lowest digits of value, as many as given, in hex. */
+  private static void putHex(final ByteBuffer out, final long value, final int digits) {
+    for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4) {
+      out.put(HEX[(int) (value >>> shift) & 0xf]);
+    }
+  }
+
+  private ByteBuffer writeUtf8(final String s, ByteBuffer out) {
+    // ASCII in the common case, so one pass without the encoder
+    out = ByteBuffers.ensureRemaining(out, s.length());
+    final int start = out.position();
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c >= 0x80) {
+        out.position(start);
+        return encode(s, out);
+      }
+      out.put((byte) c);
+    }
+    return out;
+  }
+
+  private ByteBuffer encode(final String s, ByteBuffer out) {
+    final CharBuffer in = CharBuffer.wrap(s);
+    encoder.reset();
+    CoderResult result = encoder.encode(in, out, true);
+    while (result.isOverflow()) {
+      out = ByteBuffers.ensureRemaining(out, Math.max(3 * in.remaining(), 16));
+      result = encoder.encode(in, out, true);
+    }
+    result = encoder.flush(out);
+    while (result.isOverflow()) {
+      out = ByteBuffers.ensureRemaining(out, 16);
+      result = encoder.flush(out);
+    }
+    return out;
+  }
+}
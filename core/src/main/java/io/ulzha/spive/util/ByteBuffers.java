@@ -0,0 +1,22 @@
+package io.ulzha.spive.util;
+
+import java.nio.ByteBuffer;
+
+/** Helpers for writing into ByteBuffers that grow as needed. */
+public final class ByteBuffers {
+  private ByteBuffers() {}
+
+  /**
+   * @return buffer, or a copy with at least n bytes remaining, of the same kind (direct or not) and
+   *     with the same contents up to the position
+   */
+  public static ByteBuffer ensureRemaining(final ByteBuffer buffer, final int n) {
+    if (buffer.remaining() >= n) {
+      return buffer;
+    }
+    final int capacity = Math.max(2 * buffer.capacity(), buffer.position() + n);
+    final ByteBuffer grown =
+        (buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity));
+    return grown.put(buffer.flip());
+  }
+}
@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -184,6 +185,47 @@ public class BigtableEventLogTest {
     }
   }
 
+  @Test
+  public void givenBinaryRowKeys_whenAppended_shouldReadExpectedEventsInOrder() {
+    final UUID logId = emptyTempLog();
+    try (BigtableEventLog eventLog =
+        new BigtableEventLog(testDataClient, logId, BigtableEventLog.RowKeyFormat.BINARY)) {
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST));
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(1), dummyEvent(0).time()));
+      assertFalse(eventLog.appendIfPrevTimeMatch(dummyEvent(2), EventTime.INFINITE_PAST));
+
+      final var iterator = eventLog.iterator();
+      assertThat(iterator.next().time(), is(dummyEvent(0).time()));
+      assertThat(iterator.next().time(), is(dummyEvent(1).time()));
+      Assertions.assertThrows(
+          ConditionTimeoutException.class,
+          () -> await().atMost(Duration.ofSeconds(1)).until(iterator::hasNext));
+    }
+  }
+
+  @Test
+  public void givenStaleCachedTail_whenAppendingWithAdjustedTime_shouldAppendAfterActualTail()
+      throws Exception {
+    final UUID logId = emptyTempLog();
+    try (BigtableEventLog eventLog = new BigtableEventLog(testDataClient, logId);
+        // stands in for another process appending to the same log
+        BigtableEventLog otherEventLog = new BigtableEventLog(testDataClient, logId)) {
+      assertThat(eventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(0).time()));
+      assertThat(otherEventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(1).time()));
+      assertThat(otherEventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(2).time()));
+
+      assertThat(eventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(3).time()));
+      assertThat(eventLog.appendCounters().conflicts(), is(2L));
+      assertThat(eventLog.appendCounters().adjusted(), is(1L));
+
+      final var iterator = eventLog.iterator();
+      for (int i = 0; i < 4; i++) {
+        assertThat(iterator.next().time(), is(dummyEvent(i).time()));
+      }
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
   @Test
   public void givenUnclosedLog_whenReadTillTheEnd_shouldReadExpectedEventsAndBlock()
       throws Exception {
@@ -206,6 +248,28 @@ public class BigtableEventLogTest {
     }
   }
 
+  @Test
+  public void givenIteratorBlocked_whenIteratorClosed_shouldUnblockAndThrowThereafter()
+      throws Exception {
+    final UUID logId = copyTwoEventsToTempLog();
+    try (BigtableEventLog eventLog = new BigtableEventLog(testDataClient, logId)) {
+      final var iterator = eventLog.iterator();
+      iterator.next();
+      iterator.next();
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      final Future<Boolean> blocked = executor.submit(iterator::hasNext);
+      Thread.sleep(100);
+
+      ((AutoCloseable) iterator).close();
+
+      final ExecutionException e =
+          Assertions.assertThrows(ExecutionException.class, () -> blocked.get(5, TimeUnit.SECONDS));
+      assertThat(e.getCause().getCause().getClass(), is(IllegalStateException.class));
+      Assertions.assertThrows(RuntimeException.class, iterator::hasNext);
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void givenIteratorBlocked_whenAppendedViaLog_shouldUnblockAndReadExpectedEvent()
       throws Exception {
@@ -422,6 +486,32 @@ public class BigtableEventLogTest {
     assertIterableEquals(dump.subList(0, dumpOrig.size()), dumpOrig);
   }
 
+  @Test
+  public void givenTwoEventsInLog_whenAppendingRun_shouldThrowAndAppendNothing() throws Exception {
+    final UUID logId = copyTwoEventsToTempLog();
+    final List<RowDumpEntry> dumpOrig = dumpAllRows(logId);
+
+    try (BigtableEventLog eventLog = new BigtableEventLog(testDataClient, logId)) {
+      final EventTime eventTime2 = new EventTime(Instant.parse("1111-11-11T00:00:00Z"), 1);
+      final EventTime eventTime3 = new EventTime(Instant.parse("1111-11-11T00:00:00.111Z"), 0);
+      final EventTime eventTime4 = new EventTime(Instant.parse("1111-11-11T00:00:00.111Z"), 1);
+      final EventEnvelope event3 =
+          new EventEnvelope(
+              eventTime3, UUID.randomUUID(), "pojo:io.ulzha.spive.test.MournProcess", "\"BRRRRR\"");
+      final EventEnvelope event4 =
+          new EventEnvelope(
+              eventTime4, UUID.randomUUID(), "pojo:io.ulzha.spive.test.MournProcess", "\"BZZZZZ\"");
+      Assertions.assertThrows(
+          UnsupportedOperationException.class,
+          () -> eventLog.appendAllIfPrevTimeMatch(List.of(event3, event4), eventTime2));
+      assertTrue(eventLog.appendAllIfPrevTimeMatch(List.of(event3), eventTime2));
+    }
+
+    final List<RowDumpEntry> dump = dumpAllRows(logId);
+    assertThat(dump.size(), is(dumpOrig.size() + 1));
+    assertIterableEquals(dump.subList(0, dumpOrig.size()), dumpOrig);
+  }
+
   @Test
   public void whenAppendingSameTimeAsPrevTime_shouldThrow() throws Exception {
     final UUID logId = copyTwoEventsToTempLog();
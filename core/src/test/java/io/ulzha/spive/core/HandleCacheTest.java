@@ -0,0 +1,184 @@
+package io.ulzha.spive.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventIterator;
+import io.ulzha.spive.lib.EventLog;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.lib.InMemoryEventLog;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class HandleCacheTest {
+  @Test
+  public void givenMoreLogsThanMaxOpenHandles_whenAppendedRoundRobin_shouldReopenTransparently(
+      @TempDir Path dir) throws Exception {
+    final LocalFileSystemEventStore store =
+        new LocalFileSystemEventStore(
+            "io.ulzha.spive.core.LocalFileSystemEventStore;basePath=" + dir + ";maxOpenHandles=2");
+    final List<EventLog> logs = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      logs.add(store.openLog(UUID.randomUUID()));
+    }
+
+    for (int round = 0; round < 3; round++) {
+      for (EventLog log : logs) {
+        assertThat(log.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(round).time()));
+        assertThat(store.handleCache().openLogs(), lessThanOrEqualTo(2));
+      }
+    }
+    assertThat(store.handleCache().evictions(), greaterThan(0L));
+
+    for (EventLog log : logs) {
+      final EventLog.AppendIterator iterator = log.iterator();
+      for (int i = 0; i < 3; i++) {
+        assertThat(iterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenIteratorEvicted_whenIteratedFurther_shouldResumeAfterLastEventRead(
+      @TempDir Path dir) throws Exception {
+    final LocalFileSystemEventStore store =
+        new LocalFileSystemEventStore(
+            "io.ulzha.spive.core.LocalFileSystemEventStore;basePath=" + dir + ";maxOpenHandles=3");
+    final EventLog log = store.openLog(UUID.randomUUID());
+    for (int i = 0; i < 5; i++) {
+      assertTrue(
+          log.appendIfPrevTimeMatch(
+              dummyEvent(i), (i == 0 ? EventTime.INFINITE_PAST : dummyEvent(i - 1).time())));
+    }
+    final EventLog.AppendIterator iterator = log.iterator();
+    assertThat(iterator.next(), is(dummyEvent(0)));
+    assertThat(iterator.next(), is(dummyEvent(1)));
+    assertThat(store.handleCache().openIterators(), is(1));
+
+    // crowds out the iterator, and then the log
+    for (int i = 0; i < 3; i++) {
+      store.openLog(UUID.randomUUID()).appendAndGetAdjustedTime(dummyEvent(0));
+    }
+    assertThat(store.handleCache().openIterators(), is(0));
+
+    assertThat(iterator.next(), is(dummyEvent(2)));
+    assertThat(iterator.appendOrPeek(dummyEvent(5)), is(dummyEvent(3)));
+    assertThat(iterator.next(), is(dummyEvent(3)));
+    assertThat(iterator.next(), is(dummyEvent(4)));
+    assertTrue(iterator.wouldBlock());
+    assertTrue(iterator.appendOrPeek(dummyEvent(5)) == iterator.next());
+    assertFalse(log.appendIfPrevTimeMatch(dummyEvent(5), dummyEvent(4).time()));
+    assertThat(store.handleCache().reopens(), greaterThan(0L));
+  }
+
+  @Test
+  public void givenIteratorNotClosable_whenLogClosed_shouldCloseIteratorAndLog() throws Exception {
+    final List<UUID> closed = new ArrayList<>();
+    final HandleCache<InMemoryEventLog> cache =
+        new HandleCache<>(
+            logId ->
+                new InMemoryEventLog() {
+                  @Override
+                  public void close() {
+                    closed.add(logId);
+                  }
+                });
+    final UUID logId = UUID.randomUUID();
+    final EventLog log = cache.get(logId);
+    assertTrue(log.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST));
+    final EventLog.AppendIterator iterator = log.iterator();
+    assertThat(iterator.next(), is(dummyEvent(0)));
+    assertThat(cache.openIterators(), is(1));
+
+    log.close();
+    assertThat(cache.openIterators(), is(0));
+    assertThat(cache.openLogs(), is(0));
+    assertThat(closed, is(List.of(logId)));
+  }
+
+  @Test
+  public void givenOneLogSlowToOpen_whenOtherLogUsed_shouldNotWait() throws Exception {
+    final UUID slowLogId = UUID.randomUUID();
+    final CountDownLatch opening = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final HandleCache<InMemoryEventLog> cache =
+        new HandleCache<>(
+            logId -> {
+              if (logId.equals(slowLogId)) {
+                opening.countDown();
+                try {
+                  release.await();
+                } catch (InterruptedException e) {
+                  throw new IOException(e);
+                }
+              }
+              return new InMemoryEventLog();
+            });
+    final CompletableFuture<Boolean> slowAppend =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return cache
+                    .get(slowLogId)
+                    .appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+    opening.await();
+
+    try {
+      final EventLog log = cache.get(UUID.randomUUID());
+      assertTimeoutPreemptively(
+          Duration.ofSeconds(5),
+          () -> assertTrue(log.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST)));
+      assertThat(cache.openLogs(), is(1));
+    } finally {
+      release.countDown();
+    }
+    assertTrue(slowAppend.get());
+    assertThat(cache.openLogs(), is(2));
+  }
+
+  @Test
+  public void givenIteratorEvictedRightAfterAppend_whenRunAppended_shouldReturnEventsAppended(
+      @TempDir Path dir) throws Exception {
+    final LocalFileSystemEventStore store =
+        new LocalFileSystemEventStore(
+            "io.ulzha.spive.core.LocalFileSystemEventStore;basePath=" + dir + ";maxOpenHandles=1");
+    final EventIterator iterator = new EventIterator(store.openLog(UUID.randomUUID()).iterator());
+    final List<EventEnvelope> run = List.of(dummyEvent(0), dummyEvent(1), dummyEvent(2));
+
+    assertTrue(iterator.appendAllOrPeek(run) == run.get(0));
+    assertThat(store.handleCache().evictions(), greaterThan(0L));
+    for (EventEnvelope event : run) {
+      assertTrue(iterator.next() == event);
+    }
+    assertTrue(iterator.wouldBlock());
+  }
+
+  private EventEnvelope dummyEvent(int i) {
+    return new EventEnvelope(
+        new EventTime(Instant.parse("1111-11-11T00:00:00Z"), i),
+        null,
+        "pojo:io.ulzha.spive.test.WhamProcess",
+        "\"WHAM!\"");
+  }
+}
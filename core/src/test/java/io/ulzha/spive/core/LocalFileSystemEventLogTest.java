@@ -12,14 +12,19 @@ import io.ulzha.spive.lib.EventIterator;
 import io.ulzha.spive.lib.EventTime;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import org.awaitility.core.ConditionTimeoutException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 // TODO suite with identical scenarios, applied to all EventLog implementations consistently
 public class LocalFileSystemEventLogTest {
@@ -196,6 +202,90 @@ public class LocalFileSystemEventLogTest {
     }
   }
 
+  @Test
+  public void givenIteratorBlocked_whenAppendedViaAnotherLogInstance_shouldUnblockPromptly()
+      throws Exception {
+    final Path filePath = copyResourceToTempFile("TwoEvents.jsonl");
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath);
+        // stands in for another process appending to the same file
+        LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath)) {
+      final var iterator = eventLog.iterator();
+      iterator.next();
+      final EventEnvelope event2 = iterator.next();
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      final Future<EventEnvelope> act = executor.submit(iterator::next);
+      // long enough for the polling to back off
+      Assertions.assertThrows(
+          ConditionTimeoutException.class,
+          () -> await().atMost(Duration.ofSeconds(2)).until(act::isDone));
+
+      final EventEnvelope event3 =
+          new EventEnvelope(
+              new EventTime(Instant.parse("1111-11-11T00:00:00.111Z"), 0),
+              UUID.randomUUID(),
+              "pojo:io.ulzha.spive.test.WhamProcess",
+              "\"WHAM!\"");
+      assertTrue(otherEventLog.appendIfPrevTimeMatch(event3, event2.time()));
+
+      assertThat(act.get(200, TimeUnit.MILLISECONDS), is(event3));
+    }
+  }
+
+  @Test
+  public void givenEventIteratorBlocked_whenAppendedViaAnotherLogInstance_shouldUnblockPromptly()
+      throws Exception {
+    final Path filePath = copyResourceToTempFile("TwoEvents.jsonl");
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath);
+        // stands in for another process appending to the same file
+        LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath)) {
+      final var appendIterator = eventLog.iterator();
+      final EventIterator iterator = new EventIterator(appendIterator);
+      iterator.next();
+      final EventEnvelope event2 = iterator.next();
+      assertFalse(appendIterator.onAvailable().isDone());
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      final Future<EventEnvelope> act = executor.submit(iterator::next);
+      Assertions.assertThrows(
+          ConditionTimeoutException.class,
+          () -> await().atMost(Duration.ofSeconds(2)).until(act::isDone));
+
+      final EventEnvelope event3 =
+          new EventEnvelope(
+              new EventTime(Instant.parse("1111-11-11T00:00:00.111Z"), 0),
+              UUID.randomUUID(),
+              "pojo:io.ulzha.spive.test.WhamProcess",
+              "\"WHAM!\"");
+      assertTrue(otherEventLog.appendIfPrevTimeMatch(event3, event2.time()));
+
+      // woken up by the file system watch, rather than after the 1 s safety net
+      assertThat(act.get(200, TimeUnit.MILLISECONDS), is(event3));
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenPartiallyWrittenRecord_whenAskedIfAvailable_shouldNotReportItUntilComplete()
+      throws Exception {
+    final Path filePath = copyResourceToTempFile("TwoEvents.jsonl");
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath)) {
+      final var iterator = eventLog.iterator();
+      iterator.next();
+      iterator.next();
+      final String line =
+          "{\"time\": \"1111-11-11T00:00:00Z#2\", \"type\": \"pojo:io.ulzha.spive.test.WhamProcess\","
+              + " \"payload\": \"WHAM!\"}\n";
+
+      Files.writeString(filePath, line.substring(0, 20), StandardOpenOption.APPEND);
+      assertFalse(iterator.onAvailable().isDone());
+      assertFalse(iterator.onAvailable().isDone());
+
+      Files.writeString(filePath, line.substring(20), StandardOpenOption.APPEND);
+      await().atMost(Duration.ofSeconds(2)).until(() -> iterator.onAvailable().isDone());
+      assertThat(iterator.next().typeTag(), is("pojo:io.ulzha.spive.test.WhamProcess"));
+      assertFalse(iterator.onAvailable().isDone());
+    }
+  }
+
   @Test
   public void
       givenEventIteratorBlocked_whenAppendedViaEventIterator_shouldUnblockAndReadExpectedEvent()
@@ -382,6 +472,24 @@ public class LocalFileSystemEventLogTest {
     assertThat(Arrays.copyOfRange(bytes, 0, bytesOrig.length), is(bytesOrig));
   }
 
+  @Test
+  public void
+      givenAppendsInterleavedWithAnotherLogInstance_whenAppending_shouldCompareWithActualLast()
+          throws Exception {
+    final Path filePath = emptyTempFile();
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath);
+        // stands in for another process appending to the same file
+        LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath)) {
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST));
+      assertTrue(otherEventLog.appendIfPrevTimeMatch(dummyEvent(1), dummyEvent(0).time()));
+
+      assertFalse(eventLog.appendIfPrevTimeMatch(dummyEvent(2), dummyEvent(0).time()));
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(2), dummyEvent(1).time()));
+      assertFalse(otherEventLog.appendIfPrevTimeMatch(dummyEvent(3), dummyEvent(1).time()));
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(3), dummyEvent(2).time()));
+    }
+  }
+
   @Test
   public void whenAppendingSameTimeAsPrevTime_shouldThrow() throws Exception {
     final Path filePath = copyResourceToTempFile("TwoEvents.jsonl");
@@ -422,6 +530,507 @@ public class LocalFileSystemEventLogTest {
     assertThat(bytes, is(bytesOrig));
   }
 
+  @Test
+  public void givenJsonlLog_whenConvertedToBinary_shouldReadSameEventsAndAppend() throws Exception {
+    final Path jsonlPath = copyResourceToTempFile("TwoEvents.jsonl");
+    final Path binaryPath = jsonlPath.resolveSibling(jsonlPath.getFileName() + ".bin");
+    deleteOnExit(binaryPath);
+
+    final long n =
+        LocalFileSystemEventLog.convert(
+            jsonlPath,
+            LocalFileSystemEventLog.Format.JSONL,
+            binaryPath,
+            LocalFileSystemEventLog.Format.BINARY);
+    assertThat(n, is(2L));
+
+    try (LocalFileSystemEventLog jsonlLog = new LocalFileSystemEventLog(jsonlPath);
+        LocalFileSystemEventLog binaryLog =
+            new LocalFileSystemEventLog(binaryPath, LocalFileSystemEventLog.Format.BINARY)) {
+      final var jsonlIterator = jsonlLog.iterator();
+      final var binaryIterator = binaryLog.iterator();
+      final EventEnvelope event1 = binaryIterator.next();
+      assertThat(event1, is(jsonlIterator.next()));
+      final EventEnvelope event2 = binaryIterator.next();
+      assertThat(event2, is(jsonlIterator.next()));
+
+      final EventEnvelope event3 =
+          new EventEnvelope(
+              new EventTime(Instant.parse("1111-11-11T00:00:00.111Z"), 0),
+              UUID.randomUUID(),
+              "pojo:io.ulzha.spive.test.WhamProcess",
+              "\"WHAM!\"");
+      assertFalse(binaryLog.appendIfPrevTimeMatch(event3, event1.time()));
+      assertTrue(binaryLog.appendIfPrevTimeMatch(event3, event2.time()));
+      assertThat(binaryIterator.next(), is(event3));
+      assertTrue(binaryIterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenClosedJsonlLog_whenConvertedToBinary_shouldRemainClosed() throws Exception {
+    final Path jsonlPath = copyResourceToTempFile("OneEventClosed.jsonl");
+    final Path binaryPath = jsonlPath.resolveSibling(jsonlPath.getFileName() + ".bin");
+    deleteOnExit(binaryPath);
+
+    LocalFileSystemEventLog.convert(
+        jsonlPath,
+        LocalFileSystemEventLog.Format.JSONL,
+        binaryPath,
+        LocalFileSystemEventLog.Format.BINARY);
+
+    try (LocalFileSystemEventLog eventLog =
+        new LocalFileSystemEventLog(binaryPath, LocalFileSystemEventLog.Format.BINARY)) {
+      final var iterator = eventLog.iterator();
+
+      assertTrue(iterator.hasNext());
+      final EventEnvelope event1 = iterator.next();
+      assertThat(event1.typeTag(), is("pojo:io.ulzha.spive.test.CreateProcess"));
+      assertFalse(iterator.hasNext());
+
+      Assertions.assertThrows(
+          IllegalStateException.class,
+          () -> eventLog.appendIfPrevTimeMatch(dummyEvent(1), event1.time()));
+    }
+  }
+
+  @Test
+  public void givenBinaryLogWithTornTail_whenOpened_shouldTruncateItAndAppend() throws Exception {
+    final Path filePath = emptyTempFile();
+    try (LocalFileSystemEventLog eventLog =
+        new LocalFileSystemEventLog(filePath, LocalFileSystemEventLog.Format.BINARY)) {
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST));
+    }
+    final byte[] bytesOrig = Files.readAllBytes(filePath);
+    // simulate a crash halfway through writing the second record
+    final byte[] secondRecord =
+        LocalFileSystemEventLog.Format.BINARY.codec.encode(dummyEvent(1)).array();
+    Files.write(
+        filePath, Arrays.copyOf(secondRecord, secondRecord.length / 2), StandardOpenOption.APPEND);
+
+    try (LocalFileSystemEventLog eventLog =
+        new LocalFileSystemEventLog(filePath, LocalFileSystemEventLog.Format.BINARY)) {
+      assertThat(Files.readAllBytes(filePath), is(bytesOrig));
+      final var iterator = eventLog.iterator();
+      assertThat(iterator.next(), is(dummyEvent(0)));
+      assertTrue(iterator.wouldBlock());
+
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(2), dummyEvent(0).time()));
+      assertThat(iterator.next(), is(dummyEvent(2)));
+    }
+  }
+
+  @Test
+  public void givenTornTailAfterOpened_whenAppending_shouldTruncateItAndAppend() throws Exception {
+    final Path filePath = emptyTempFile();
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath)) {
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST));
+      // simulate another process crashing halfway through writing the second record
+      final ByteBuffer secondRecord =
+          LocalFileSystemEventLog.Format.JSONL.codec.encode(dummyEvent(1));
+      Files.write(
+          filePath,
+          Arrays.copyOf(secondRecord.array(), secondRecord.limit() / 2),
+          StandardOpenOption.APPEND);
+
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(2), dummyEvent(0).time()));
+
+      final var iterator = eventLog.iterator();
+      assertThat(iterator.next(), is(dummyEvent(0)));
+      assertThat(iterator.next(), is(dummyEvent(2)));
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenManyEvents_whenIteratingFromTime_shouldRebuildIndexAndStartAfterThatTime()
+      throws Exception {
+    final Path filePath = emptyTempFile();
+    final Path indexPath = filePath.resolveSibling(filePath.getFileName() + ".idx");
+    indexPath.toFile().deleteOnExit();
+    try (LocalFileSystemEventLog eventLog =
+        new LocalFileSystemEventLog(
+            filePath,
+            new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.JSONL)
+                .withIndexIntervalBytes(1000))) {
+      EventTime prevTime = EventTime.INFINITE_PAST;
+      for (int i = 0; i < 100; i++) {
+        assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(i), prevTime));
+        prevTime = dummyEvent(i).time();
+      }
+      assertFalse(Files.exists(indexPath));
+
+      final var iterator = eventLog.iterator(dummyEvent(49).time());
+      assertTrue(Files.exists(indexPath));
+      assertThat(Files.size(indexPath), is(not(0L)));
+      assertThat(iterator.next(), is(dummyEvent(50)));
+
+      // appends keep the index up to date from now on
+      final long indexSize = Files.size(indexPath);
+      for (int i = 100; i < 200; i++) {
+        assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(i), prevTime));
+        prevTime = dummyEvent(i).time();
+      }
+      assertThat(Files.size(indexPath) > indexSize, is(true));
+
+      final var iterator2 = eventLog.iterator(dummyEvent(198).time());
+      assertThat(iterator2.next(), is(dummyEvent(199)));
+      assertTrue(iterator2.wouldBlock());
+      assertThat(iterator2.appendOrPeek(dummyEvent(200)), is(dummyEvent(200)));
+      assertThat(iterator2.next(), is(dummyEvent(200)));
+    }
+  }
+
+  @Test
+  public void givenLargeBinaryLog_whenReadWithMappedReads_shouldReadAllEventsAndAppend()
+      throws Exception {
+    final Path filePath = emptyTempFile();
+    final LocalFileSystemEventLog.Options options =
+        new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.BINARY)
+            .withMappedReads(true);
+    final String bigPayload = "\"" + "WHAM!".repeat(4000) + "\"";
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath, options)) {
+      EventTime prevTime = EventTime.INFINITE_PAST;
+      for (int i = 0; i < 200; i++) {
+        assertTrue(eventLog.appendIfPrevTimeMatch(bigEvent(i, bigPayload), prevTime));
+        prevTime = bigEvent(i, bigPayload).time();
+      }
+
+      final var iterator = eventLog.iterator();
+      final List<EventEnvelope> events = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        events.add(iterator.next());
+      }
+      // decoded from the mapping without copying, and still valid after reading on past it
+      assertTrue(events.getFirst().payloadBytes().isDirect());
+      for (int i = 0; i < 200; i++) {
+        assertThat(events.get(i), is(bigEvent(i, bigPayload)));
+      }
+      assertTrue(iterator.wouldBlock());
+      assertThat(iterator.appendOrPeek(dummyEvent(200)), is(dummyEvent(200)));
+      assertThat(iterator.next(), is(dummyEvent(200)));
+    }
+  }
+
+  @Test
+  public void givenGroupCommit_whenAppendingConcurrentlyViaIterators_shouldAppendAllEventsInOrder()
+      throws Exception {
+    final Path filePath = emptyTempFile();
+    final LocalFileSystemEventLog.Options options =
+        new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.BINARY)
+            .withGroupCommitWindow(Duration.ofMillis(2));
+    final int nThreads = 4;
+    final int nEventsPerThread = 25;
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath, options)) {
+      final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+      final List<Future<?>> acts = new ArrayList<>();
+      for (int t = 0; t < nThreads; t++) {
+        acts.add(
+            executor.submit(
+                () -> {
+                  final var iterator = eventLog.iterator();
+                  EventEnvelope last = null;
+                  int appended = 0;
+                  while (appended < nEventsPerThread) {
+                    final EventEnvelope candidate =
+                        dummyEvent(last == null ? 0 : last.time().tiebreaker + 1);
+                    if (iterator.appendOrPeek(candidate) == candidate) {
+                      appended++;
+                    }
+                    last = iterator.next();
+                  }
+                }));
+      }
+      for (Future<?> act : acts) {
+        act.get(10, TimeUnit.SECONDS);
+      }
+
+      final var iterator = eventLog.iterator();
+      for (int i = 0; i < nThreads * nEventsPerThread; i++) {
+        assertThat(iterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenIndexNotMatchingLog_whenIteratingFromTime_shouldFallBackToScanning()
+      throws Exception {
+    final Path filePath = copyResourceToTempFile("TwoEvents.jsonl");
+    final Path indexPath = filePath.resolveSibling(filePath.getFileName() + ".idx");
+    indexPath.toFile().deleteOnExit();
+    final EventEnvelope event1;
+    final EventEnvelope event2;
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath)) {
+      final var iterator = eventLog.iterator();
+      event1 = iterator.next();
+      event2 = iterator.next();
+    }
+    // an entry pointing in the middle of the first line
+    Files.write(
+        indexPath,
+        ByteBuffer.allocate(SparseIndex.ENTRY_SIZE)
+            .putLong(event1.time().instant.getEpochSecond())
+            .putInt(event1.time().instant.getNano())
+            .putInt(event1.time().tiebreaker)
+            .putLong(3)
+            .array());
+
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath)) {
+      final var iterator = eventLog.iterator(event1.time());
+      assertThat(iterator.next(), is(event2));
+      assertFalse(Files.exists(indexPath));
+    }
+  }
+
+  @Test
+  public void givenSegmentBytes_whenAppendingMany_shouldSealSegmentsAndIterateAcrossThem(
+      @TempDir Path dir) throws Exception {
+    final Path filePath = dir.resolve("events.jsonl");
+    final List<SealedSegment> sealedSegments = new ArrayList<>();
+    final LocalFileSystemEventLog.Options options =
+        new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.JSONL)
+            .withSegmentBytes(1000)
+            .withOnSealed(sealedSegments::add);
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath, options)) {
+      final var tailingIterator = eventLog.iterator();
+      EventTime prevTime = EventTime.INFINITE_PAST;
+      for (int i = 0; i < 50; i++) {
+        assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(i), prevTime));
+        prevTime = dummyEvent(i).time();
+        assertThat(tailingIterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(tailingIterator.wouldBlock());
+
+      assertThat(sealedSegments.size() > 1, is(true));
+      assertThat(SealedSegment.list(filePath), is(sealedSegments));
+      assertThat(sealedSegments.get(0).first(), is(dummyEvent(0).time()));
+      for (SealedSegment sealed : sealedSegments) {
+        assertTrue(Files.exists(sealed.path()));
+      }
+
+      final var iterator = eventLog.iterator();
+      for (int i = 0; i < 50; i++) {
+        assertThat(iterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(iterator.wouldBlock());
+      assertThat(iterator.appendOrPeek(dummyEvent(50)), is(dummyEvent(50)));
+      assertThat(iterator.next(), is(dummyEvent(50)));
+      assertThat(tailingIterator.next(), is(dummyEvent(50)));
+
+      final SealedSegment second = sealedSegments.get(1);
+      final var seekingIterator = eventLog.iterator(second.first());
+      assertThat(seekingIterator.next().time().tiebreaker, is(second.first().tiebreaker + 1));
+
+      // expire the oldest history
+      Files.delete(sealedSegments.get(0).path());
+      assertThat(eventLog.iterator().next().time(), is(second.first()));
+    }
+  }
+
+  @Test
+  public void givenSegmentedLog_whenAnotherLogInstanceSealed_shouldAppendToNewSegment(
+      @TempDir Path dir) throws Exception {
+    final Path filePath = dir.resolve("events.bin");
+    final LocalFileSystemEventLog.Options options =
+        new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.BINARY)
+            .withSegmentSpan(Duration.ofSeconds(1));
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath, options);
+        // stands in for another process appending to the same log
+        LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath, options)) {
+      final EventEnvelope event0 = dummyEvent(0);
+      final EventEnvelope event1 =
+          new EventEnvelope(
+              new EventTime(event0.time().instant.plusSeconds(1)),
+              null,
+              "pojo:io.ulzha.spive.test.WhamProcess",
+              "\"WHAM!\"");
+      final EventEnvelope event2 =
+          new EventEnvelope(
+              new EventTime(event0.time().instant.plusSeconds(1), 1),
+              null,
+              "pojo:io.ulzha.spive.test.WhamProcess",
+              "\"WHAM!\"");
+      final var iterator = eventLog.iterator();
+      assertTrue(eventLog.appendIfPrevTimeMatch(event0, EventTime.INFINITE_PAST));
+      assertTrue(otherEventLog.appendIfPrevTimeMatch(event1, event0.time()));
+      assertThat(SealedSegment.list(filePath).size(), is(1));
+
+      assertFalse(eventLog.appendIfPrevTimeMatch(event2, event0.time()));
+      assertTrue(eventLog.appendIfPrevTimeMatch(event2, event1.time()));
+      assertThat(SealedSegment.list(filePath).size(), is(1));
+
+      assertThat(iterator.next(), is(event0));
+      assertThat(iterator.next(), is(event1));
+      assertThat(iterator.next(), is(event2));
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenSealingCrashedBeforeRenaming_whenAppended_shouldRenameAndReadOn(
+      @TempDir Path dir) throws Exception {
+    final Path filePath = dir.resolve("events.bin");
+    final LocalFileSystemEventLog.Options options =
+        new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.BINARY)
+            .withSegmentSpan(Duration.ofSeconds(1));
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath, options)) {
+      final var iterator = eventLog.iterator();
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(0), EventTime.INFINITE_PAST));
+      assertThat(iterator.next(), is(dummyEvent(0)));
+      // simulate a crash of another process right after writing the seal marker
+      Files.write(
+          filePath,
+          LocalFileSystemEventLog.Format.BINARY.codec.encodeSealMarker().array(),
+          StandardOpenOption.APPEND);
+
+      // rather than reading the same segment from the start once more
+      assertTrue(iterator.wouldBlock());
+      assertFalse(iterator.onAvailable().isDone());
+
+      try (LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath, options)) {
+        assertTrue(otherEventLog.appendIfPrevTimeMatch(dummyEvent(1), dummyEvent(0).time()));
+      }
+      assertThat(
+          SealedSegment.list(filePath),
+          is(List.of(SealedSegment.of(filePath, dummyEvent(0).time(), dummyEvent(0).time()))));
+      assertThat(iterator.next(), is(dummyEvent(1)));
+      assertTrue(iterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenCompressSealed_whenAppendingMany_shouldCompressSegmentsAndIterateAcrossThem(
+      @TempDir Path dir) throws Exception {
+    final Path filePath = dir.resolve("events.jsonl");
+    final List<SealedSegment> sealedSegments = new CopyOnWriteArrayList<>();
+    final LocalFileSystemEventLog.Options options =
+        new LocalFileSystemEventLog.Options(LocalFileSystemEventLog.Format.JSONL)
+            .withSegmentBytes(200_000)
+            .withGroupCommitWindow(Duration.ofMillis(1))
+            .withCompressSealed(true)
+            .withOnSealed(sealedSegments::add);
+    final String payload = "\"" + "WHAM! ".repeat(200) + "\"";
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath, options)) {
+      final var tailingIterator = eventLog.iterator();
+      EventTime prevTime = EventTime.INFINITE_PAST;
+      for (int i = 0; i < 600; i++) {
+        assertTrue(eventLog.appendIfPrevTimeMatch(bigEvent(i, payload), prevTime));
+        prevTime = bigEvent(i, payload).time();
+        assertThat(tailingIterator.next(), is(bigEvent(i, payload)));
+      }
+
+      await()
+          .atMost(10, TimeUnit.SECONDS)
+          .until(() -> SealedSegment.list(filePath).equals(sealedSegments));
+      assertThat(sealedSegments.size() > 1, is(true));
+      for (SealedSegment sealed : sealedSegments) {
+        assertTrue(sealed.compressed());
+        assertTrue(Files.size(sealed.path()) < 20_000);
+        assertFalse(Files.exists(sealed.indexPath()));
+        assertFalse(Files.exists(dir.resolve(sealed.path().getFileName() + ".tmp")));
+      }
+      try (var files = Files.list(dir)) {
+        // no uncompressed sealed segments left behind
+        assertThat(
+            files.filter(p -> p.getFileName().toString().matches("events\\..+_.+\\.jsonl")).count(),
+            is(0L));
+      }
+
+      final var iterator = eventLog.iterator();
+      for (int i = 0; i < 600; i++) {
+        assertThat(iterator.next(), is(bigEvent(i, payload)));
+      }
+      assertTrue(iterator.wouldBlock());
+
+      // into the middle of a compressed segment, beyond its first block
+      final var seekingIterator = eventLog.iterator(bigEvent(420, payload).time());
+      assertThat(seekingIterator.next(), is(bigEvent(421, payload)));
+    }
+  }
+
+  @Test
+  public void givenRunOfEvents_whenAppendedAll_shouldAppendAllOrNothing() throws Exception {
+    final Path filePath = emptyTempFile();
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath);
+        // stands in for another process appending to the same log
+        LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath)) {
+      final var iterator = eventLog.iterator();
+      final List<EventEnvelope> run = List.of(dummyEvent(0), dummyEvent(1), dummyEvent(2));
+      assertTrue(iterator.appendAllOrPeek(run) == run.get(0));
+
+      assertFalse(
+          otherEventLog.appendAllIfPrevTimeMatch(
+              List.of(dummyEvent(3), dummyEvent(4)), dummyEvent(1).time()));
+      assertTrue(
+          otherEventLog.appendAllIfPrevTimeMatch(
+              List.of(dummyEvent(3), dummyEvent(4)), dummyEvent(2).time()));
+      Assertions.assertThrows(
+          IllegalArgumentException.class,
+          () ->
+              eventLog.appendAllIfPrevTimeMatch(
+                  List.of(dummyEvent(6), dummyEvent(5)), dummyEvent(4).time()));
+
+      for (EventEnvelope event : run) {
+        assertTrue(iterator.next() == event);
+      }
+      assertThat(iterator.appendAllOrPeek(List.of(dummyEvent(5))), is(dummyEvent(3)));
+      assertThat(iterator.next(), is(dummyEvent(3)));
+      assertThat(iterator.next(), is(dummyEvent(4)));
+      assertTrue(iterator.wouldBlock());
+
+      final var otherIterator = otherEventLog.iterator(dummyEvent(1).time());
+      for (int i = 2; i < 5; i++) {
+        assertThat(otherIterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(otherIterator.wouldBlock());
+    }
+  }
+
+  @Test
+  public void givenConcurrentWriters_whenAppendingWithAdjustedTime_shouldAppendAllInOrder()
+      throws Exception {
+    final Path filePath = emptyTempFile();
+    final int nThreads = 4;
+    final int nEventsPerThread = 25;
+    try (LocalFileSystemEventLog eventLog = new LocalFileSystemEventLog(filePath);
+        // stands in for another process appending to the same log
+        LocalFileSystemEventLog otherEventLog = new LocalFileSystemEventLog(filePath)) {
+      final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+      final List<Future<?>> acts = new ArrayList<>();
+      for (int t = 0; t < nThreads; t++) {
+        acts.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < nEventsPerThread; i++) {
+                    // all at the same time, so most need adjusting
+                    final EventTime time = eventLog.appendAndGetAdjustedTime(dummyEvent(0));
+                    assertThat(time.instant, is(dummyEvent(0).time().instant));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> act : acts) {
+        act.get(10, TimeUnit.SECONDS);
+      }
+
+      final int n = nThreads * nEventsPerThread;
+      assertThat(otherEventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(n).time()));
+      final EventEnvelope later = dummyEvent(1000);
+      assertThat(eventLog.appendAndGetAdjustedTime(later), is(later.time()));
+
+      final var iterator = eventLog.iterator();
+      for (int i = 0; i <= n; i++) {
+        assertThat(iterator.next(), is(dummyEvent(i)));
+      }
+      assertThat(iterator.next(), is(later));
+      assertTrue(iterator.wouldBlock());
+      assertThat(eventLog.appendCounters().appended(), is((long) n + 1));
+      assertThat(eventLog.appendCounters().adjusted(), is((long) n - 1));
+      assertThat(eventLog.appendCounters().conflicts(), is(0L));
+    }
+  }
+
   private EventEnvelope dummyEvent(int i) {
     return new EventEnvelope(
         new EventTime(Instant.parse("1111-11-11T00:00:00Z"), i),
@@ -430,13 +1039,21 @@ public class LocalFileSystemEventLogTest {
         "\"WHAM!\"");
   }
 
+  private EventEnvelope bigEvent(int i, String payload) {
+    return new EventEnvelope(
+        new EventTime(Instant.parse("1111-11-11T00:00:00Z"), i),
+        null,
+        "pojo:io.ulzha.spive.test.WhamProcess",
+        payload);
+  }
+
   private Path copyResourceToTempFile(final String name) throws IOException {
     final Path filePathOrig =
         Path.of(Objects.requireNonNull(getClass().getResource(name)).getPath());
 
     final File file = File.createTempFile("spive_test_", "__" + name);
-    file.deleteOnExit();
     final Path filePath = file.toPath();
+    deleteOnExit(filePath);
     Files.copy(filePathOrig, filePath, StandardCopyOption.REPLACE_EXISTING);
 
     return filePath;
@@ -444,9 +1061,15 @@ public class LocalFileSystemEventLogTest {
 
   private Path emptyTempFile() throws IOException {
     final File file = File.createTempFile("spive_test_", "__Events.jsonl");
-    file.deleteOnExit();
     final Path filePath = file.toPath();
+    deleteOnExit(filePath);
 
     return filePath;
   }
+
+  /** Along with the index that opening the log creates next to it. */
+  private static void deleteOnExit(final Path filePath) {
+    filePath.toFile().deleteOnExit();
+    filePath.resolveSibling(filePath.getFileName() + ".idx").toFile().deleteOnExit();
+  }
 }
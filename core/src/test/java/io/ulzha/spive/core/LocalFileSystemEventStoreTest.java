@@ -0,0 +1,55 @@
+package io.ulzha.spive.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventLog;
+import io.ulzha.spive.lib.EventTime;
+import io.ulzha.spive.lib.InternalException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.UUID;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LocalFileSystemEventStoreTest {
+  @Test
+  public void givenBasePathWithSemicolons_whenOptionsAppended_shouldStoreUnderWholeBasePath(
+      @TempDir final Path dir) throws Exception {
+    final Path basePath = dir.resolve("a;b=c;d");
+    final LocalFileSystemEventStore store =
+        new LocalFileSystemEventStore(
+            "io.ulzha.spive.core.LocalFileSystemEventStore;basePath="
+                + basePath
+                + ";format=binary;maxOpenHandles=2");
+    final UUID logId = UUID.randomUUID();
+    final EventLog log = store.openLog(logId);
+
+    final EventEnvelope event =
+        new EventEnvelope(
+            new EventTime(Instant.parse("1111-11-11T00:00:00Z"), 0),
+            null,
+            "pojo:io.ulzha.spive.test.WhamProcess",
+            "\"WHAM!\"");
+    assertTrue(log.appendIfPrevTimeMatch(event, EventTime.INFINITE_PAST));
+    log.close();
+
+    assertTrue(Files.exists(basePath.resolve(logId.toString()).resolve("events.bin")));
+    assertThat(store.openLog(logId).iterator().next(), is(event));
+  }
+
+  @Test
+  public void givenMisspeltOption_shouldThrow(@TempDir final Path dir) {
+    Assertions.assertThrows(
+        InternalException.class,
+        () ->
+            new LocalFileSystemEventStore(
+                "io.ulzha.spive.core.LocalFileSystemEventStore;basePath="
+                    + dir
+                    + ";fromat=binary;maxOpenHandles=2"));
+  }
+}
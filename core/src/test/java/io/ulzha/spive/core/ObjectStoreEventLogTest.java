@@ -0,0 +1,162 @@
+package io.ulzha.spive.core;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventTime;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ObjectStoreEventLogTest {
+  @Test
+  public void givenRunOfEvents_whenAppendedAll_shouldStoreInOneObjectAndReadInOrder(
+      @TempDir Path dir) throws Exception {
+    final BlobStore blobStore = new LocalFileSystemBlobStore(dir);
+    final UUID logId = UUID.randomUUID();
+    try (ObjectStoreEventLog eventLog = new ObjectStoreEventLog(blobStore, logId);
+        // stands in for another process appending to the same log
+        ObjectStoreEventLog otherEventLog = new ObjectStoreEventLog(blobStore, logId)) {
+      final var iterator = eventLog.iterator();
+      final List<EventEnvelope> run = List.of(dummyEvent(0), dummyEvent(1), dummyEvent(2));
+      assertTrue(iterator.appendAllOrPeek(run) == run.get(0));
+      assertThat(blobStore.list(logId + "/data/", null, 10).size(), is(1));
+
+      assertFalse(otherEventLog.appendIfPrevTimeMatch(dummyEvent(3), dummyEvent(1).time()));
+      assertTrue(otherEventLog.appendIfPrevTimeMatch(dummyEvent(3), dummyEvent(2).time()));
+      Assertions.assertThrows(
+          IllegalArgumentException.class,
+          () -> otherEventLog.appendIfPrevTimeMatch(dummyEvent(5), dummyEvent(4).time()));
+
+      for (EventEnvelope event : run) {
+        assertTrue(iterator.next() == event);
+      }
+      assertThat(iterator.appendOrPeek(dummyEvent(4)), is(dummyEvent(3)));
+      assertThat(iterator.next(), is(dummyEvent(3)));
+      assertTrue(iterator.wouldBlock());
+      assertTrue(iterator.appendOrPeek(dummyEvent(4)) == iterator.next());
+      assertTrue(iterator.wouldBlock());
+
+      // otherEventLog has not seen the latest append, via iterator
+      assertFalse(otherEventLog.appendIfPrevTimeMatch(dummyEvent(5), dummyEvent(3).time()));
+      assertThat(otherEventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(5).time()));
+    }
+  }
+
+  @Test
+  public void givenManyObjects_whenIteratingFromTime_shouldStartAfterThatTime(@TempDir Path dir)
+      throws Exception {
+    final BlobStore blobStore = new LocalFileSystemBlobStore(dir);
+    final UUID logId = UUID.randomUUID();
+    final int n = 3 * ObjectStoreEventLog.SEEK_INTERVAL + 5;
+    try (ObjectStoreEventLog eventLog = new ObjectStoreEventLog(blobStore, logId)) {
+      for (int i = 0; i < n; i++) {
+        assertThat(eventLog.appendAndGetAdjustedTime(dummyEvent(0)), is(dummyEvent(i).time()));
+      }
+      assertThat(eventLog.appendCounters().conflicts(), is(0L));
+      assertThat(blobStore.list(logId + "/seek/", null, 10).size(), is(4));
+    }
+
+    // anew, so nothing is cached
+    try (ObjectStoreEventLog eventLog = new ObjectStoreEventLog(blobStore, logId)) {
+      final var iterator = eventLog.iterator(dummyEvent(150).time());
+      for (int i = 151; i < n; i++) {
+        assertThat(iterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(iterator.wouldBlock());
+      assertTrue(iterator.appendOrPeek(dummyEvent(n)) == iterator.next());
+
+      assertTrue(eventLog.appendIfPrevTimeMatch(dummyEvent(n + 1), dummyEvent(n).time()));
+      assertThat(
+          new ObjectStoreEventLog(blobStore, logId).appendAndGetAdjustedTime(dummyEvent(0)),
+          is(dummyEvent(n + 2).time()));
+    }
+  }
+
+  @Test
+  public void givenConcurrentWriters_whenAppendingWithAdjustedTime_shouldBatchAndAppendAllInOrder(
+      @TempDir Path dir) throws Exception {
+    final BlobStore localBlobStore = new LocalFileSystemBlobStore(dir);
+    // slow to create, like a remote object store, so that appends pile up meanwhile
+    final BlobStore blobStore =
+        new BlobStore() {
+          @Override
+          public boolean createIfAbsent(final String name, final ByteBuffer content)
+              throws IOException {
+            try {
+              Thread.sleep(10);
+            } catch (InterruptedException e) {
+              throw new InterruptedIOException();
+            }
+            return localBlobStore.createIfAbsent(name, content);
+          }
+
+          @Override
+          public ByteBuffer read(final String name) throws IOException {
+            return localBlobStore.read(name);
+          }
+
+          @Override
+          public List<String> list(final String prefix, final String startAfter, final int limit)
+              throws IOException {
+            return localBlobStore.list(prefix, startAfter, limit);
+          }
+        };
+    final UUID logId = UUID.randomUUID();
+    final int nThreads = 4;
+    final int nEventsPerThread = 25;
+    try (ObjectStoreEventLog eventLog = new ObjectStoreEventLog(blobStore, logId)) {
+      final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+      final List<Future<?>> acts = new ArrayList<>();
+      for (int t = 0; t < nThreads; t++) {
+        acts.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < nEventsPerThread; i++) {
+                    // all at the same time, so most need adjusting
+                    final EventTime time = eventLog.appendAndGetAdjustedTime(dummyEvent(0));
+                    assertThat(time.instant, is(dummyEvent(0).time().instant));
+                  }
+                  return null;
+                }));
+      }
+      for (Future<?> act : acts) {
+        act.get(10, TimeUnit.SECONDS);
+      }
+      executor.shutdown();
+
+      final int n = nThreads * nEventsPerThread;
+      assertTrue(blobStore.list(logId + "/data/", null, n).size() < n);
+      final var iterator = eventLog.iterator();
+      for (int i = 0; i < n; i++) {
+        assertThat(iterator.next(), is(dummyEvent(i)));
+      }
+      assertTrue(iterator.wouldBlock());
+      assertThat(eventLog.appendCounters().appended(), is((long) n));
+      assertThat(eventLog.appendCounters().conflicts(), is(0L));
+    }
+  }
+
+  private EventEnvelope dummyEvent(int i) {
+    return new EventEnvelope(
+        new EventTime(Instant.parse("1111-11-11T00:00:00Z"), i),
+        null,
+        "pojo:io.ulzha.spive.test.WhamProcess",
+        "\"WHAM!\"");
+  }
+}
@@ -0,0 +1,61 @@
+package io.ulzha.spive.core;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class TailNotifierTest {
+  @Test
+  public void givenUnwatchedFile_whenOnSignalTimesOut_shouldHandOutFreshFuture(
+      @TempDir final Path dir) {
+    // a missing directory cannot be watched
+    try (TailNotifier notifier = new TailNotifier(dir.resolve("missing").resolve("Events.jsonl"))) {
+      final CompletableFuture<Void> first = notifier.onSignal();
+      assertSame(first, notifier.onSignal());
+      await().atMost(Duration.ofSeconds(1)).until(first::isDone);
+
+      final CompletableFuture<Void> second = notifier.onSignal();
+      assertNotSame(first, second);
+      assertFalse(second.isDone());
+    }
+  }
+
+  @Test
+  public void givenWatchedFile_whenSignalled_shouldCompleteOnSignalAndHandOutFreshFuture(
+      @TempDir final Path dir) {
+    try (TailNotifier notifier = new TailNotifier(dir.resolve("Events.jsonl"))) {
+      final CompletableFuture<Void> first = notifier.onSignal();
+      assertFalse(first.isDone());
+      notifier.signal();
+      assertTrue(first.isDone());
+      assertFalse(notifier.onSignal().isDone());
+    }
+  }
+
+  @Test
+  public void givenNotifierCreatedInApplicationThreadGroup_shouldNotStartWatcherThreadThere(
+      @TempDir final Path dir) throws Exception {
+    final ThreadGroup group = new ThreadGroup("app");
+    final Thread thread =
+        new Thread(group, () -> new TailNotifier(dir.resolve("Events.jsonl")).close(), "app-main");
+    thread.start();
+    thread.join();
+
+    final Thread watcher =
+        Thread.getAllStackTraces().keySet().stream()
+            .filter(t -> t.getName().equals("spive-tail-watcher"))
+            .findAny()
+            .orElseThrow();
+    assertNotSame(group, watcher.getThreadGroup());
+    assertNull(watcher.getThreadGroup().getParent());
+  }
+}
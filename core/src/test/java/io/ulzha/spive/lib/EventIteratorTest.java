@@ -1,9 +1,13 @@
 package io.ulzha.spive.lib;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 import java.time.Instant;
+import java.util.List;
 import org.junit.jupiter.api.Test;
 
 public class EventIteratorTest {
@@ -35,4 +39,148 @@ public class EventIteratorTest {
       verify(spy, times(3)).next(); // no new invocations
     }
   }
+
+  @Test
+  public void givenConsequentialEvents_whenFlushed_thenAppendedAsOneRun() throws Exception {
+    final EventEnvelope e0 = dummyEvent(0);
+    final EventEnvelope e1 = dummyEvent(1);
+    final EventEnvelope e2 = dummyEvent(2);
+    try (EventLog log = new InMemoryEventLog()) {
+      final EventLog.AppendIterator spy = spy(log.iterator());
+
+      final EventIterator sut = new EventIterator(spy);
+
+      sut.addConsequential(e0);
+      sut.addConsequential(e1);
+      sut.addConsequential(e2);
+      verify(spy, never()).appendAllOrPeek(any());
+
+      assertThat(sut.flushConsequential(), is(List.of(e0, e1, e2)));
+      verify(spy, times(1)).appendAllOrPeek(any());
+
+      assertTrue(sut.next() == e0);
+      assertTrue(sut.next() == e1);
+      assertTrue(sut.next() == e2);
+    }
+  }
+
+  @Test
+  public void givenDelegateRejectingRuns_whenFlushed_thenAppendedOneAtATime() throws Exception {
+    final EventEnvelope e0 = dummyEvent(0);
+    final EventEnvelope e1 = dummyEvent(1);
+    final EventEnvelope e2 = dummyEvent(2);
+    final EventEnvelope e3 = dummyEvent(3);
+    final EventEnvelope e4 = dummyEvent(4);
+    try (EventLog log = new InMemoryEventLog()) {
+      final EventLog.AppendIterator spy = spy(log.iterator());
+      // as the default implementation does, like for Bigtable
+      doAnswer(
+              invocation -> {
+                if (invocation.<List<?>>getArgument(0).size() > 1) {
+                  throw new UnsupportedOperationException("appendAllOrPeek");
+                }
+                return invocation.callRealMethod();
+              })
+          .when(spy)
+          .appendAllOrPeek(any());
+
+      final EventIterator sut = new EventIterator(spy);
+
+      sut.addConsequential(e0);
+      sut.addConsequential(e1);
+      sut.addConsequential(e2);
+      assertThat(sut.flushConsequential(), is(List.of(e0, e1, e2)));
+      verify(spy, times(4)).appendAllOrPeek(any());
+      for (EventEnvelope event : List.of(e0, e1, e2)) {
+        assertTrue(sut.next() == event);
+      }
+
+      // not attempting runs any more
+      sut.addConsequential(e3);
+      sut.addConsequential(e4);
+      assertThat(sut.flushConsequential(), is(List.of(e3, e4)));
+      verify(spy, times(6)).appendAllOrPeek(any());
+
+      assertTrue(sut.next() == e3);
+      assertTrue(sut.next() == e4);
+    }
+  }
+
+  @Test
+  public void givenConsequentialEventsInLogAlready_whenFlushed_thenNothingAppended()
+      throws Exception {
+    final EventEnvelope e0 = dummyEvent(0);
+    final EventEnvelope e1 = dummyEvent(1);
+    final EventEnvelope e2 = dummyEvent(2);
+    try (InMemoryEventLog log = new InMemoryEventLog()) {
+      // as if by a previous run of the same handler
+      log.appendAllIfPrevTimeMatch(List.of(e0, e1), EventTime.INFINITE_PAST);
+
+      final EventIterator sut = new EventIterator(log.iterator());
+
+      sut.addConsequential(dummyEvent(0));
+      sut.addConsequential(dummyEvent(1));
+      sut.addConsequential(e2);
+      assertThat(sut.flushConsequential(), is(List.of(e2)));
+
+      assertTrue(sut.next() == e0);
+      assertTrue(sut.next() == e1);
+      assertTrue(sut.next() == e2);
+      assertThat(log.latestEventTime(), is(e2.time()));
+
+      log.appendIfPrevTimeMatch(dummyEvent(3), e2.time());
+      sut.addConsequential(
+          new EventEnvelope(dummyEvent(3).time(), null, "hurr:durr.Batman", "\"different\""));
+      assertThrows(IllegalStateException.class, sut::flushConsequential);
+    }
+  }
+
+  @Test
+  public void givenReaderAtEndOfLog_whenAppendedFromAnotherThread_thenReadBackInOrder()
+      throws Exception {
+    final int n = 1000;
+    try (InMemoryEventLog log = new InMemoryEventLog()) {
+      final EventIterator sut = new EventIterator(log.iterator());
+      final Thread appender =
+          new Thread(
+              () -> {
+                for (int i = 0; i < n; i++) {
+                  sut.appendOrPeek(dummyEvent(i));
+                }
+              });
+      appender.start();
+
+      for (int i = 0; i < n; i++) {
+        assertThat(sut.next(), is(dummyEvent(i)));
+      }
+      appender.join();
+      assertTrue(sut.wouldBlock());
+      assertThat(log.latestEventTime(), is(dummyEvent(n - 1).time()));
+    }
+  }
+
+  @Test
+  public void givenMoreEventsAppendedThanRead_whenConsequentialFlushed_thenCheckedAgainstUnread()
+      throws Exception {
+    final int n = 600;
+    try (InMemoryEventLog log = new InMemoryEventLog()) {
+      final EventIterator sut = new EventIterator(log.iterator());
+      for (int i = 0; i < n; i++) {
+        sut.appendOrPeek(dummyEvent(i));
+      }
+      for (int i = 0; i < 300; i++) {
+        sut.next();
+      }
+
+      for (int i = 300; i < n; i++) {
+        sut.addConsequential(dummyEvent(i));
+      }
+      assertThat(sut.flushConsequential(), is(List.of()));
+
+      sut.addConsequential(dummyEvent(300));
+      sut.addConsequential(
+          new EventEnvelope(dummyEvent(301).time(), null, "hurr:durr.Batman", "\"different\""));
+      assertThrows(IllegalStateException.class, sut::flushConsequential);
+    }
+  }
 }
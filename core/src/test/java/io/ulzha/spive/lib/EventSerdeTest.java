@@ -0,0 +1,146 @@
+package io.ulzha.spive.lib;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+public class EventSerdeTest {
+  private static final String TAG = "pojo:java.lang.String";
+
+  public record Sample(
+      UUID id,
+      EventTime time,
+      Instant instant,
+      URI uri,
+      String name,
+      List<String> tags,
+      Map<String, String> attributes,
+      long n) {}
+
+  // the way GenerateIocCode would generate it
+  public static final class SampleBin1Codec implements BinaryCodec<Sample> {
+    @Override
+    public Class<Sample> type() {
+      return Sample.class;
+    }
+
+    @Override
+    public void write(final Sample value, final DataOutput out) throws IOException {
+      Bin1.writeUuid(out, value.id());
+      Bin1.writeEventTime(out, value.time());
+      Bin1.writeInstant(out, value.instant());
+      Bin1.writeUri(out, value.uri());
+      Bin1.writeString(out, value.name());
+      Bin1.writeList(out, value.tags(), Bin1::writeString);
+      Bin1.writeMap(out, value.attributes(), Bin1::writeString, Bin1::writeString);
+      out.writeLong(value.n());
+    }
+
+    @Override
+    public Sample read(final DataInput in) throws IOException {
+      return new Sample(
+          Bin1.readUuid(in),
+          Bin1.readEventTime(in),
+          Bin1.readInstant(in),
+          Bin1.readUri(in),
+          Bin1.readString(in),
+          Bin1.readList(in, Bin1::readString),
+          Bin1.readMap(in, Bin1::readString, Bin1::readString),
+          in.readLong());
+    }
+  }
+
+  @Test
+  public void givenSameTagAndClassLoader_whenLookedUpAgain_shouldReturnCachedSerde() {
+    final EventSerde serde = EventSerde.forTypeTag(TAG);
+    assertTrue(EventSerde.forTypeTag(TAG) == serde);
+    assertThat(serde.deserialize(serde.serialize("WHAM!")), is("WHAM!"));
+  }
+
+  @Test
+  public void givenApplicationClassLoader_whenEvicted_shouldResolveAnew() throws Exception {
+    final Thread thread = Thread.currentThread();
+    final ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader = new URLClassLoader(new URL[0], original)) {
+      thread.setContextClassLoader(loader);
+      final EventSerde serde = EventSerde.forTypeTag(TAG);
+      assertTrue(EventSerde.forTypeTag(TAG, loader) == serde);
+      assertFalse(EventSerde.forTypeTag(TAG, original) == serde);
+
+      EventSerde.evict(loader);
+      assertFalse(EventSerde.forTypeTag(TAG) == serde);
+      assertTrue(EventSerde.forTypeTag(TAG) == EventSerde.forTypeTag(TAG, loader));
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+  }
+
+  @Test
+  public void givenCodecRegisteredInApplicationContext_whenLookedUpThere_shouldReturnIt()
+      throws Exception {
+    final String tag = "bin1:" + Sample.class.getName();
+    final Thread thread = Thread.currentThread();
+    final ClassLoader original = thread.getContextClassLoader();
+    try (URLClassLoader loader = new URLClassLoader(new URL[0], original)) {
+      thread.setContextClassLoader(loader);
+      // the codec class itself comes from the parent, as when packaged in a library
+      final EventSerde serde = EventSerde.forCodec(tag, new SampleBin1Codec());
+      assertTrue(EventSerde.forTypeTag(tag) == serde);
+      assertTrue(EventSerde.forTypeTag(tag, loader) == serde);
+
+      EventSerde.evict(loader);
+      assertThrows(InternalException.class, () -> EventSerde.forTypeTag(tag));
+    } finally {
+      thread.setContextClassLoader(original);
+    }
+  }
+
+  @Test
+  public void givenBin1Codec_whenRoundTripped_shouldMatchAndBeSmallerThanJson() {
+    final String tag = "bin1:" + Sample.class.getName();
+    final EventSerde serde = EventSerde.forCodec(tag, new SampleBin1Codec());
+    assertTrue(EventSerde.forTypeTag(tag) == serde);
+    assertTrue(EventSerde.forCodec(tag, new SampleBin1Codec()) == serde);
+
+    final Sample sample =
+        new Sample(
+            UUID.randomUUID(),
+            new EventTime(Instant.parse("2024-03-10T13:51:56.123Z"), 2),
+            Instant.parse("2024-03-10T13:51:57Z"),
+            URI.create("gs://bucket/foo"),
+            "Žuvėdra",
+            List.of("a", "bb"),
+            Map.of("k", "v"),
+            1L << 40);
+    final String serialized = serde.serialize(sample);
+    assertThat(serde.deserialize(serialized), is(sample));
+    assertThat(
+        serde.deserialize(ByteBuffer.wrap(serialized.getBytes(StandardCharsets.UTF_8))),
+        is(sample));
+    assertTrue(
+        serialized.length()
+            < EventSerde.forTypeTag("pojo:" + Sample.class.getName()).serialize(sample).length());
+
+    final Sample empty = new Sample(null, EventTime.INFINITE_PAST, null, null, null, null, null, 0);
+    assertThat(serde.deserialize(serde.serialize(empty)), is(empty));
+    assertTrue(
+        ((Sample) serde.deserialize(serde.serialize(empty))).time() == EventTime.INFINITE_PAST);
+    assertThat(serde.deserialize(serde.serialize(null)), is((Object) null));
+  }
+}
@@ -0,0 +1,121 @@
+package io.ulzha.spive.lib;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryEventLogTest {
+  private EventEnvelope dummyEvent(int i) {
+    return new EventEnvelope(
+        new EventTime(Instant.ofEpochSecond(1710078716), i), null, "hurr:durr.Batman", null);
+  }
+
+  @Test
+  public void givenIteratorAtTail_whenAppended_shouldUnblockWithAppendedEvent() throws Exception {
+    final InMemoryEventLog log = new InMemoryEventLog();
+    final EventLog.AppendIterator iterator = log.iterator();
+    assertTrue(iterator.wouldBlock());
+
+    final CompletableFuture<EventEnvelope> read = CompletableFuture.supplyAsync(iterator::next);
+    Thread.sleep(50);
+    assertFalse(read.isDone());
+
+    final EventEnvelope e0 = dummyEvent(0);
+    assertTrue(log.appendIfPrevTimeMatch(e0, EventTime.INFINITE_PAST));
+    await().atMost(Duration.ofSeconds(5)).until(read::isDone);
+    assertTrue(read.get() == e0);
+    assertTrue(iterator.wouldBlock());
+  }
+
+  @Test
+  public void givenIteratorAtTail_whenAppended_shouldCompleteOnAvailable() throws Exception {
+    final InMemoryEventLog log = new InMemoryEventLog();
+    final EventLog.AppendIterator iterator = log.iterator();
+    final CompletableFuture<Void> available = iterator.onAvailable();
+    assertFalse(available.isDone());
+    // the same future until completed
+    assertTrue(iterator.onAvailable() == available);
+
+    final EventEnvelope e0 = dummyEvent(0);
+    assertTrue(log.appendIfPrevTimeMatch(e0, EventTime.INFINITE_PAST));
+    assertTrue(available.isDone());
+    assertTrue(iterator.onAvailable() == EventLog.AppendIterator.AVAILABLE);
+    assertTrue(iterator.next() == e0);
+    assertFalse(iterator.onAvailable().isDone());
+  }
+
+  @Test
+  public void givenConcurrentWriters_whenAppendingWithAdjustedTime_shouldAppendAllInOrder()
+      throws Exception {
+    final InMemoryEventLog log = new InMemoryEventLog();
+    final int nThreads = 4;
+    final int nPerThread = 1000; // spanning several chunks
+    final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+    final List<Future<?>> futures = new ArrayList<>();
+    for (int t = 0; t < nThreads; t++) {
+      futures.add(
+          executor.submit(
+              () -> {
+                for (int i = 0; i < nPerThread; i++) {
+                  log.appendAndGetAdjustedTime(dummyEvent(0));
+                }
+              }));
+    }
+    final EventLog.AppendIterator iterator = log.iterator();
+    for (int i = 0; i < nThreads * nPerThread; i++) {
+      assertThat(iterator.next().time(), is(dummyEvent(i).time()));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertTrue(iterator.wouldBlock());
+    assertThat(log.appendCounters().appended(), is((long) nThreads * nPerThread));
+    assertThat(log.latestEventTime(), is(dummyEvent(nThreads * nPerThread - 1).time()));
+  }
+
+  @Test
+  public void givenClosedForAppending_whenIterated_shouldFinishAndRejectAppends() throws Exception {
+    final InMemoryEventLog log = new InMemoryEventLog();
+    final EventLog.AppendIterator iterator = log.iterator();
+    assertTrue(iterator.appendAllOrPeek(List.of(dummyEvent(0), dummyEvent(1))) != null);
+    final CompletableFuture<Boolean> hasMore =
+        CompletableFuture.supplyAsync(
+            () -> {
+              iterator.next();
+              iterator.next();
+              return iterator.hasNext();
+            });
+
+    log.closeForAppending();
+    assertFalse(hasMore.get());
+    assertThat(log.latestEventTime(), is(dummyEvent(1).time()));
+    assertThrows(
+        IllegalStateException.class,
+        () -> log.appendIfPrevTimeMatch(dummyEvent(2), dummyEvent(1).time()));
+    assertThrows(IllegalStateException.class, () -> log.appendAndGetAdjustedTime(dummyEvent(2)));
+    assertThrows(IllegalStateException.class, () -> iterator.appendOrPeek(dummyEvent(2)));
+    assertThrows(IllegalStateException.class, log::closeForAppending);
+  }
+
+  @Test
+  public void givenConnectionString_whenOpened_shouldShareLogsByName() throws Exception {
+    final String logId = "e2a32c33-6b8b-4d14-b06f-0e8e6a4a2e2b";
+    final EventLog log = EventLog.open("io.ulzha.spive.lib.InMemoryEventStore;name=test", logId);
+    assertTrue(EventLog.open("io.ulzha.spive.lib.InMemoryEventStore;name=test", logId) == log);
+    assertFalse(EventLog.open("io.ulzha.spive.lib.InMemoryEventStore;name=other", logId) == log);
+  }
+}
@@ -0,0 +1,147 @@
+package io.ulzha.spive.lib;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.ulzha.spive.lib.umbilical.UmbilicalWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class PartitionedEventLoopTest {
+  public record Bump(String key, int n) {}
+
+  private static final EventSerde SERDE = EventSerde.forTypeTag("pojo:" + Bump.class.getName());
+
+  private static final InstanceMain.EventDispatcher<Counters> DISPATCHER =
+      (app, event) -> app.accept((Bump) event.payload, event.time);
+
+  /**
+   * Keeps the sequence of bumps per key. Every third bump has a consequence, and bumps without a
+   * key record how many events came before them.
+   */
+  public static class Counters implements PartitionedByKey {
+    final Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+    final AtomicInteger handled = new AtomicInteger();
+    private final EventGateway output;
+    private final int lanes;
+
+    Counters(final EventGateway output, final int lanes) {
+      this.output = output;
+      this.lanes = lanes;
+    }
+
+    public void accept(final Bump bump, final EventTime time) {
+      if (bump.key() == null) {
+        seen.computeIfAbsent("*", k -> new ArrayList<>()).add(handled.get());
+      } else {
+        seen.computeIfAbsent(bump.key(), k -> new ArrayList<>()).add(bump.n());
+        if (bump.n() < 1000 && bump.n() % 3 == 0) {
+          output.emitConsequential(SERDE, new Bump(bump.key(), bump.n() + 1000));
+        }
+      }
+      handled.incrementAndGet();
+    }
+
+    @Override
+    public Object partitionKey(final Object payload) {
+      return ((Bump) payload).key();
+    }
+
+    @Override
+    public int lanes() {
+      return lanes;
+    }
+  }
+
+  private static class FakeUmbilicus implements UmbilicalWriter {
+    final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+    @Override
+    public boolean getReplayMode() {
+      return false;
+    }
+
+    @Override
+    public void addSuccess() {}
+
+    @Override
+    public void addError(final Throwable error) {
+      errors.add(error);
+    }
+
+    @Override
+    public void addWarning(final Throwable warning) {}
+
+    @Override
+    public void addHeartbeat() {}
+
+    @Override
+    public void addOutputEvent(final EventTime outputEventTime) {}
+  }
+
+  private static class Run {
+    final FakeUmbilicus umbilicus = new FakeUmbilicus();
+    final EventGateway gateway;
+    final Counters app;
+    final Thread thread;
+
+    Run(final EventLog log, final int lanes) {
+      final EventIterator eventIterator = new EventIterator(log.iterator());
+      final EventLock eventLock = new EventLock();
+      gateway = new EventGateway(umbilicus, eventIterator, Instant::now, eventLock);
+      app = new Counters(gateway, lanes);
+      thread =
+          new Thread(InstanceMain.eventLoop(umbilicus, eventIterator, app, DISPATCHER, eventLock));
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void awaitHandled(final int n) throws InterruptedException {
+      await().until(() -> app.handled.get() >= n || !umbilicus.errors.isEmpty());
+      assertThat(umbilicus.errors, is(empty()));
+      assertThat(app.handled.get(), is(n));
+      thread.interrupt();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void givenEventsFromWorkload_whenHandledOnLanes_shouldMatchSerialReplayAndLaneReplay()
+      throws Exception {
+    final InMemoryEventLog log = new InMemoryEventLog();
+    final Run live = new Run(log, 4);
+    int expected = 0;
+    final List<Integer> expectedBarriers = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      final Bump bump = new Bump((i % 50 == 49 ? null : "k" + (i % 7)), i);
+      assertTrue(live.gateway.emitIf(() -> true, SERDE, bump));
+      if (bump.key() == null) {
+        expectedBarriers.add(expected);
+      }
+      expected += (bump.key() != null && i % 3 == 0 ? 2 : 1);
+    }
+    live.awaitHandled(expected);
+    final EventTime latestTime = log.latestEventTime();
+
+    final Run serialReplay = new Run(log, 1);
+    serialReplay.awaitHandled(expected);
+    assertThat(serialReplay.app.seen, is(live.app.seen));
+
+    final Run laneReplay = new Run(log, 4);
+    laneReplay.awaitHandled(expected);
+    assertThat(laneReplay.app.seen, is(live.app.seen));
+
+    assertThat(live.app.seen.get("*"), is(expectedBarriers));
+    assertThat(log.asPayloadList().size(), is(expected));
+    assertThat(log.latestEventTime(), is(latestTime));
+  }
+}
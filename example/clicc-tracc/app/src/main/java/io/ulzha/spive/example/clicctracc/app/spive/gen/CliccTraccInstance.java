@@ -6,6 +6,7 @@ import com.google.common.collect.ImmutableList;
 import io.ulzha.spive.basicrunner.api.Umbilical;
 import io.ulzha.spive.example.clicctracc.app.CliccTracc;
 import io.ulzha.spive.example.clicctracc.app.events.Clicc;
+import io.ulzha.spive.lib.Event;
 import io.ulzha.spive.lib.EventIterator;
 import io.ulzha.spive.lib.EventLock;
 import io.ulzha.spive.lib.EventLog;
@@ -73,9 +74,7 @@ public interface CliccTraccInstance {
       try (EventLog inputEventLog = EventLog.open(args[0], args[1]);
           EventLog outputEventLog = EventLog.open(args[2], args[3])) {
         final EventIterator eventIterator = new EventIterator(inputEventLog.iterator());
-
-        // FIXME thread-safe supplier
-        final UmbilicalWriter umbilicus = umbilical.new Umbilicus(() -> eventIterator.lastTimeRead);
+        final UmbilicalWriter umbilicus = umbilical.new Umbilicus(eventIterator::currentTime);
 
         final EventLock eventLock = new EventLock();
         final CliccTraccOutputGateway output =
@@ -84,7 +83,7 @@ public interface CliccTraccInstance {
         final CliccTracc app = new CliccTracc(output);
 
         List<Runnable> workloads = new ArrayList<>();
-        workloads.add(new EventLoop<CliccTracc>(umbilicus, eventIterator, app, eventLock));
+        workloads.add(eventLoop(umbilicus, eventIterator, app, Main::dispatch, eventLock));
         workloads.addAll(selectWorkloads(app, args[5]));
 
         umbilical.addHeartbeat(null); // marks start of all the workloads
@@ -113,6 +112,21 @@ public interface CliccTraccInstance {
       }
     }
 
+    /**
+     * Calls the accept() overload for the type of event directly, sparing reflection on the hot
+     * path. Switches on the payload type rather than the type tag, so that events of either serde
+     * format are handled alike.
+     */
+    private static void dispatch(final CliccTracc app, final Event event)
+        throws NoSuchMethodException {
+      switch (event.payload) {
+        case Clicc payload -> app.accept(payload, event.time);
+        default ->
+            throw new NoSuchMethodException(
+                "accept(" + event.payload.getClass().getName() + ", EventTime)");
+      }
+    }
+
     /* make overridable? Or instead, move out of generated spive.gen and subject to optimizer rules */
     private static List<Runnable> selectWorkloads(CliccTracc app, final String workloads) {
       // TODO the rules for workload selection, unsure about them - when to keep a single replica,
@@ -0,0 +1,187 @@
+package io.ulzha.spive.benchmarks;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventIterator;
+import io.ulzha.spive.lib.EventLog;
+import io.ulzha.spive.lib.EventTime;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares EventIterator with its former synchronized implementation, over a delegate that keeps no
+ * events, so that only the handoff between appending and reading is measured.
+ *
+ * <p>readBack appends and reads back on one thread, like an event loop emitting consequential
+ * events. pingPong reads events appended by a workload thread, which appends only once the previous
+ * event has been read, like emitIf does, so the reader mostly blocks and gets woken up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventIteratorBenchmark {
+  private static final int EVENTS = 1024;
+
+  /** Keeps only the event appended last, until read. */
+  static final class TailAppendIterator implements EventLog.AppendIterator {
+    private EventEnvelope next;
+    // events only arrive through appendOrPeek, which EventIterator hands over by itself
+    private final CompletableFuture<Void> never = new CompletableFuture<>();
+
+    @Override
+    public boolean wouldBlock() {
+      return next == null;
+    }
+
+    @Override
+    public CompletableFuture<Void> onAvailable() {
+      return (next == null ? never : AVAILABLE);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public EventEnvelope next() {
+      final EventEnvelope event = next;
+      next = null;
+      return event;
+    }
+
+    @Override
+    public EventEnvelope appendOrPeek(final EventEnvelope event) {
+      if (next == null) {
+        next = event;
+      }
+      return next;
+    }
+  }
+
+  /** The operations measured, common to both implementations. */
+  interface Subject {
+    EventEnvelope appendOrPeek(EventEnvelope event);
+
+    EventEnvelope next();
+  }
+
+  @State(Scope.Thread)
+  public static class Iterators {
+    @Param({"lockFree", "synchronized"})
+    public String implementation;
+
+    Subject subject;
+    final EventEnvelope[] events = new EventEnvelope[EVENTS];
+    int appended = 0;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      final Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+      for (int i = 0; i < EVENTS; i++) {
+        events[i] = new EventEnvelope(new EventTime(instant, i), null, "pojo:Benchmark", "0");
+      }
+      subject =
+          switch (implementation) {
+            case "lockFree" -> {
+              final EventIterator iterator = new EventIterator(new TailAppendIterator());
+              yield new Subject() {
+                @Override
+                public EventEnvelope appendOrPeek(final EventEnvelope event) {
+                  return iterator.appendOrPeek(event);
+                }
+
+                @Override
+                public EventEnvelope next() {
+                  return iterator.next();
+                }
+              };
+            }
+            case "synchronized" -> {
+              final SynchronizedEventIterator iterator =
+                  new SynchronizedEventIterator(new TailAppendIterator());
+              yield new Subject() {
+                @Override
+                public EventEnvelope appendOrPeek(final EventEnvelope event) {
+                  return iterator.appendOrPeek(event);
+                }
+
+                @Override
+                public EventEnvelope next() {
+                  return iterator.next();
+                }
+              };
+            }
+            default -> throw new IllegalArgumentException(implementation);
+          };
+    }
+  }
+
+  /**
+   * Appends on a thread of its own, each time the event appended previously has been read. Yields
+   * meanwhile, like emitIf backs off, rather than spinning the reader out of a processor.
+   */
+  @State(Scope.Thread)
+  public static class Workload {
+    volatile long read = 0;
+    private volatile boolean running;
+    private Thread thread;
+    // JMH injects an instance of its own here, not the one passed to the benchmark method
+    Iterators iterators;
+
+    @Setup(Level.Iteration)
+    public void start(final Iterators iterators) {
+      this.iterators = iterators;
+      read = 0;
+      running = true;
+      thread =
+          new Thread(
+              () -> {
+                for (long appended = 0; running; appended++) {
+                  while (read < appended) {
+                    if (!running) {
+                      return;
+                    }
+                    Thread.yield();
+                  }
+                  iterators.subject.appendOrPeek(iterators.events[(int) (appended % EVENTS)]);
+                }
+              });
+      thread.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws InterruptedException {
+      running = false;
+      thread.join();
+    }
+  }
+
+  @Benchmark
+  public EventEnvelope readBack(final Iterators iterators) {
+    iterators.subject.appendOrPeek(iterators.events[iterators.appended++ % EVENTS]);
+    return iterators.subject.next();
+  }
+
+  @Benchmark
+  public EventEnvelope pingPong(final Workload workload) {
+    final EventEnvelope event = workload.iterators.subject.next();
+    workload.read++;
+    return event;
+  }
+}
@@ -0,0 +1,71 @@
+package io.ulzha.spive.benchmarks;
+
+import io.ulzha.spive.lib.EventEnvelope;
+import io.ulzha.spive.lib.EventLog;
+import io.ulzha.spive.lib.EventTime;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+/**
+ * The read path of EventIterator as it was before the lock-free handoff, as a baseline: every call
+ * takes the monitor, appended events queue up in a LinkedList, and a blocked reader waits on the
+ * monitor for up to a second. (Minus the println on every wait, which would drown out the rest.)
+ */
+final class SynchronizedEventIterator {
+  private final EventLog.AppendIterator delegate;
+  private final Queue<EventEnvelope> knownEvents = new LinkedList<>();
+
+  public EventTime lastTimeRead = EventTime.INFINITE_PAST;
+  public EventTime lastTimeEmitted = EventTime.INFINITE_PAST;
+
+  SynchronizedEventIterator(final EventLog.AppendIterator delegate) {
+    this.delegate = delegate;
+  }
+
+  public synchronized boolean hasNext() {
+    while (knownEvents.isEmpty() && delegate.wouldBlock()) {
+      try {
+        wait(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+    if (knownEvents.isEmpty()) {
+      return delegate.hasNext();
+    } else {
+      return true;
+    }
+  }
+
+  public synchronized EventEnvelope next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    final EventEnvelope event;
+
+    if (knownEvents.isEmpty()) {
+      event = delegate.next();
+    } else {
+      event = knownEvents.remove();
+    }
+
+    lastTimeRead = event.time();
+    return event;
+  }
+
+  public synchronized EventEnvelope appendOrPeek(final EventEnvelope event) {
+    final EventEnvelope actualEvent = delegate.appendOrPeek(event);
+    if (actualEvent == event) {
+      lastTimeEmitted = event.time();
+    }
+    if (actualEvent != delegate.next()) {
+      throw new IllegalStateException("delegate violated appendOrPeek contract");
+    }
+    knownEvents.add(actualEvent);
+    notify();
+    return actualEvent;
+  }
+}
@@ -0,0 +1,30 @@
+package io.ulzha.spive.tools;
+
+import io.ulzha.spive.core.LocalFileSystemEventLog;
+import java.nio.file.Path;
+
+/**
+ * A maintainer's tool for converting a local log file from one format to another, e.g.
+ * `/mnt/event-store/<logId>/events.jsonl` to `/mnt/event-store/<logId>/events.bin`.
+ *
+ * <p>The formats are inferred from file names. Should not be run while the log is being appended
+ * to.
+ */
+public class ConvertLocalEventLog {
+  public static void main(final String... args) throws Exception {
+    final Path src = Path.of(args[0]);
+    final Path dst = Path.of(args[1]);
+
+    final long n = LocalFileSystemEventLog.convert(src, formatOf(src), dst, formatOf(dst));
+    System.out.println("Converted " + n + " events from " + src + " to " + dst);
+  }
+
+  private static LocalFileSystemEventLog.Format formatOf(final Path path) {
+    for (LocalFileSystemEventLog.Format format : LocalFileSystemEventLog.Format.values()) {
+      if (path.getFileName().toString().endsWith(format.fileName.replaceFirst("^events", ""))) {
+        return format;
+      }
+    }
+    throw new IllegalArgumentException("Unrecognized file extension: " + path);
+  }
+}
@@ -3,21 +3,53 @@ package io.ulzha.spive.tools;
 import io.ulzha.spive.lib.EventEnvelope;
 import io.ulzha.spive.lib.EventLog;
 import io.ulzha.spive.lib.EventTime;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /** A maintainer's tool for naively copying raw logs. */
 public class CopyEventLog {
+  private static final int BATCH_SIZE = 1000;
+
   public static void main(final String... args) throws Exception {
     final EventLog src = EventLog.open(args[0], args[1]);
     final EventLog dst = EventLog.open(args[2], args[3]);
     final EventTime last = EventTime.fromString(args[4]);
 
     EventTime prevTime = EventTime.INFINITE_PAST;
+    final List<EventEnvelope> batch = new ArrayList<>();
     // FIXME in this context we probably want to throw if it ends unfinalized and before `last`
     // (start.sh with #3 tricked me), or really get rid of `last` and use ranges and throw
-    for (EventEnvelope event : src) {
-      dst.appendIfPrevTimeMatch(event, prevTime);
-      prevTime = event.time();
-      if (event.time().equals(last)) break;
+    final EventLog.AppendIterator iterator = src.iterator();
+    while (iterator.hasNext()) {
+      final EventEnvelope event = iterator.next();
+      batch.add(event);
+      final boolean done = event.time().equals(last);
+      // flush when caught up with src, so as not to hold events back while it blocks
+      if (done || batch.size() == BATCH_SIZE || !iterator.onAvailable().isDone()) {
+        append(dst, batch, prevTime);
+        prevTime = event.time();
+        batch.clear();
+      }
+      if (done) break;
+    }
+    if (!batch.isEmpty()) {
+      append(dst, batch, prevTime);
+    }
+  }
+
+  /** One event at a time where dst cannot append runs, as is the case on Bigtable. */
+  private static void append(
+      final EventLog dst, final List<EventEnvelope> batch, final EventTime prevTime)
+      throws IOException {
+    try {
+      dst.appendAllIfPrevTimeMatch(batch, prevTime);
+    } catch (UnsupportedOperationException e) {
+      EventTime time = prevTime;
+      for (EventEnvelope event : batch) {
+        dst.appendIfPrevTimeMatch(event, time);
+        time = event.time();
+      }
     }
   }
 }